@@ -2,12 +2,15 @@ package org.jenkinsci.plugins.rabbitmqconsumer;
 
 import hudson.Extension;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
@@ -16,6 +19,16 @@ import net.sf.json.JSONObject;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.validator.routines.UrlValidator;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.BlockedPublishPolicy;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.CompressionCodec;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerMode;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerRole;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeduplicationCache;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FairDispatcher;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FlowControl;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.PrefetchController;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.RateLimiter;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
@@ -25,6 +38,7 @@ import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.PossibleAuthenticationFailureException;
 
 import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
 
 /**
  * Descriptor for global configuration.
@@ -40,87 +54,927 @@ public final class GlobalRabbitmqConfiguration extends GlobalConfiguration {
      */
     public static final String CONTENT_NONE = "-";
 
+    private static final int DEFAULT_DEBUG_MAX_PER_SECOND = 100;
+    private static final int DEFAULT_DEBUG_PREVIEW_LENGTH = 1024;
+    private static final long DEFAULT_RETRY_INITIAL_DELAY = 5;
+    private static final long DEFAULT_RETRY_MAX_DELAY = 300;
+    private static final int DEFAULT_DEDUPLICATION_CACHE_SIZE = 10000;
+    private static final long DEFAULT_DEDUPLICATION_TTL = 3600;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 65536;
+    private static final long DEFAULT_STANDBY_RETRY_INTERVAL = 5;
+    private static final int DEFAULT_MAX_PREFETCH_COUNT = 256;
+    private static final long DEFAULT_PREFETCH_TARGET_LATENCY = 1000;
+    private static final long DEFAULT_BLOCKED_PUBLISH_TIMEOUT = 60;
+    private static final int DEFAULT_BLOCKED_PUBLISH_BUFFER_SIZE = 1000;
+    private static final int DEFAULT_HEARTBEAT_INTERVAL = 10;
+    private static final int DEFAULT_LOAD_SHEDDING_QUEUE_HIGH = 1000;
+    private static final int DEFAULT_LOAD_SHEDDING_QUEUE_LOW = 500;
+
     private static final Logger LOGGER = Logger.getLogger(GlobalRabbitmqConfiguration.class.getName());
     private static final String[] AMQP_SCHEMES = { "amqp", "amqps" };
     private final UrlValidator urlValidator = new UrlValidator(AMQP_SCHEMES, UrlValidator.ALLOW_LOCAL_URLS);
 
-    private boolean enableConsumer;
-    private String serviceUri;
-    private String userName;
-    private Secret userPassword;
-    private List<RabbitmqConsumeItem> consumeItems;
-    private boolean enableDebug;
+    private boolean enableConsumer;
+    private String serviceUri;
+    private String userName;
+    private Secret userPassword;
+    private List<RabbitmqConsumeItem> consumeItems;
+    private boolean enableDebug;
+    private int debugSampleInterval = 1;
+    private int debugMaxPerSecond = DEFAULT_DEBUG_MAX_PER_SECOND;
+    private int debugPreviewLength = DEFAULT_DEBUG_PREVIEW_LENGTH;
+    private int retryMaxAttempts = 0;
+    private long retryInitialDelay = DEFAULT_RETRY_INITIAL_DELAY;
+    private long retryMaxDelay = DEFAULT_RETRY_MAX_DELAY;
+    private String deadLetterExchange;
+    private boolean enableDeduplication;
+    private String deduplicationHeader;
+    private int deduplicationCacheSize = DEFAULT_DEDUPLICATION_CACHE_SIZE;
+    private long deduplicationTtl = DEFAULT_DEDUPLICATION_TTL;
+    private String compression;
+    private String routingExchange;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private int maxDecompressedSize = CompressionCodec.DEFAULT_MAX_DECOMPRESSED_SIZE;
+    private String consumerMode;
+    private long standbyRetryInterval = DEFAULT_STANDBY_RETRY_INTERVAL;
+    private int dispatchLanes = 1;
+    private String dispatchKey;
+    private int dispatchWorkers = 0;
+    private String queueWeights;
+    private int prefetchCount = 0;
+    private boolean enableAdaptivePrefetch;
+    private int maxPrefetchCount = DEFAULT_MAX_PREFETCH_COUNT;
+    private long prefetchTargetLatency = DEFAULT_PREFETCH_TARGET_LATENCY;
+    private String blockedPublishPolicy;
+    private long blockedPublishTimeout = DEFAULT_BLOCKED_PUBLISH_TIMEOUT;
+    private int blockedPublishBufferSize = DEFAULT_BLOCKED_PUBLISH_BUFFER_SIZE;
+    private int heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+    private boolean enableTcpKeepAlive = true;
+    private boolean enableTcpNoDelay = true;
+    private int socketSendBufferSize = 0;
+    private int socketReceiveBufferSize = 0;
+    private boolean enableLoadShedding;
+    private int loadSheddingQueueHigh = DEFAULT_LOAD_SHEDDING_QUEUE_HIGH;
+    private int loadSheddingQueueLow = DEFAULT_LOAD_SHEDDING_QUEUE_LOW;
+    private int loadSheddingExecutorHigh = 0;
+    private int loadSheddingExecutorLow = 0;
+
+    /**
+     * Creates GlobalRabbitmqConfiguration instance with specified parameters.
+     *
+     * @param enableConsumer
+     *            if this feature is enabled.
+     * @param serviceUri
+     *            the service URI.
+     * @param userName
+     *            the username.
+     * @param userPassword
+     *            the password.
+     * @param consumeItems
+     *            the list of consumer items.
+     * @param enableDebug
+     *            true if debug is enabled.
+     */
+    @DataBoundConstructor
+    public GlobalRabbitmqConfiguration(boolean enableConsumer, String serviceUri,
+            String userName, Secret userPassword,
+            List<RabbitmqConsumeItem> consumeItems, boolean enableDebug) {
+        this.enableConsumer = enableConsumer;
+        this.serviceUri = StringUtils.strip(StringUtils.stripToNull(serviceUri), "/");
+        this.userName = userName;
+        this.userPassword = userPassword;
+        this.consumeItems = consumeItems;
+        this.enableDebug = enableDebug;
+    }
+
+    /**
+     * Create GlobalRabbitmqConfiguration from disk.
+     */
+    public GlobalRabbitmqConfiguration() {
+        load();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return PLUGIN_NAME;
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws hudson.model.Descriptor.FormException {
+        if (consumeItems != null) {
+            consumeItems.clear();
+        }
+        req.bindJSON(this, json);
+
+        if (urlValidator.isValid(serviceUri)) {
+            save();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets whether debug is enabled or not.
+     *
+     * @return true if debug is enabled.
+     */
+    public boolean isEnableDebug() {
+        return enableDebug;
+    }
+
+    /**
+     * Sets flag whether debug is enabled or not.
+     *
+     * @param enableDebug true if debug is enabled.
+     */
+    public void setEnableDebug(boolean enableDebug) {
+        this.enableDebug = enableDebug;
+    }
+
+    /**
+     * Gets interval of messages logged by debug listener.
+     *
+     * @return the interval. 1 if all messages are logged.
+     */
+    public int getDebugSampleInterval() {
+        return debugSampleInterval;
+    }
+
+    /**
+     * Sets interval of messages logged by debug listener.
+     *
+     * @param debugSampleInterval
+     *            the interval. 1 if all messages are logged.
+     */
+    public void setDebugSampleInterval(int debugSampleInterval) {
+        this.debugSampleInterval = Math.max(1, debugSampleInterval);
+    }
+
+    /**
+     * Gets max number of messages logged by debug listener per second.
+     *
+     * @return the max number. 0 if unlimited.
+     */
+    public int getDebugMaxPerSecond() {
+        return debugMaxPerSecond;
+    }
+
+    /**
+     * Sets max number of messages logged by debug listener per second.
+     *
+     * @param debugMaxPerSecond
+     *            the max number. 0 if unlimited.
+     */
+    public void setDebugMaxPerSecond(int debugMaxPerSecond) {
+        this.debugMaxPerSecond = Math.max(0, debugMaxPerSecond);
+    }
+
+    /**
+     * Gets max length of message body logged by debug listener.
+     *
+     * @return the max number of characters. 0 if unlimited.
+     */
+    public int getDebugPreviewLength() {
+        return debugPreviewLength;
+    }
+
+    /**
+     * Sets max length of message body logged by debug listener.
+     *
+     * @param debugPreviewLength
+     *            the max number of characters. 0 if unlimited.
+     */
+    public void setDebugPreviewLength(int debugPreviewLength) {
+        this.debugPreviewLength = Math.max(0, debugPreviewLength);
+    }
+
+    /**
+     * Gets max number of delivery attempts for failed message.
+     *
+     * @return the max number of attempts. 0 if retry is disabled.
+     */
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    /**
+     * Sets max number of delivery attempts for failed message.
+     *
+     * @param retryMaxAttempts
+     *            the max number of attempts. 0 if retry is disabled.
+     */
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = Math.max(0, retryMaxAttempts);
+    }
+
+    /**
+     * Gets delay before the first retry.
+     *
+     * @return the delay in seconds.
+     */
+    public long getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    /**
+     * Sets delay before the first retry.
+     *
+     * @param retryInitialDelay
+     *            the delay in seconds.
+     */
+    public void setRetryInitialDelay(long retryInitialDelay) {
+        this.retryInitialDelay = Math.max(0, retryInitialDelay);
+    }
+
+    /**
+     * Gets max delay between retries.
+     *
+     * @return the delay in seconds.
+     */
+    public long getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    /**
+     * Sets max delay between retries.
+     *
+     * @param retryMaxDelay
+     *            the delay in seconds.
+     */
+    public void setRetryMaxDelay(long retryMaxDelay) {
+        this.retryMaxDelay = Math.max(0, retryMaxDelay);
+    }
+
+    /**
+     * Gets exchange which exhausted message is published to.
+     *
+     * @return the exchange name.
+     */
+    public String getDeadLetterExchange() {
+        return deadLetterExchange;
+    }
+
+    /**
+     * Sets exchange which exhausted message is published to.
+     *
+     * @param deadLetterExchange
+     *            the exchange name.
+     */
+    public void setDeadLetterExchange(String deadLetterExchange) {
+        this.deadLetterExchange = StringUtils.stripToNull(deadLetterExchange);
+    }
+
+    /**
+     * Gets whether duplicated messages are skipped or not.
+     *
+     * @return true if deduplication is enabled.
+     */
+    public boolean isEnableDeduplication() {
+        return enableDeduplication;
+    }
+
+    /**
+     * Sets flag whether duplicated messages are skipped or not.
+     *
+     * @param enableDeduplication
+     *            true if deduplication is enabled.
+     */
+    public void setEnableDeduplication(boolean enableDeduplication) {
+        this.enableDeduplication = enableDeduplication;
+    }
+
+    /**
+     * Gets header name used as deduplication key.
+     *
+     * @return the header name. null if message id is used.
+     */
+    public String getDeduplicationHeader() {
+        return deduplicationHeader;
+    }
+
+    /**
+     * Sets header name used as deduplication key.
+     *
+     * @param deduplicationHeader
+     *            the header name. empty if message id is used.
+     */
+    public void setDeduplicationHeader(String deduplicationHeader) {
+        this.deduplicationHeader = StringUtils.stripToNull(deduplicationHeader);
+    }
+
+    /**
+     * Gets max number of keys kept per queue.
+     *
+     * @return the max number of keys.
+     */
+    public int getDeduplicationCacheSize() {
+        return deduplicationCacheSize;
+    }
+
+    /**
+     * Sets max number of keys kept per queue.
+     *
+     * @param deduplicationCacheSize
+     *            the max number of keys.
+     */
+    public void setDeduplicationCacheSize(int deduplicationCacheSize) {
+        this.deduplicationCacheSize = Math.max(1, deduplicationCacheSize);
+    }
+
+    /**
+     * Gets time to live of deduplication key.
+     *
+     * @return the time in seconds.
+     */
+    public long getDeduplicationTtl() {
+        return deduplicationTtl;
+    }
+
+    /**
+     * Sets time to live of deduplication key.
+     *
+     * @param deduplicationTtl
+     *            the time in seconds.
+     */
+    public void setDeduplicationTtl(long deduplicationTtl) {
+        this.deduplicationTtl = Math.max(0, deduplicationTtl);
+    }
+
+    /**
+     * Gets exchange which routes messages to queues by application id.
+     *
+     * @return the exchange name. null if routing is disabled.
+     */
+    public String getRoutingExchange() {
+        return routingExchange;
+    }
+
+    /**
+     * Sets exchange which routes messages to queues by application id.
+     *
+     * @param routingExchange
+     *            the exchange name. empty if routing is disabled.
+     */
+    public void setRoutingExchange(String routingExchange) {
+        this.routingExchange = StringUtils.stripToNull(routingExchange);
+    }
+
+    /**
+     * Gets content encoding used to compress published messages.
+     *
+     * @return the content encoding. null if compression is disabled.
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets content encoding used to compress published messages.
+     *
+     * @param compression
+     *            the content encoding. empty or {@link #CONTENT_NONE} if compression is disabled.
+     */
+    public void setCompression(String compression) {
+        String value = StringUtils.stripToNull(compression);
+        this.compression = CONTENT_NONE.equals(value) ? null : value;
+    }
+
+    /**
+     * Gets min size of message body to be compressed.
+     *
+     * @return the size in bytes.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets min size of message body to be compressed.
+     *
+     * @param compressionThreshold
+     *            the size in bytes.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = Math.max(0, compressionThreshold);
+    }
+
+    /**
+     * Gets max size of decompressed message body.
+     *
+     * @return the size in bytes.
+     */
+    public int getMaxDecompressedSize() {
+        return maxDecompressedSize > 0 ? maxDecompressedSize : CompressionCodec.DEFAULT_MAX_DECOMPRESSED_SIZE;
+    }
+
+    /**
+     * Sets max size of decompressed message body.
+     * Message which exceeds it is rejected.
+     *
+     * @param maxDecompressedSize
+     *            the size in bytes. 0 means default size.
+     */
+    public void setMaxDecompressedSize(int maxDecompressedSize) {
+        this.maxDecompressedSize = Math.max(0, maxDecompressedSize);
+    }
+
+    /**
+     * Fills compression codecs.
+     *
+     * @return the list of content encodings.
+     */
+    public ListBoxModel doFillCompressionItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add(CONTENT_NONE);
+        for (String encoding : CompressionCodec.getEncodings()) {
+            items.add(encoding);
+        }
+        return items;
+    }
+
+    /**
+     * Gets mode of consumer shared with other instances.
+     *
+     * @return the name of {@link ConsumerMode}. null means shared.
+     */
+    public String getConsumerMode() {
+        return consumerMode;
+    }
+
+    /**
+     * Sets mode of consumer shared with other instances.
+     *
+     * @param consumerMode
+     *            the name of {@link ConsumerMode}.
+     */
+    public void setConsumerMode(String consumerMode) {
+        this.consumerMode = StringUtils.stripToNull(consumerMode);
+    }
+
+    /**
+     * Gets interval to retry consume for queues in standby.
+     *
+     * @return the interval in seconds.
+     */
+    public long getStandbyRetryInterval() {
+        return standbyRetryInterval;
+    }
+
+    /**
+     * Sets interval to retry consume for queues in standby.
+     *
+     * @param standbyRetryInterval
+     *            the interval in seconds.
+     */
+    public void setStandbyRetryInterval(long standbyRetryInterval) {
+        this.standbyRetryInterval = Math.max(1, standbyRetryInterval);
+    }
+
+    /**
+     * Gets the number of lanes which deliveries from a queue are dispatched on.
+     *
+     * @return the number of lanes. 1 means deliveries are dispatched in order.
+     */
+    public int getDispatchLanes() {
+        return dispatchLanes;
+    }
+
+    /**
+     * Sets the number of lanes which deliveries from a queue are dispatched on.
+     *
+     * @param dispatchLanes
+     *            the number of lanes.
+     */
+    public void setDispatchLanes(int dispatchLanes) {
+        this.dispatchLanes = Math.max(1, dispatchLanes);
+    }
+
+    /**
+     * Gets expression of key which keeps order of deliveries on lanes.
+     *
+     * @return the expression. null if deliveries are assigned to lanes in turn.
+     */
+    public String getDispatchKey() {
+        return dispatchKey;
+    }
+
+    /**
+     * Sets expression of key which keeps order of deliveries on lanes.
+     *
+     * @param dispatchKey
+     *            the expression.
+     */
+    public void setDispatchKey(String dispatchKey) {
+        this.dispatchKey = StringUtils.stripToNull(dispatchKey);
+    }
+
+    /**
+     * Gets the number of workers shared among queues.
+     *
+     * @return the number of workers. 0 means deliveries are dispatched on consumer thread.
+     */
+    public int getDispatchWorkers() {
+        return dispatchWorkers;
+    }
+
+    /**
+     * Sets the number of workers shared among queues.
+     *
+     * @param dispatchWorkers
+     *            the number of workers.
+     */
+    public void setDispatchWorkers(int dispatchWorkers) {
+        this.dispatchWorkers = Math.max(0, dispatchWorkers);
+    }
+
+    /**
+     * Gets weights of queues for shared workers.
+     *
+     * @return the weights. "queueName weight" per line.
+     */
+    public String getQueueWeights() {
+        return queueWeights;
+    }
+
+    /**
+     * Sets weights of queues for shared workers.
+     *
+     * @param queueWeights
+     *            the weights. "queueName weight" per line.
+     */
+    public void setQueueWeights(String queueWeights) {
+        this.queueWeights = StringUtils.stripToNull(queueWeights);
+    }
+
+    /**
+     * Gets map of queue name and weight. Line which has no valid weight is ignored.
+     *
+     * @return the map of weights.
+     */
+    public Map<String, Integer> getQueueWeightMap() {
+        Map<String, Integer> map = new HashMap<String, Integer>();
+        if (queueWeights != null) {
+            for (String line : StringUtils.split(queueWeights, "\r\n")) {
+                String[] tokens = StringUtils.split(line);
+                if (tokens.length > 1) {
+                    try {
+                        map.put(tokens[0], Integer.parseInt(tokens[1]));
+                    } catch (NumberFormatException e) {
+                        LOGGER.warning("Invalid weight for queue: " + line);
+                    }
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Gets prefetch count of consume channel.
+     *
+     * @return the prefetch count. 0 means unlimited.
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Sets prefetch count of consume channel.
+     *
+     * @param prefetchCount
+     *            the prefetch count. 0 means unlimited.
+     */
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = Math.max(0, prefetchCount);
+    }
+
+    /**
+     * Gets whether prefetch count is adjusted by listener latency or not.
+     *
+     * @return true if adaptive prefetch is enabled.
+     */
+    public boolean isEnableAdaptivePrefetch() {
+        return enableAdaptivePrefetch;
+    }
+
+    /**
+     * Sets flag whether prefetch count is adjusted by listener latency or not.
+     *
+     * @param enableAdaptivePrefetch
+     *            true if adaptive prefetch is enabled.
+     */
+    public void setEnableAdaptivePrefetch(boolean enableAdaptivePrefetch) {
+        this.enableAdaptivePrefetch = enableAdaptivePrefetch;
+    }
+
+    /**
+     * Gets max prefetch count for adaptive prefetch.
+     *
+     * @return the max prefetch count.
+     */
+    public int getMaxPrefetchCount() {
+        return maxPrefetchCount;
+    }
+
+    /**
+     * Sets max prefetch count for adaptive prefetch.
+     *
+     * @param maxPrefetchCount
+     *            the max prefetch count.
+     */
+    public void setMaxPrefetchCount(int maxPrefetchCount) {
+        this.maxPrefetchCount = Math.max(1, maxPrefetchCount);
+    }
+
+    /**
+     * Gets target latency from delivery to settlement for adaptive prefetch.
+     *
+     * @return the latency in millis.
+     */
+    public long getPrefetchTargetLatency() {
+        return prefetchTargetLatency;
+    }
+
+    /**
+     * Sets target latency from delivery to settlement for adaptive prefetch.
+     *
+     * @param prefetchTargetLatency
+     *            the latency in millis.
+     */
+    public void setPrefetchTargetLatency(long prefetchTargetLatency) {
+        this.prefetchTargetLatency = Math.max(1, prefetchTargetLatency);
+    }
+
+    /**
+     * Gets policy for messages published while connection is blocked by broker.
+     *
+     * @return the name of {@link BlockedPublishPolicy}. null means buffer.
+     */
+    public String getBlockedPublishPolicy() {
+        return blockedPublishPolicy;
+    }
+
+    /**
+     * Sets policy for messages published while connection is blocked by broker.
+     *
+     * @param blockedPublishPolicy
+     *            the name of {@link BlockedPublishPolicy}.
+     */
+    public void setBlockedPublishPolicy(String blockedPublishPolicy) {
+        this.blockedPublishPolicy = StringUtils.stripToNull(blockedPublishPolicy);
+    }
+
+    /**
+     * Gets max time to hold message while connection is blocked by broker.
+     *
+     * @return the time in seconds.
+     */
+    public long getBlockedPublishTimeout() {
+        return blockedPublishTimeout;
+    }
+
+    /**
+     * Sets max time to hold message while connection is blocked by broker.
+     *
+     * @param blockedPublishTimeout
+     *            the time in seconds.
+     */
+    public void setBlockedPublishTimeout(long blockedPublishTimeout) {
+        this.blockedPublishTimeout = Math.max(0, blockedPublishTimeout);
+    }
+
+    /**
+     * Gets max number of messages held while connection is blocked by broker.
+     *
+     * @return the number of messages.
+     */
+    public int getBlockedPublishBufferSize() {
+        return blockedPublishBufferSize > 0 ? blockedPublishBufferSize : DEFAULT_BLOCKED_PUBLISH_BUFFER_SIZE;
+    }
+
+    /**
+     * Sets max number of messages held while connection is blocked by broker.
+     * Message beyond it fails immediately.
+     *
+     * @param blockedPublishBufferSize
+     *            the number of messages. 0 means default size.
+     */
+    public void setBlockedPublishBufferSize(int blockedPublishBufferSize) {
+        this.blockedPublishBufferSize = Math.max(0, blockedPublishBufferSize);
+    }
+
+    /**
+     * Gets heartbeat interval requested to broker.
+     *
+     * @return the interval in seconds. 0 means heartbeat is disabled.
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Sets heartbeat interval requested to broker.
+     *
+     * @param heartbeatInterval
+     *            the interval in seconds. 0 means heartbeat is disabled.
+     */
+    public void setHeartbeatInterval(int heartbeatInterval) {
+        this.heartbeatInterval = Math.max(0, heartbeatInterval);
+    }
+
+    /**
+     * Gets whether TCP keepalive is enabled or not.
+     *
+     * @return true if TCP keepalive is enabled.
+     */
+    public boolean isEnableTcpKeepAlive() {
+        return enableTcpKeepAlive;
+    }
 
     /**
-     * Creates GlobalRabbitmqConfiguration instance with specified parameters.
+     * Sets flag whether TCP keepalive is enabled or not.
      *
-     * @param enableConsumer
-     *            if this feature is enabled.
-     * @param serviceUri
-     *            the service URI.
-     * @param userName
-     *            the username.
-     * @param userPassword
-     *            the password.
-     * @param consumeItems
-     *            the list of consumer items.
-     * @param enableDebug
-     *            true if debug is enabled.
+     * @param enableTcpKeepAlive
+     *            true if TCP keepalive is enabled.
      */
-    @DataBoundConstructor
-    public GlobalRabbitmqConfiguration(boolean enableConsumer, String serviceUri,
-            String userName, Secret userPassword,
-            List<RabbitmqConsumeItem> consumeItems, boolean enableDebug) {
-        this.enableConsumer = enableConsumer;
-        this.serviceUri = StringUtils.strip(StringUtils.stripToNull(serviceUri), "/");
-        this.userName = userName;
-        this.userPassword = userPassword;
-        this.consumeItems = consumeItems;
-        this.enableDebug = enableDebug;
+    public void setEnableTcpKeepAlive(boolean enableTcpKeepAlive) {
+        this.enableTcpKeepAlive = enableTcpKeepAlive;
     }
 
     /**
-     * Create GlobalRabbitmqConfiguration from disk.
+     * Gets whether TCP_NODELAY is enabled or not.
+     *
+     * @return true if TCP_NODELAY is enabled.
      */
-    public GlobalRabbitmqConfiguration() {
-        load();
+    public boolean isEnableTcpNoDelay() {
+        return enableTcpNoDelay;
     }
 
-    @Override
-    public String getDisplayName() {
-        return PLUGIN_NAME;
+    /**
+     * Sets flag whether TCP_NODELAY is enabled or not.
+     *
+     * @param enableTcpNoDelay
+     *            true if TCP_NODELAY is enabled.
+     */
+    public void setEnableTcpNoDelay(boolean enableTcpNoDelay) {
+        this.enableTcpNoDelay = enableTcpNoDelay;
     }
 
-    @Override
-    public boolean configure(StaplerRequest req, JSONObject json) throws hudson.model.Descriptor.FormException {
-        if (consumeItems != null) {
-            consumeItems.clear();
-        }
-        req.bindJSON(this, json);
+    /**
+     * Gets size of socket send buffer.
+     *
+     * @return the size in bytes. 0 means OS default.
+     */
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
 
-        if (urlValidator.isValid(serviceUri)) {
-            save();
-            return true;
-        }
-        return false;
+    /**
+     * Sets size of socket send buffer.
+     *
+     * @param socketSendBufferSize
+     *            the size in bytes. 0 means OS default.
+     */
+    public void setSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = Math.max(0, socketSendBufferSize);
     }
 
     /**
-     * Gets whether debug is enabled or not.
+     * Gets size of socket receive buffer.
      *
-     * @return true if debug is enabled.
+     * @return the size in bytes. 0 means OS default.
      */
-    public boolean isEnableDebug() {
-        return enableDebug;
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
     }
 
     /**
-     * Sets flag whether debug is enabled or not.
+     * Sets size of socket receive buffer.
      *
-     * @param enableDebug true if debug is enabled.
+     * @param socketReceiveBufferSize
+     *            the size in bytes. 0 means OS default.
      */
-    public void setEnableDebug(boolean enableDebug) {
-        this.enableDebug = enableDebug;
+    public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = Math.max(0, socketReceiveBufferSize);
+    }
+
+    /**
+     * Gets whether consumers are paused by load of Jenkins or not.
+     *
+     * @return true if load shedding is enabled.
+     */
+    public boolean isEnableLoadShedding() {
+        return enableLoadShedding;
+    }
+
+    /**
+     * Sets flag whether consumers are paused by load of Jenkins or not.
+     *
+     * @param enableLoadShedding
+     *            true if load shedding is enabled.
+     */
+    public void setEnableLoadShedding(boolean enableLoadShedding) {
+        this.enableLoadShedding = enableLoadShedding;
+    }
+
+    /**
+     * Gets length of build queue to pause consumers.
+     *
+     * @return the number of items in build queue.
+     */
+    public int getLoadSheddingQueueHigh() {
+        return loadSheddingQueueHigh;
+    }
+
+    /**
+     * Sets length of build queue to pause consumers.
+     *
+     * @param loadSheddingQueueHigh
+     *            the number of items in build queue.
+     */
+    public void setLoadSheddingQueueHigh(int loadSheddingQueueHigh) {
+        this.loadSheddingQueueHigh = Math.max(1, loadSheddingQueueHigh);
+    }
+
+    /**
+     * Gets length of build queue to resume consumers.
+     *
+     * @return the number of items in build queue.
+     */
+    public int getLoadSheddingQueueLow() {
+        return loadSheddingQueueLow;
+    }
+
+    /**
+     * Sets length of build queue to resume consumers.
+     *
+     * @param loadSheddingQueueLow
+     *            the number of items in build queue.
+     */
+    public void setLoadSheddingQueueLow(int loadSheddingQueueLow) {
+        this.loadSheddingQueueLow = Math.max(0, loadSheddingQueueLow);
+    }
+
+    /**
+     * Gets ratio of busy executors to pause consumers.
+     *
+     * @return the ratio in percent. 0 means executors are not checked.
+     */
+    public int getLoadSheddingExecutorHigh() {
+        return loadSheddingExecutorHigh;
+    }
+
+    /**
+     * Sets ratio of busy executors to pause consumers.
+     *
+     * @param loadSheddingExecutorHigh
+     *            the ratio in percent. 0 means executors are not checked.
+     */
+    public void setLoadSheddingExecutorHigh(int loadSheddingExecutorHigh) {
+        this.loadSheddingExecutorHigh = Math.min(100, Math.max(0, loadSheddingExecutorHigh));
+    }
+
+    /**
+     * Gets ratio of busy executors to resume consumers.
+     *
+     * @return the ratio in percent.
+     */
+    public int getLoadSheddingExecutorLow() {
+        return loadSheddingExecutorLow;
+    }
+
+    /**
+     * Sets ratio of busy executors to resume consumers.
+     *
+     * @param loadSheddingExecutorLow
+     *            the ratio in percent.
+     */
+    public void setLoadSheddingExecutorLow(int loadSheddingExecutorLow) {
+        this.loadSheddingExecutorLow = Math.min(100, Math.max(0, loadSheddingExecutorLow));
+    }
+
+    /**
+     * Fills policies for messages published while connection is blocked.
+     *
+     * @return the list of policies.
+     */
+    public ListBoxModel doFillBlockedPublishPolicyItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Buffer", BlockedPublishPolicy.BUFFER.name());
+        items.add("Fail", BlockedPublishPolicy.FAIL.name());
+        return items;
+    }
+
+    /**
+     * Fills consumer modes.
+     *
+     * @return the list of consumer modes.
+     */
+    public ListBoxModel doFillConsumerModeItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Shared", ConsumerMode.SHARED.name());
+        items.add("Exclusive", ConsumerMode.EXCLUSIVE.name());
+        items.add("Single active consumer", ConsumerMode.SINGLE_ACTIVE.name());
+        return items;
     }
 
     /**
@@ -317,6 +1171,233 @@ public final class GlobalRabbitmqConfiguration extends GlobalConfiguration {
         return false;
     }
 
+    /**
+     * Gets role of consumer for specified queue. Note that this is called by
+     * Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the name of {@link ConsumerRole}. empty if queue is not consumed.
+     */
+    @JavaScriptMethod
+    public String getConsumerRole(String queueName) {
+        RMQManager manager = RMQManager.getInstance();
+        if (manager.isOpen()) {
+            ConsumerRole role = manager.getConsumerRole(queueName);
+            if (role != null) {
+                return role.name();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Pauses or resumes consumer for specified queue. Note that this is called by
+     * Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param paused
+     *            true if consumer should be paused.
+     * @return true if consumer is paused.
+     */
+    @JavaScriptMethod
+    public boolean setQueuePaused(String queueName, boolean paused) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        String name = StringUtils.stripToNull(queueName);
+        if (name == null) {
+            return false;
+        }
+        RMQManager manager = RMQManager.getInstance();
+        if (paused) {
+            manager.pauseConsume(name);
+        } else {
+            manager.resumeConsume(name);
+        }
+        return manager.isConsumePaused(name);
+    }
+
+    /**
+     * Gets whether consumer for specified queue is paused or not. Note that this
+     * is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return true if consumer is paused.
+     */
+    @JavaScriptMethod
+    public boolean isQueuePaused(String queueName) {
+        String name = StringUtils.stripToNull(queueName);
+        return name != null && RMQManager.getInstance().isConsumePaused(name);
+    }
+
+    /**
+     * Gets average and max time which deliveries wait for shared workers.
+     * Note that this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the array of average and max wait in millis. empty if shared workers are disabled.
+     */
+    @JavaScriptMethod
+    public long[] getDispatchWait(String queueName) {
+        FairDispatcher dispatcher = RMQManager.getInstance().getFairDispatcher();
+        if (dispatcher == null) {
+            return new long[0];
+        }
+        return new long[] {dispatcher.getAverageWait(queueName), dispatcher.getMaxWait(queueName)};
+    }
+
+    /**
+     * Gets current and throttled rates of messages for specified queue and
+     * application id. Note that this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param appId
+     *            the application id.
+     * @return the array of current rate and throttled rate per second. empty if rate is not limited.
+     */
+    @JavaScriptMethod
+    public int[] getConsumeRate(String queueName, String appId) {
+        RMQManager manager = RMQManager.getInstance();
+        if (manager.isOpen()) {
+            for (ConsumeRMQChannel ch : manager.getConsumeChannels()) {
+                if (ch.getQueueName().equals(queueName)) {
+                    RateLimiter limiter = ch.getRateLimiter(appId);
+                    if (limiter != null) {
+                        return new int[] {limiter.getCurrentRate(), limiter.getThrottledRate()};
+                    }
+                }
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Gets the number of deliveries and the number of deliveries discarded because
+     * no listener wants them for specified queue. Note that this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the array of delivery count and wasted delivery count. empty if queue is not consumed.
+     */
+    @JavaScriptMethod
+    public long[] getDeliveryCount(String queueName) {
+        RMQManager manager = RMQManager.getInstance();
+        if (manager.isOpen()) {
+            for (ConsumeRMQChannel ch : manager.getConsumeChannels()) {
+                if (ch.getQueueName().equals(queueName)) {
+                    return new long[] {ch.getDeliveryCount(), ch.getWastedDeliveryCount()};
+                }
+            }
+        }
+        return new long[0];
+    }
+
+    /**
+     * Gets the number of duplicated deliveries which are skipped and the number of
+     * deliveries which are processed with deduplication for specified queue.
+     * Note that this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the array of hit count and miss count. empty if deduplication is disabled.
+     */
+    @JavaScriptMethod
+    public long[] getDeduplicationCount(String queueName) {
+        DeduplicationCache cache = DeduplicationCache.get(queueName);
+        if (cache == null) {
+            return new long[0];
+        }
+        return new long[] {cache.getHitCount(), cache.getMissCount()};
+    }
+
+    /**
+     * Gets current prefetch count for specified queue. Note that this is called by
+     * Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the prefetch count. 0 if it is unlimited or queue is not consumed.
+     */
+    @JavaScriptMethod
+    public int getCurrentPrefetchCount(String queueName) {
+        PrefetchController prefetch = getPrefetchController(queueName);
+        if (prefetch != null) {
+            return prefetch.getPrefetchCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the last decision of adaptive prefetch for specified queue. Note that
+     * this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the name of decision. empty if it is unlimited or queue is not consumed.
+     */
+    @JavaScriptMethod
+    public String getPrefetchDecision(String queueName) {
+        PrefetchController prefetch = getPrefetchController(queueName);
+        if (prefetch != null) {
+            return prefetch.getLastDecision().name();
+        }
+        return "";
+    }
+
+    /**
+     * Gets average latency which prefetch count is adjusted by for specified queue.
+     * Note that this is called by Ajax.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the latency in millis. 0 if it is unlimited or queue is not consumed.
+     */
+    @JavaScriptMethod
+    public long getPrefetchLatency(String queueName) {
+        PrefetchController prefetch = getPrefetchController(queueName);
+        if (prefetch != null) {
+            return prefetch.getAverageLatency();
+        }
+        return 0;
+    }
+
+    /**
+     * Gets prefetch controller for specified queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the controller. null if it is unlimited or queue is not consumed.
+     */
+    private PrefetchController getPrefetchController(String queueName) {
+        RMQManager manager = RMQManager.getInstance();
+        if (manager.isOpen()) {
+            for (ConsumeRMQChannel ch : manager.getConsumeChannels()) {
+                if (ch.getQueueName().equals(queueName) && ch.getPrefetch() != null) {
+                    return ch.getPrefetch();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets total duration connection is blocked by broker. Note that this is
+     * called by Ajax.
+     *
+     * @return the duration in millis. 0 if connection is not established.
+     */
+    @JavaScriptMethod
+    public long getBlockedMillis() {
+        FlowControl flowControl = RMQManager.getInstance().getFlowControl();
+        if (flowControl != null) {
+            return flowControl.getBlockedMillis();
+        }
+        return 0;
+    }
+
     /**
      * Gets this extension's instance.
      *
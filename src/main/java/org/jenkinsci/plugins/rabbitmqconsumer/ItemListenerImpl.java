@@ -28,7 +28,7 @@ public class ItemListenerImpl extends ItemListener {
     @Override
     public final void onLoaded() {
         LOGGER.info("Start bootup process.");
-        rmqManager.update();
+        rmqManager.startAsync();
         super.onLoaded();
     }
 
@@ -0,0 +1,252 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Topology of consumed queue which is declared by this plugin.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class QueueTopology extends AbstractDescribableImpl<QueueTopology> {
+
+    /**
+     * Classic queue type.
+     */
+    public static final String TYPE_CLASSIC = "classic";
+    /**
+     * Lazy queue type, which is classic queue keeping messages on disk.
+     */
+    public static final String TYPE_LAZY = "lazy";
+    /**
+     * Quorum queue type.
+     */
+    public static final String TYPE_QUORUM = "quorum";
+
+    private static final int MAX_PRIORITY_LIMIT = 255;
+
+    private final boolean durable;
+    private final String queueType;
+    private final long maxLength;
+    private final long messageTtl;
+    private final String bindings;
+    private final int maxPriority;
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param durable
+     *            true if queue survives broker restart.
+     * @param queueType
+     *            the queue type.
+     * @param maxLength
+     *            the max number of messages. 0 means unlimited.
+     * @param messageTtl
+     *            the TTL of messages in millis. 0 means unlimited.
+     * @param bindings
+     *            the bindings. each line is exchange name and optional routing key.
+     */
+    public QueueTopology(boolean durable, String queueType, long maxLength, long messageTtl, String bindings) {
+        this(durable, queueType, maxLength, messageTtl, bindings, 0);
+    }
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param durable
+     *            true if queue survives broker restart.
+     * @param queueType
+     *            the queue type.
+     * @param maxLength
+     *            the max number of messages. 0 means unlimited.
+     * @param messageTtl
+     *            the TTL of messages in millis. 0 means unlimited.
+     * @param bindings
+     *            the bindings. each line is exchange name and optional routing key.
+     * @param maxPriority
+     *            the max priority of messages. 0 means queue has no priority.
+     */
+    @DataBoundConstructor
+    public QueueTopology(boolean durable, String queueType, long maxLength, long messageTtl, String bindings,
+            int maxPriority) {
+        this.queueType = StringUtils.defaultIfBlank(StringUtils.strip(queueType), TYPE_CLASSIC);
+        this.durable = durable || TYPE_QUORUM.equals(this.queueType);
+        this.maxLength = Math.max(0, maxLength);
+        this.messageTtl = Math.max(0, messageTtl);
+        this.bindings = StringUtils.stripToNull(bindings);
+        this.maxPriority = Math.min(MAX_PRIORITY_LIMIT, Math.max(0, maxPriority));
+    }
+
+    /**
+     * Gets whether queue survives broker restart or not.
+     *
+     * @return true if queue is durable.
+     */
+    public boolean isDurable() {
+        return durable;
+    }
+
+    /**
+     * Gets queue type.
+     *
+     * @return the queue type.
+     */
+    public String getQueueType() {
+        return queueType;
+    }
+
+    /**
+     * Gets max number of messages in queue.
+     *
+     * @return the number of messages. 0 means unlimited.
+     */
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Gets TTL of messages in queue.
+     *
+     * @return the TTL in millis. 0 means unlimited.
+     */
+    public long getMessageTtl() {
+        return messageTtl;
+    }
+
+    /**
+     * Gets bindings.
+     *
+     * @return the bindings. null if queue is not bound.
+     */
+    public String getBindings() {
+        return bindings;
+    }
+
+    /**
+     * Gets max priority of messages in queue.
+     * This is not applied to quorum queue.
+     *
+     * @return the max priority. 0 means queue has no priority.
+     */
+    public int getMaxPriority() {
+        return maxPriority;
+    }
+
+    /**
+     * Gets arguments to declare queue.
+     *
+     * @return the map of arguments.
+     */
+    public Map<String, Object> getArguments() {
+        Map<String, Object> args = new HashMap<String, Object>();
+        if (TYPE_LAZY.equals(queueType)) {
+            args.put("x-queue-mode", TYPE_LAZY);
+        } else if (TYPE_QUORUM.equals(queueType)) {
+            args.put("x-queue-type", TYPE_QUORUM);
+        }
+        if (maxLength > 0) {
+            args.put("x-max-length", maxLength);
+        }
+        if (messageTtl > 0) {
+            args.put("x-message-ttl", messageTtl);
+        }
+        if (maxPriority > 0 && !TYPE_QUORUM.equals(queueType)) {
+            args.put("x-max-priority", maxPriority);
+        }
+        return args;
+    }
+
+    /**
+     * Gets list of bindings. Each element is pair of exchange name and routing key.
+     *
+     * @return the list of bindings.
+     */
+    public List<String[]> getBindingList() {
+        List<String[]> list = new ArrayList<String[]>();
+        if (bindings != null) {
+            for (String line : StringUtils.split(bindings, "\r\n")) {
+                String[] tokens = StringUtils.split(line);
+                if (tokens.length > 0) {
+                    list.add(new String[] {tokens[0], tokens.length > 1 ? tokens[1] : ""});
+                }
+            }
+        }
+        return list;
+    }
+
+    // CHECKSTYLE:OFF
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (durable ? 1231 : 1237);
+        result = prime * result + ((queueType == null) ? 0 : queueType.hashCode());
+        result = prime * result + (int) (maxLength ^ (maxLength >>> 32));
+        result = prime * result + (int) (messageTtl ^ (messageTtl >>> 32));
+        result = prime * result + ((bindings == null) ? 0 : bindings.hashCode());
+        result = prime * result + maxPriority;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        QueueTopology other = (QueueTopology) obj;
+        if (durable != other.durable)
+            return false;
+        if (maxLength != other.maxLength)
+            return false;
+        if (messageTtl != other.messageTtl)
+            return false;
+        if (!StringUtils.equals(queueType, other.queueType))
+            return false;
+        if (!StringUtils.equals(bindings, other.bindings))
+            return false;
+        if (maxPriority != other.maxPriority)
+            return false;
+        return true;
+    }
+
+    // CHECKSTYLE:ON
+
+    /**
+     * Implements descriptor for parent class.
+     *
+     * @author rinrinne a.k.a. rin_ne
+     */
+    @Extension
+    public static class DescriptorImpl extends Descriptor<QueueTopology> {
+        @Override
+        public String getDisplayName() {
+            return "";
+        }
+
+        /**
+         * Fills queue types.
+         *
+         * @return the list of queue types.
+         */
+        public ListBoxModel doFillQueueTypeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Classic", TYPE_CLASSIC);
+            items.add("Lazy", TYPE_LAZY);
+            items.add("Quorum", TYPE_QUORUM);
+            return items;
+        }
+    }
+}
@@ -1,22 +1,36 @@
 package org.jenkinsci.plugins.rabbitmqconsumer;
 
+import hudson.util.DaemonThreadFactory;
 import hudson.util.Secret;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.text.MessageFormat;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.AbstractRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ChannelLease;
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerRole;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ControlChannelPool;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeduplicationCache;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FairDispatcher;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FlowControl;
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.PublishRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.TopologyDeclarer;
 import org.jenkinsci.plugins.rabbitmqconsumer.events.RMQConnectionEvent;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQChannelListener;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQConnectionListener;
@@ -37,8 +51,16 @@ import com.rabbitmq.client.ShutdownSignalException;
 public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQConnectionNotifier {
 
     private static final int TIMEOUT_CONNECTION_MILLIS = 30000;
+    /**
+     * The header which routing exchange matches application id on.
+     */
+    public static final String ROUTING_HEADER = "app_id";
+
+    private static final long DEFAULT_STANDBY_RETRY_INTERVAL_MILLIS = 5000;
 
     private static final Logger LOGGER = Logger.getLogger(RMQConnection.class.getName());
+    private static final ScheduledExecutorService CHANNEL_TIMER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
 
     private final String serviceUri;
     private final String userName;
@@ -48,6 +70,18 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
     private final Set<AbstractRMQChannel> rmqChannels = new CopyOnWriteArraySet<AbstractRMQChannel>();
     private final Set<RMQConnectionListener> rmqConnectionListeners = new CopyOnWriteArraySet<RMQConnectionListener>();
     private volatile boolean closeRequested = true;
+    private volatile String routingExchange = null;
+    private volatile ControlChannelPool controlChannels = null;
+    private final FlowControl flowControl = new FlowControl();
+    private volatile TopologyDeclarer topologyDeclarer = new TopologyDeclarer();
+    private volatile Set<String> pausedQueueNames = new CopyOnWriteArraySet<String>();
+    private volatile boolean loadShed = false;
+    private volatile FairDispatcher fairDispatcher;
+    private volatile long standbyRetryIntervalMillis = DEFAULT_STANDBY_RETRY_INTERVAL_MILLIS;
+    private volatile List<RabbitmqConsumeItem> consumeItems = null;
+    private final Set<String> standbyQueueNames = new CopyOnWriteArraySet<String>();
+    private final AtomicBoolean standbyRetryScheduled = new AtomicBoolean();
+    private final AtomicBoolean channelRecoveryScheduled = new AtomicBoolean();
 
     /**
      * Creates instance with specified parameter.
@@ -56,10 +90,28 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
      *            the URI for RabbitMQ service.
      */
     public RMQConnection(String serviceUri, String userName, Secret userPassword) {
+        this(serviceUri, userName, userPassword, new ConnectionFactory());
+    }
+
+    /**
+     * Creates instance with specified parameter and connection factory.
+     * This is mainly used to connect to other broker implementations
+     * such as in-process broker for testing.
+     *
+     * @param serviceUri
+     *            the URI for RabbitMQ service.
+     * @param userName
+     *            the username.
+     * @param userPassword
+     *            the password.
+     * @param factory
+     *            the connection factory.
+     */
+    public RMQConnection(String serviceUri, String userName, Secret userPassword, ConnectionFactory factory) {
         this.serviceUri = serviceUri;
         this.userName = userName;
         this.userPassword = userPassword;
-        this.factory = new ConnectionFactory();
+        this.factory = factory;
         this.factory.setConnectionTimeout(TIMEOUT_CONNECTION_MILLIS);
     }
 
@@ -89,6 +141,145 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         return ch;
     }
 
+    /**
+     * Leases control channel from pool. Lease must be closed after use.
+     *
+     * @return the lease. null if connection is not established.
+     */
+    public ChannelLease leaseChannel() {
+        ControlChannelPool pool = controlChannels;
+        if (pool == null) {
+            return null;
+        }
+        return pool.lease();
+    }
+
+    /**
+     * Gets pool of control channels.
+     *
+     * @return the pool. null if connection is not established.
+     */
+    public ControlChannelPool getControlChannelPool() {
+        return controlChannels;
+    }
+
+    /**
+     * Gets flow control state of connection.
+     *
+     * @return the flow control.
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Sets declarer of queue topology. Declarer shared over connections
+     * skips declaration on reconnect if queue still exists.
+     *
+     * @param topologyDeclarer
+     *            the declarer.
+     */
+    public void setTopologyDeclarer(TopologyDeclarer topologyDeclarer) {
+        this.topologyDeclarer = topologyDeclarer;
+    }
+
+    /**
+     * Sets names of paused queues. Set shared over connections keeps
+     * consumers paused after reconnect.
+     *
+     * @param pausedQueueNames
+     *            the set of queue names.
+     */
+    public void setPausedQueueNames(Set<String> pausedQueueNames) {
+        this.pausedQueueNames = pausedQueueNames;
+    }
+
+    /**
+     * Pauses consumer for specified queue. Channel is kept open.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void pauseConsume(String queueName) {
+        pausedQueueNames.add(queueName);
+        for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
+            if (ch.getQueueName().equals(queueName)) {
+                ch.pause();
+            }
+        }
+    }
+
+    /**
+     * Resumes consumer for specified queue on existing channel.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void resumeConsume(String queueName) {
+        pausedQueueNames.remove(queueName);
+        if (loadShed) {
+            return;
+        }
+        for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
+            if (ch.getQueueName().equals(queueName)) {
+                ch.resume();
+            }
+        }
+    }
+
+    /**
+     * Sets dispatcher shared among queues. It is applied to existing
+     * consume channels too.
+     *
+     * @param fairDispatcher
+     *            the dispatcher. null if deliveries are dispatched on consumer thread.
+     */
+    public void setFairDispatcher(FairDispatcher fairDispatcher) {
+        this.fairDispatcher = fairDispatcher;
+        for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
+            ch.setFairDispatcher(fairDispatcher);
+        }
+    }
+
+    /**
+     * Sets whether all consumers are paused by load of Jenkins or not.
+     * Consumers paused by {@link #pauseConsume(String)} are kept paused
+     * even if load shedding is released.
+     *
+     * @param loadShed
+     *            true if consumers are paused.
+     */
+    public void setLoadShed(boolean loadShed) {
+        this.loadShed = loadShed;
+        for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
+            if (loadShed) {
+                ch.pause();
+            } else if (!pausedQueueNames.contains(ch.getQueueName())) {
+                ch.resume();
+            }
+        }
+    }
+
+    /**
+     * Gets whether all consumers are paused by load of Jenkins or not.
+     *
+     * @return true if consumers are paused.
+     */
+    public boolean isLoadShed() {
+        return loadShed;
+    }
+
+    /**
+     * Gets whether consumer for specified queue is paused or not.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return true if consumer is paused.
+     */
+    public boolean isConsumePaused(String queueName) {
+        return pausedQueueNames.contains(queueName);
+    }
+
     /**
      * Gets URI for RabbitMQ service.
      *
@@ -116,6 +307,46 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         return userPassword;
     }
 
+    /**
+     * Gets exchange which routes messages to queues by application id.
+     *
+     * @return the exchange name. null if routing is disabled.
+     */
+    public String getRoutingExchange() {
+        return routingExchange;
+    }
+
+    /**
+     * Sets exchange which routes messages to queues by application id.
+     * This is applied when consume channel is opened.
+     *
+     * @param routingExchange
+     *            the exchange name. null if routing is disabled.
+     */
+    public void setRoutingExchange(String routingExchange) {
+        this.routingExchange = StringUtils.stripToNull(routingExchange);
+    }
+
+    /**
+     * Gets interval to retry consume for queues in standby.
+     *
+     * @return the interval in millis.
+     */
+    public long getStandbyRetryInterval() {
+        return standbyRetryIntervalMillis;
+    }
+
+    /**
+     * Sets interval to retry consume for queues in standby.
+     * Shorter interval takes over queue quickly when active consumer disappears.
+     *
+     * @param standbyRetryIntervalMillis
+     *            the interval in millis.
+     */
+    public void setStandbyRetryInterval(long standbyRetryIntervalMillis) {
+        this.standbyRetryIntervalMillis = Math.max(0, standbyRetryIntervalMillis);
+    }
+
     /**
      * Gets the list of RMQChannels.
      *
@@ -171,6 +402,25 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         return false;
     }
 
+    /**
+     * Gets role of consumer for specified queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the role. null if queue is not consumed.
+     */
+    public ConsumerRole getConsumerRole(String queueName) {
+        for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
+            if (ch.getQueueName().equals(queueName)) {
+                return ch.getRole();
+            }
+        }
+        if (standbyQueueNames.contains(queueName)) {
+            return ConsumerRole.STANDBY;
+        }
+        return null;
+    }
+
     /**
      * Open connection.
      *
@@ -189,6 +439,8 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
                 }
                 connection = factory.newConnection();
                 connection.addShutdownListener(this);
+                connection.addBlockedListener(flowControl);
+                controlChannels = new ControlChannelPool(this);
                 closeRequested = false;
                 ReconnectTimer.get().start();
                 notifyOnOpen();
@@ -209,6 +461,7 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         try {
             closeRequested = true;
             ReconnectTimer.get().stop();
+            closeControlChannels();
             if (connection != null) {
                 connection.close();
             }
@@ -235,8 +488,10 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
      * @param consumeItems
      *            the list of consume items.
      */
-    public void updateChannels(List<RabbitmqConsumeItem> consumeItems) {
+    public synchronized void updateChannels(List<RabbitmqConsumeItem> consumeItems) {
         HashSet<String> uniqueQueueNames = new HashSet<String>();
+        this.consumeItems = consumeItems;
+        standbyQueueNames.clear();
 
         updatePublishChannel();
 
@@ -285,17 +540,33 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
             for (String queueName : uniqueQueueNames) {
                 if (!existingQueueNames.contains(queueName)) {
                     HashSet<String> appIds = new HashSet<String>();
+                    QueueTopology topology = null;
                     for (RabbitmqConsumeItem i : consumeItems) {
                         if (queueName.equals(i.getQueueName())) {
                             appIds.add(i.getAppId());
+                            if (topology == null) {
+                                topology = i.getTopology();
+                            }
                         }
                     }
+                    topologyDeclarer.declare(controlChannels, queueName, topology);
                     appIds.remove(GlobalRabbitmqConfiguration.CONTENT_NONE);
                     if (!appIds.isEmpty()) {
-                        ConsumeRMQChannel ch = new ConsumeRMQChannel(queueName, appIds);
+                        ConsumeRMQChannel ch = new ConsumeRMQChannel(queueName, appIds, consumeItems);
+                        ch.setFairDispatcher(fairDispatcher);
+                        if (loadShed || pausedQueueNames.contains(queueName)) {
+                            ch.pause();
+                        }
                         ch.addRMQChannelListener(this);
                         try {
                             ch.open(connection);
+                            if (ch.getRole() == ConsumerRole.STANDBY && !ch.isConsumeStarted()) {
+                                // channel is closed by broker.
+                                ch.removeRMQChannelListener(this);
+                                standbyQueueNames.add(queueName);
+                                scheduleStandbyRetry();
+                                continue;
+                            }
                             rmqChannels.add(ch);
                         } catch (IOException e) {
                             LOGGER.log(Level.WARNING, MessageFormat.format(
@@ -310,6 +581,50 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         }
     }
 
+    /**
+     * Schedules to retry consume for queues in standby.
+     */
+    private void scheduleStandbyRetry() {
+        if (standbyRetryScheduled.compareAndSet(false, true)) {
+            CHANNEL_TIMER.schedule(new Runnable() {
+                public void run() {
+                    standbyRetryScheduled.set(false);
+                    if (!closeRequested && !standbyQueueNames.isEmpty()) {
+                        updateChannels(consumeItems);
+                    }
+                }
+            }, standbyRetryIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedules to recreate channels which were closed unexpectedly.
+     * Channels are recreated on timer thread, so shutdown thread of channel never
+     * waits for update.
+     */
+    private void scheduleChannelRecovery() {
+        if (channelRecoveryScheduled.compareAndSet(false, true)) {
+            CHANNEL_TIMER.execute(new Runnable() {
+                public void run() {
+                    channelRecoveryScheduled.set(false);
+                    recoverChannels();
+                }
+            });
+        }
+    }
+
+    /**
+     * Recreates channels if connection is still alive. Otherwise, reconnect timer
+     * recreates them with new connection.
+     */
+    private synchronized void recoverChannels() {
+        if (closeRequested || connection == null || !connection.isOpen()) {
+            return;
+        }
+        LOGGER.info("Recreate channels which were closed unexpectedly.");
+        updateChannels(consumeItems);
+    }
+
     /**
      * Close unused channels.
      *
@@ -322,11 +637,13 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         if (!channels.isEmpty()) {
             for (ConsumeRMQChannel ch : channels) {
                 if (!usedQueueNames.contains(ch.getQueueName())) {
+                    unbindRoutingExchange(ch);
                     try {
                         ch.close();
                     } catch (IOException ex) {
                         unclosedChannels.add(ch);
                     }
+                    DeduplicationCache.remove(ch.getQueueName());
                 }
             }
             if (!unclosedChannels.isEmpty()) {
@@ -373,6 +690,7 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
                 } catch (IOException ex) {
                     unclosedChannels.add(h);
                 }
+                DeduplicationCache.remove(h.getQueueName());
             }
             if (!unclosedChannels.isEmpty()) {
                 for (ConsumeRMQChannel h : unclosedChannels) {
@@ -389,7 +707,7 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
     public void updatePublishChannel() {
         if (getPublishRMQChannels().size() == 0) {
             try {
-                PublishRMQChannel pubch = new PublishRMQChannel();
+                PublishRMQChannel pubch = new PublishRMQChannel(flowControl);
                 pubch.addRMQChannelListener(this);
                 pubch.open(connection);
                 rmqChannels.add(pubch);
@@ -399,6 +717,87 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         }
     }
 
+    /**
+     * Binds queue of consume channel to routing exchange for each application id,
+     * so that broker delivers only messages which have listeners.
+     * Bindings are declared through control channel because error closes channel.
+     *
+     * @param consumeChannel
+     *            the consume channel.
+     */
+    private void bindRoutingExchange(ConsumeRMQChannel consumeChannel) {
+        String exchange = routingExchange;
+        if (exchange == null) {
+            return;
+        }
+        ChannelLease lease = leaseChannel();
+        if (lease == null) {
+            return;
+        }
+        Channel ch = lease.getChannel();
+        try {
+            ch.exchangeDeclare(exchange, "headers", true);
+            for (String appId : consumeChannel.getAppIds()) {
+                if (!RabbitmqConsumeItem.DEBUG_APPID.equals(appId)) {
+                    ch.queueBind(consumeChannel.getQueueName(), exchange, "", createRoutingArguments(appId));
+                }
+            }
+            LOGGER.info(MessageFormat.format("Bound {0} to {1} for {2}.",
+                    consumeChannel.getQueueName(), exchange, consumeChannel.getAppIds()));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format(
+                    "Failed to bind {0} to routing exchange {1}.",
+                    consumeChannel.getQueueName(), exchange), e);
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Unbinds queue of consume channel from routing exchange.
+     *
+     * @param consumeChannel
+     *            the consume channel.
+     */
+    private void unbindRoutingExchange(ConsumeRMQChannel consumeChannel) {
+        String exchange = routingExchange;
+        if (exchange == null) {
+            return;
+        }
+        ChannelLease lease = leaseChannel();
+        if (lease == null) {
+            return;
+        }
+        Channel ch = lease.getChannel();
+        try {
+            for (String appId : consumeChannel.getAppIds()) {
+                if (!RabbitmqConsumeItem.DEBUG_APPID.equals(appId)) {
+                    ch.queueUnbind(consumeChannel.getQueueName(), exchange, "", createRoutingArguments(appId));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format(
+                    "Failed to unbind {0} from routing exchange {1}.",
+                    consumeChannel.getQueueName(), exchange), e);
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * Creates binding arguments which match application id.
+     *
+     * @param appId
+     *            the application id.
+     * @return the arguments.
+     */
+    private Map<String, Object> createRoutingArguments(String appId) {
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("x-match", "all");
+        args.put(ROUTING_HEADER, appId);
+        return args;
+    }
+
     /**
      * @inheritDoc
      * @param rmqChannel
@@ -411,6 +810,7 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
                     "Open RabbitMQ channel {0} for {1}.",
                     rmqChannel.getChannel().getChannelNumber(),
                     consumeChannel.getQueueName()));
+            bindRoutingExchange(consumeChannel);
             consumeChannel.consume();
         } else if (rmqChannel instanceof PublishRMQChannel) {
             LOGGER.info(MessageFormat.format(
@@ -442,6 +842,10 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         }
         rmqChannel.removeRMQChannelListener(this);
         rmqChannels.remove(rmqChannel);
+        if (!closeRequested && !rmqChannel.isCloseRequested()) {
+            LOGGER.info("Channel was closed unexpectedly, so request channel update.");
+            scheduleChannelRecovery();
+        }
     }
 
     /**
@@ -508,10 +912,23 @@ public class RMQConnection implements ShutdownListener, RMQChannelListener, RMQC
         if (shutdownSignalException != null && !shutdownSignalException.isInitiatedByApplication()) {
             LOGGER.warning("RabbitMQ connection was suddenly disconnected.");
         }
+        closeControlChannels();
+        flowControl.handleUnblocked();
         notifyOnCloseCompleted();
         connection = null;
     }
 
+    /**
+     * Closes pool of control channels.
+     */
+    private void closeControlChannels() {
+        ControlChannelPool pool = controlChannels;
+        controlChannels = null;
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
     //CS IGNORE LineLength FOR NEXT 12 LINES. REASON: Auto generated code.
     @Override
     public int hashCode() {
@@ -1,21 +1,35 @@
 package org.jenkinsci.plugins.rabbitmqconsumer;
 
+import hudson.init.InitMilestone;
 import hudson.util.Secret;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ChannelLease;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerRole;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ControlChannelPool;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FairDispatcher;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.FlowControl;
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.PublishRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.TopologyDeclarer;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.ServerOperator;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQConnectionListener;
 
 import com.rabbitmq.client.Channel;
 
+import jenkins.model.Jenkins;
+
 /**
  * Manager class for RabbitMQ connection.
  *
@@ -33,11 +47,20 @@ public final class RMQManager implements RMQConnectionListener {
     }
 
     private static final long TIMEOUT_CLOSE = 300000;
+    private static final long STARTUP_POLL_MILLIS = 1000;
     private static final Logger LOGGER = Logger.getLogger(RMQManager.class.getName());
 
-    private RMQConnection rmqConnection;
+    private volatile RMQConnection rmqConnection;
     private volatile boolean statusOpen = false;
-    private CountDownLatch closeLatch = null;
+    private volatile CountDownLatch closeLatch = null;
+    private final AtomicBoolean startRequested = new AtomicBoolean(false);
+    private final AtomicBoolean updateRequested = new AtomicBoolean(false);
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+    private final TopologyDeclarer topologyDeclarer = new TopologyDeclarer();
+    private final Set<String> pausedQueueNames = new CopyOnWriteArraySet<String>();
+    private volatile boolean loadShed = false;
+    private volatile FairDispatcher fairDispatcher;
 
     /**
      * Gets instance.
@@ -48,10 +71,100 @@ public final class RMQManager implements RMQConnectionListener {
         return InstanceHolder.INSTANCE;
     }
 
+    /**
+     * Starts RabbitMQ connection on its own thread.
+     *
+     * Connection and channels are brought up after Jenkins is fully loaded, so
+     * caller never waits for broker. Completion is signaled by {@link #isReady()}.
+     * Only the first call is effective.
+     */
+    public void startAsync() {
+        if (!startRequested.compareAndSet(false, true)) {
+            return;
+        }
+        Thread startupThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    waitForJenkinsReady();
+                    update();
+                } catch (InterruptedException e) {
+                    LOGGER.warning("Interrupted when waiting for Jenkins to be ready.");
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to start connection.", e);
+                } finally {
+                    readyLatch.countDown();
+                    LOGGER.info("Bootup process is completed.");
+                }
+            }
+        }, "RabbitMQ Consumer startup");
+        startupThread.setDaemon(true);
+        startupThread.start();
+    }
+
+    /**
+     * Gets whether bootup process is completed or not.
+     * Note that connection may not be established even if it is completed.
+     *
+     * @return true if bootup process is completed.
+     */
+    public boolean isReady() {
+        return readyLatch.getCount() == 0;
+    }
+
+    /**
+     * Waits until bootup process is completed.
+     *
+     * @param timeout
+     *            the timeout.
+     * @param unit
+     *            the unit of timeout.
+     * @return true if bootup process is completed. false if timeout.
+     * @throws InterruptedException
+     *             throw if wait process is interrupted.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return readyLatch.await(timeout, unit);
+    }
+
+    /**
+     * Waits until Jenkins completes initialization, so that queue can accept
+     * builds scheduled by consumers.
+     *
+     * @throws InterruptedException
+     *             throw if wait process is interrupted.
+     */
+    private static void waitForJenkinsReady() throws InterruptedException {
+        Jenkins jenkins = Jenkins.getInstance();
+        while (jenkins != null && jenkins.getInitLevel() != InitMilestone.COMPLETED) {
+            Thread.sleep(STARTUP_POLL_MILLIS);
+            jenkins = Jenkins.getInstance();
+        }
+    }
+
     /**
      * Updates RabbitMQ connection.
+     *
+     * Updates are serialized, but caller never waits for another update which
+     * may block in connecting or closing. If update is in progress, request is
+     * handed to its thread and this returns immediately.
      */
     public void update() {
+        updateRequested.set(true);
+        while (updateRequested.get() && updateLock.tryLock()) {
+            try {
+                while (updateRequested.getAndSet(false)) {
+                    doUpdate();
+                }
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Updates RabbitMQ connection actually. This is called with update lock.
+     */
+    private void doUpdate() {
         LOGGER.info("Start to update connections...");
         GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
         String uri = conf.getServiceUri();
@@ -78,16 +191,29 @@ public final class RMQManager implements RMQConnectionListener {
             }
 
             if (enableConsumer) {
+                if (rmqConnection != null && rmqConnection.getConnection() == null) {
+                    LOGGER.info("Connection was lost, so recreate it.");
+                    rmqConnection.removeRMQConnectionListener(this);
+                    rmqConnection = null;
+                }
                 if (rmqConnection == null) {
-                    rmqConnection = new RMQConnection(uri, user, pass);
+                    rmqConnection = new RMQConnection(uri, user, pass, createConnectionFactory(conf));
+                    rmqConnection.setTopologyDeclarer(topologyDeclarer);
+                    rmqConnection.setPausedQueueNames(pausedQueueNames);
+                    rmqConnection.setLoadShed(loadShed);
                     rmqConnection.addRMQConnectionListener(this);
                     try {
                         rmqConnection.open();
                     } catch (IOException e) {
                         LOGGER.log(Level.WARNING, "Cannot open connection.", e);
+                        rmqConnection.removeRMQConnectionListener(this);
+                        rmqConnection = null;
                         return;
                     }
                 }
+                rmqConnection.setRoutingExchange(conf.getRoutingExchange());
+                rmqConnection.setFairDispatcher(updateFairDispatcher(conf));
+                rmqConnection.setStandbyRetryInterval(TimeUnit.SECONDS.toMillis(conf.getStandbyRetryInterval()));
                 rmqConnection.updateChannels(GlobalRabbitmqConfiguration.get().getConsumeItems());
             }
         } catch (InterruptedException e) {
@@ -95,13 +221,65 @@ public final class RMQManager implements RMQConnectionListener {
         }
     }
 
+    /**
+     * Updates dispatcher shared among queues. Dispatcher is recreated if the
+     * number of workers is changed, and tasks queued in old one are still processed.
+     *
+     * @param conf
+     *            the configuration.
+     * @return the dispatcher. null if it is disabled.
+     */
+    private FairDispatcher updateFairDispatcher(GlobalRabbitmqConfiguration conf) {
+        FairDispatcher current = fairDispatcher;
+        int workers = conf.getDispatchWorkers();
+        if (current != null && current.getWorkerCount() != workers) {
+            current.shutdown();
+            current = null;
+        }
+        if (current == null && workers > 0) {
+            current = new FairDispatcher(workers);
+        }
+        if (current != null) {
+            current.setWeights(conf.getQueueWeightMap());
+        }
+        fairDispatcher = current;
+        return current;
+    }
+
+    /**
+     * Gets dispatcher shared among queues.
+     *
+     * @return the dispatcher. null if it is disabled.
+     */
+    public FairDispatcher getFairDispatcher() {
+        return fairDispatcher;
+    }
+
+    /**
+     * Creates connection factory with transport options in configuration.
+     *
+     * @param conf
+     *            the configuration.
+     * @return the connection factory.
+     */
+    private static TransportConnectionFactory createConnectionFactory(GlobalRabbitmqConfiguration conf) {
+        TransportConnectionFactory factory = new TransportConnectionFactory();
+        factory.setRequestedHeartbeat(conf.getHeartbeatInterval());
+        factory.setTcpKeepAlive(conf.isEnableTcpKeepAlive());
+        factory.setTcpNoDelay(conf.isEnableTcpNoDelay());
+        factory.setSendBufferSize(conf.getSocketSendBufferSize());
+        factory.setReceiveBufferSize(conf.getSocketReceiveBufferSize());
+        return factory;
+    }
+
     /**
      * Shutdown connection.
      */
     public void shutdown() {
-        if (rmqConnection != null) {
+        RMQConnection conn = rmqConnection;
+        if (conn != null) {
             try {
-                rmqConnection.close();
+                conn.close();
             } finally {
                 rmqConnection = null;
             }
@@ -114,17 +292,24 @@ public final class RMQManager implements RMQConnectionListener {
      * @throws InterruptedException
      *             throw if wait process is interrupted.
      */
-    public synchronized void shutdownWithWait() throws InterruptedException {
-        if (rmqConnection != null && rmqConnection.isOpen()) {
-            try {
-                closeLatch = new CountDownLatch(1);
-                shutdown();
-                if (!closeLatch.await(TIMEOUT_CLOSE, TimeUnit.MILLISECONDS)) {
-                    throw new InterruptedException("Wait timeout");
+    public void shutdownWithWait() throws InterruptedException {
+        updateLock.lock();
+        try {
+            RMQConnection conn = rmqConnection;
+            if (conn != null && conn.isOpen()) {
+                CountDownLatch latch = new CountDownLatch(1);
+                try {
+                    closeLatch = latch;
+                    shutdown();
+                    if (!latch.await(TIMEOUT_CLOSE, TimeUnit.MILLISECONDS)) {
+                        throw new InterruptedException("Wait timeout");
+                    }
+                } finally {
+                    closeLatch = null;
                 }
-            } finally {
-                closeLatch = null;
             }
+        } finally {
+            updateLock.unlock();
         }
     }
 
@@ -145,24 +330,165 @@ public final class RMQManager implements RMQConnectionListener {
      * @return true if channel for specified queue is already established.
      */
     public boolean getChannelStatus(String queueName) {
-        if (rmqConnection == null) {
+        RMQConnection conn = rmqConnection;
+        if (conn == null) {
             return false;
         } else {
-            return rmqConnection.getConsumeChannelStatus(queueName);
+            return conn.getConsumeChannelStatus(queueName);
         }
     }
 
+    /**
+     * Gets role of consumer for specified queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the role. null if queue is not consumed.
+     */
+    public ConsumerRole getConsumerRole(String queueName) {
+        RMQConnection conn = rmqConnection;
+        if (conn == null) {
+            return null;
+        }
+        return conn.getConsumerRole(queueName);
+    }
+
+    /**
+     * Pauses consumer for specified queue without closing channel.
+     * Pause state is kept over reconnects.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void pauseConsume(String queueName) {
+        pausedQueueNames.add(queueName);
+        RMQConnection conn = rmqConnection;
+        if (conn != null) {
+            conn.pauseConsume(queueName);
+        }
+    }
+
+    /**
+     * Resumes consumer for specified queue.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void resumeConsume(String queueName) {
+        pausedQueueNames.remove(queueName);
+        RMQConnection conn = rmqConnection;
+        if (conn != null) {
+            conn.resumeConsume(queueName);
+        }
+    }
+
+    /**
+     * Gets whether consumer for specified queue is paused or not.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return true if consumer is paused.
+     */
+    public boolean isConsumePaused(String queueName) {
+        return pausedQueueNames.contains(queueName);
+    }
+
+    /**
+     * Sets whether all consumers are paused by load of Jenkins or not.
+     * Load shedding state is kept over reconnects.
+     *
+     * @param loadShed
+     *            true if consumers are paused.
+     */
+    public void setLoadShed(boolean loadShed) {
+        this.loadShed = loadShed;
+        RMQConnection conn = rmqConnection;
+        if (conn != null) {
+            conn.setLoadShed(loadShed);
+        }
+    }
+
+    /**
+     * Gets whether all consumers are paused by load of Jenkins or not.
+     *
+     * @return true if consumers are paused.
+     */
+    public boolean isLoadShed() {
+        return loadShed;
+    }
+
+    /**
+     * Gets consume channels.
+     *
+     * @return the set of consume channels.
+     */
+    public Set<ConsumeRMQChannel> getConsumeChannels() {
+        RMQConnection conn = rmqConnection;
+        if (conn == null) {
+            return Collections.emptySet();
+        }
+        return conn.getConsumeRMQChannels();
+    }
+
+    /**
+     * Gets flow control state of connection.
+     *
+     * @return the flow control. null if connection is not established.
+     */
+    public FlowControl getFlowControl() {
+        RMQConnection conn = rmqConnection;
+        if (conn == null) {
+            return null;
+        }
+        return conn.getFlowControl();
+    }
+
+    /**
+     * Leases control channel. Lease must be closed after use,
+     * then channel is returned to pool.
+     *
+     * @return the lease. null if connection is not established.
+     */
+    public ChannelLease leaseChannel() {
+        RMQConnection conn = rmqConnection;
+        if (statusOpen && conn != null) {
+            return conn.leaseChannel();
+        }
+        return null;
+    }
+
+    /**
+     * Gets whether queue exists or not. Result is cached for a short time.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return true if queue exists. null if it cannot be checked.
+     */
+    public Boolean isQueueExists(String queueName) {
+        RMQConnection conn = rmqConnection;
+        if (statusOpen && conn != null) {
+            ControlChannelPool pool = conn.getControlChannelPool();
+            if (pool != null) {
+                return pool.isQueueExists(queueName);
+            }
+        }
+        return null;
+    }
+
     /**
      * Gets channel.
      * Note that returned channel is not managed in any own classes.
      *
      * @return the channel.
+     * @deprecated use {@link #leaseChannel()} which returns channel to pool.
      */
+    @Deprecated
     public Channel getChannel() {
         Channel ch = null;
+        RMQConnection conn = rmqConnection;
         if (statusOpen) {
-            if (rmqConnection != null) {
-                ch = rmqConnection.createPureChannel();
+            if (conn != null) {
+                ch = conn.createPureChannel();
             }
         }
         return ch;
@@ -171,10 +497,14 @@ public final class RMQManager implements RMQConnectionListener {
     /**
      * Gets instance of {@link PublishRMQChannel}.
      *
-     * @return instance.
+     * @return instance. null if connection is not established.
      */
     public PublishRMQChannel getPublishChannel() {
-        Set<PublishRMQChannel> channels = rmqConnection.getPublishRMQChannels();
+        RMQConnection conn = rmqConnection;
+        if (conn == null) {
+            return null;
+        }
+        Set<PublishRMQChannel> channels = conn.getPublishRMQChannels();
         if (!channels.isEmpty()) {
             return (PublishRMQChannel)(channels.toArray()[0]);
         }
@@ -206,8 +536,9 @@ public final class RMQManager implements RMQConnectionListener {
         rmqConnection.removeRMQConnectionListener(this);
         ServerOperator.fireOnCloseCompleted(rmqConnection);
         statusOpen = false;
-        if (closeLatch != null) {
-            closeLatch.countDown();
+        CountDownLatch latch = closeLatch;
+        if (latch != null) {
+            latch.countDown();
         }
     }
 
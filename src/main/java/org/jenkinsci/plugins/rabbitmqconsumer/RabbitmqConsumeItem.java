@@ -13,8 +13,6 @@ import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
-import com.rabbitmq.client.Channel;
-
 /**
  * Item class that indicates queue setting in global configuration.
  *
@@ -30,6 +28,11 @@ public class RabbitmqConsumeItem extends AbstractDescribableImpl<RabbitmqConsume
 
     private String appId = null;
     private String queueName = null;
+    private String coalesceKey = null;
+    private long coalesceWindow = 0;
+    private QueueTopology topology = null;
+    private double rateLimit = 0;
+    private int rateBurst = 0;
 
     /**
      * Creates instance with specific parameters.
@@ -39,10 +42,73 @@ public class RabbitmqConsumeItem extends AbstractDescribableImpl<RabbitmqConsume
      * @param queueName
      *            the queue name.
      */
-    @DataBoundConstructor
     public RabbitmqConsumeItem(String appId, String queueName) {
+        this(appId, queueName, null, 0);
+    }
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param coalesceKey
+     *            the expression of key to coalesce messages.
+     * @param coalesceWindow
+     *            the time window to coalesce messages in millis.
+     */
+    public RabbitmqConsumeItem(String appId, String queueName, String coalesceKey, long coalesceWindow) {
+        this(appId, queueName, coalesceKey, coalesceWindow, null);
+    }
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param coalesceKey
+     *            the expression of key to coalesce messages.
+     * @param coalesceWindow
+     *            the time window to coalesce messages in millis.
+     * @param topology
+     *            the topology of queue declared by this plugin. null if queue is not declared.
+     */
+    public RabbitmqConsumeItem(String appId, String queueName, String coalesceKey, long coalesceWindow,
+            QueueTopology topology) {
+        this(appId, queueName, coalesceKey, coalesceWindow, topology, 0, 0);
+    }
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param coalesceKey
+     *            the expression of key to coalesce messages.
+     * @param coalesceWindow
+     *            the time window to coalesce messages in millis.
+     * @param topology
+     *            the topology of queue declared by this plugin. null if queue is not declared.
+     * @param rateLimit
+     *            the max number of messages per second. 0 means unlimited.
+     * @param rateBurst
+     *            the max number of messages delivered without wait. 0 means rate limit.
+     */
+    @DataBoundConstructor
+    public RabbitmqConsumeItem(String appId, String queueName, String coalesceKey, long coalesceWindow,
+            QueueTopology topology, double rateLimit, int rateBurst) {
         this.appId = StringUtils.stripToNull(appId);
         this.queueName = StringUtils.stripToNull(queueName);
+        this.coalesceKey = StringUtils.stripToNull(coalesceKey);
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+        this.topology = topology;
+        this.rateLimit = Math.max(0, rateLimit);
+        this.rateBurst = Math.max(0, rateBurst);
     }
 
     /**
@@ -87,6 +153,123 @@ public class RabbitmqConsumeItem extends AbstractDescribableImpl<RabbitmqConsume
         this.queueName = queueName;
     }
 
+    /**
+     * Gets expression of key to coalesce messages.
+     *
+     * @return the expression. null if coalescing is disabled.
+     */
+    public final String getCoalesceKey() {
+        return coalesceKey;
+    }
+
+    /**
+     * Sets expression of key to coalesce messages.
+     *
+     * @param coalesceKey the expression.
+     */
+    public final void setCoalesceKey(String coalesceKey) {
+        this.coalesceKey = coalesceKey;
+    }
+
+    /**
+     * Gets time window to coalesce messages.
+     *
+     * @return the time window in millis. 0 if coalescing is disabled.
+     */
+    public final long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Sets time window to coalesce messages.
+     *
+     * @param coalesceWindow the time window in millis.
+     */
+    public final void setCoalesceWindow(long coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Gets topology of queue declared by this plugin.
+     *
+     * @return the topology. null if queue is not declared.
+     */
+    public final QueueTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Sets topology of queue declared by this plugin.
+     *
+     * @param topology the topology.
+     */
+    public final void setTopology(QueueTopology topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * Gets max number of messages delivered to listener per second.
+     *
+     * @return the number of messages. 0 means unlimited.
+     */
+    public final double getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Sets max number of messages delivered to listener per second.
+     *
+     * @param rateLimit the number of messages.
+     */
+    public final void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Gets max number of messages delivered to listener without wait.
+     *
+     * @return the number of messages. 0 means the same as rate limit.
+     */
+    public final int getRateBurst() {
+        return rateBurst;
+    }
+
+    /**
+     * Sets max number of messages delivered to listener without wait.
+     *
+     * @param rateBurst the number of messages.
+     */
+    public final void setRateBurst(int rateBurst) {
+        this.rateBurst = rateBurst;
+    }
+
+    /**
+     * Gets whether rate of messages is limited or not.
+     *
+     * @return true if rate limit is enabled.
+     */
+    public boolean isRateLimited() {
+        return rateLimit > 0;
+    }
+
+    /**
+     * Gets whether consumer for queue is paused at runtime or not.
+     *
+     * @return true if consumer is paused.
+     */
+    public boolean isPaused() {
+        return queueName != null && RMQManager.getInstance().isConsumePaused(queueName);
+    }
+
+    /**
+     * Gets whether messages are coalesced or not.
+     *
+     * @return true if coalescing is enabled.
+     */
+    public boolean isCoalesce() {
+        return coalesceKey != null && coalesceWindow > 0;
+    }
+
     // CHECKSTYLE:OFF
     @Override
     public int hashCode() {
@@ -167,14 +350,9 @@ public class RabbitmqConsumeItem extends AbstractDescribableImpl<RabbitmqConsume
         public FormValidation doCheckQueueName(@QueryParameter String value) {
             if (StringUtils.stripToNull(value) != null) {
                 if (RMQManager.getInstance().isOpen()) {
-                    Channel ch = RMQManager.getInstance().getChannel();
-                    if (ch != null) {
-                        try {
-                            ch.queueDeclarePassive(StringUtils.strip(value));
-                            return FormValidation.ok();
-                        } catch (Exception ex) {
-                            return FormValidation.error(Messages.NotFound());
-                        }
+                    Boolean exists = RMQManager.getInstance().isQueueExists(StringUtils.strip(value));
+                    if (Boolean.FALSE.equals(exists)) {
+                        return FormValidation.error(Messages.NotFound());
                     }
                 }
             }
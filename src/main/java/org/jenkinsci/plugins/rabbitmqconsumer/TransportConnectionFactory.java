@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * Connection factory which applies transport options to socket.
+ *
+ * Heartbeat and TCP keepalive detect half-open connection after silent
+ * network partition. Socket buffer sizes are left to OS if they are 0.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class TransportConnectionFactory extends ConnectionFactory {
+
+    private boolean tcpKeepAlive = true;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+
+    /**
+     * Gets whether TCP keepalive is enabled or not.
+     *
+     * @return true if TCP keepalive is enabled.
+     */
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    /**
+     * Sets whether TCP keepalive is enabled or not.
+     *
+     * @param tcpKeepAlive
+     *            true if TCP keepalive is enabled.
+     */
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    /**
+     * Gets whether TCP_NODELAY is enabled or not.
+     *
+     * @return true if TCP_NODELAY is enabled.
+     */
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets whether TCP_NODELAY is enabled or not.
+     *
+     * @param tcpNoDelay
+     *            true if TCP_NODELAY is enabled.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Gets size of socket send buffer.
+     *
+     * @return the size in bytes. 0 means OS default.
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets size of socket send buffer.
+     *
+     * @param sendBufferSize
+     *            the size in bytes. 0 means OS default.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = Math.max(0, sendBufferSize);
+    }
+
+    /**
+     * Gets size of socket receive buffer.
+     *
+     * @return the size in bytes. 0 means OS default.
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets size of socket receive buffer.
+     *
+     * @param receiveBufferSize
+     *            the size in bytes. 0 means OS default.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = Math.max(0, receiveBufferSize);
+    }
+
+    @Override
+    protected void configureSocket(Socket socket) throws IOException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(tcpKeepAlive);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+}
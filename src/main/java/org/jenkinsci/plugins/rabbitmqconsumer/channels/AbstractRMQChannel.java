@@ -25,6 +25,7 @@ public abstract class AbstractRMQChannel implements RMQChannelNotifier, Shutdown
     private static final Logger LOGGER = Logger.getLogger(AbstractRMQChannel.class.getName());
 
     protected Channel channel;
+    private volatile boolean closeRequested = false;
     protected final Set<RMQChannelListener> rmqChannelListeners = new CopyOnWriteArraySet<RMQChannelListener>();
 
     /**
@@ -67,6 +68,7 @@ public abstract class AbstractRMQChannel implements RMQChannelNotifier, Shutdown
      * @throws IOException throws if something error.
      */
     public void close() throws IOException {
+        closeRequested = true;
         if (channel != null) {
             try {
                 channel.close();
@@ -80,6 +82,15 @@ public abstract class AbstractRMQChannel implements RMQChannelNotifier, Shutdown
         }
     }
 
+    /**
+     * Gets whether close is requested by application or not.
+     *
+     * @return true if close is requested.
+     */
+    public boolean isCloseRequested() {
+        return closeRequested;
+    }
+
     /**
      * @inheritDoc
      * @param rmqChannelListener
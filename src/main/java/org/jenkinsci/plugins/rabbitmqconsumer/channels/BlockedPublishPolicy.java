@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+/**
+ * Policy for messages published while connection is blocked by broker.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public enum BlockedPublishPolicy {
+    /**
+     * Messages are held until connection is unblocked or timeout.
+     */
+    BUFFER,
+    /**
+     * Messages fail immediately.
+     */
+    FAIL;
+
+    /**
+     * Gets policy from its name.
+     *
+     * @param name
+     *            the name of policy.
+     * @return the policy. {@link #BUFFER} if name is unknown.
+     */
+    public static BlockedPublishPolicy fromName(String name) {
+        if (name != null) {
+            for (BlockedPublishPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+        }
+        return BUFFER;
+    }
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.io.Closeable;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Lease of control channel borrowed from {@link ControlChannelPool}.
+ *
+ * Lease must be closed after use. Then channel is returned to pool if it is
+ * still open, otherwise it is discarded and pool creates new one next time.
+ * Lease whose channel state may be changed by user, e.g. confirm mode, qos or
+ * consumers, must be discarded instead so that the channel is not reused.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class ChannelLease implements Closeable {
+
+    private final ControlChannelPool pool;
+    private final Channel channel;
+    private boolean closed = false;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param pool
+     *            the pool which channel is returned to.
+     * @param channel
+     *            the channel.
+     */
+    ChannelLease(ControlChannelPool pool, Channel channel) {
+        this.pool = pool;
+        this.channel = channel;
+    }
+
+    /**
+     * Gets leased channel.
+     *
+     * @return the channel.
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns channel to pool. This can be called more than once.
+     */
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            pool.giveBack(channel);
+        }
+    }
+
+    /**
+     * Closes channel instead of returning it to pool. This can be called
+     * more than once, and does nothing after {@link #close()}.
+     */
+    public synchronized void discard() {
+        if (!closed) {
+            closed = true;
+            pool.discard(channel);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codec which compresses message body.
+ *
+ * Codec is identified by content encoding of message. Publish channel compresses
+ * body with configured codec and sets content encoding, then consume channel
+ * decompresses body with codec for content encoding before dispatching.
+ * Work buffers are pooled per thread.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public abstract class CompressionCodec {
+
+    /**
+     * Codec for gzip.
+     */
+    public static final CompressionCodec GZIP = new CompressionCodec() {
+        @Override
+        public String getEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream newCompressor(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, CHUNK_SIZE);
+        }
+
+        @Override
+        public InputStream newDecompressor(InputStream in) throws IOException {
+            return new GZIPInputStream(in, CHUNK_SIZE);
+        }
+    };
+
+    /**
+     * Codec for deflate.
+     */
+    public static final CompressionCodec DEFLATE = new CompressionCodec() {
+        @Override
+        public String getEncoding() {
+            return "deflate";
+        }
+
+        @Override
+        public OutputStream newCompressor(OutputStream out) throws IOException {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream newDecompressor(InputStream in) throws IOException {
+            return new InflaterInputStream(in);
+        }
+    };
+
+    /**
+     * Default max size of decompressed data.
+     */
+    public static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    private static final List<CompressionCodec> CODECS = new CopyOnWriteArrayList<CompressionCodec>();
+
+    private static final ThreadLocal<byte[]> CHUNK = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<PooledOutputStream> BUFFER = new ThreadLocal<PooledOutputStream>() {
+        @Override
+        protected PooledOutputStream initialValue() {
+            return new PooledOutputStream();
+        }
+    };
+
+    static {
+        CODECS.add(GZIP);
+        CODECS.add(DEFLATE);
+    }
+
+    /**
+     * Gets content encoding of this codec.
+     *
+     * @return the content encoding.
+     */
+    public abstract String getEncoding();
+
+    /**
+     * Creates stream which compresses data.
+     *
+     * @param out
+     *            the stream which compressed data is written to.
+     * @return the stream.
+     * @throws IOException
+     *             throw if stream cannot be created.
+     */
+    public abstract OutputStream newCompressor(OutputStream out) throws IOException;
+
+    /**
+     * Creates stream which decompresses data.
+     *
+     * @param in
+     *            the stream which compressed data is read from.
+     * @return the stream.
+     * @throws IOException
+     *             throw if stream cannot be created.
+     */
+    public abstract InputStream newDecompressor(InputStream in) throws IOException;
+
+    /**
+     * Compresses data.
+     *
+     * @param data
+     *            the data.
+     * @return the compressed data.
+     * @throws IOException
+     *             throw if data cannot be compressed.
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        PooledOutputStream buffer = BUFFER.get();
+        buffer.reset();
+        try {
+            OutputStream out = newCompressor(buffer);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Decompresses data up to {@link #DEFAULT_MAX_DECOMPRESSED_SIZE}.
+     *
+     * @param data
+     *            the compressed data.
+     * @return the data.
+     * @throws IOException
+     *             throw if data cannot be decompressed.
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        return decompress(data, DEFAULT_MAX_DECOMPRESSED_SIZE);
+    }
+
+    /**
+     * Decompresses data. Reading is stopped once decompressed data exceeds max size,
+     * so highly compressed data cannot exhaust memory.
+     *
+     * @param data
+     *            the compressed data.
+     * @param maxSize
+     *            the max size of decompressed data in bytes.
+     * @return the data.
+     * @throws IOException
+     *             throw if data cannot be decompressed or exceeds max size.
+     */
+    public byte[] decompress(byte[] data, int maxSize) throws IOException {
+        PooledOutputStream buffer = BUFFER.get();
+        buffer.reset();
+        byte[] chunk = CHUNK.get();
+        try {
+            InputStream in = newDecompressor(new ByteArrayInputStream(data));
+            try {
+                int len;
+                while ((len = in.read(chunk)) != -1) {
+                    if (len > maxSize - buffer.size()) {
+                        throw new IOException(MessageFormat.format(
+                                "Decompressed data exceeds {0} bytes.", maxSize));
+                    }
+                    buffer.write(chunk, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Registers codec. Registered codec takes priority over existing ones.
+     *
+     * @param codec
+     *            the codec.
+     */
+    public static void register(CompressionCodec codec) {
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * Unregisters codec.
+     *
+     * @param codec
+     *            the codec.
+     */
+    public static void unregister(CompressionCodec codec) {
+        CODECS.remove(codec);
+    }
+
+    /**
+     * Gets codec for content encoding.
+     *
+     * @param encoding
+     *            the content encoding.
+     * @return the codec. null if not found.
+     */
+    public static CompressionCodec get(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        for (CompressionCodec codec : CODECS) {
+            if (codec.getEncoding().equalsIgnoreCase(encoding.trim())) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets content encodings of all codecs.
+     *
+     * @return the list of content encodings.
+     */
+    public static List<String> getEncodings() {
+        List<String> encodings = new ArrayList<String>();
+        for (CompressionCodec codec : CODECS) {
+            encodings.add(codec.getEncoding());
+        }
+        return encodings;
+    }
+
+    /**
+     * Releases pooled buffer. Too large buffer is dropped from pool.
+     *
+     * @param buffer
+     *            the buffer.
+     */
+    private static void release(PooledOutputStream buffer) {
+        if (buffer.capacity() > MAX_POOLED_SIZE) {
+            BUFFER.remove();
+        }
+    }
+
+    /**
+     * Output stream whose buffer is reused.
+     */
+    private static final class PooledOutputStream extends ByteArrayOutputStream {
+
+        PooledOutputStream() {
+            super(CHUNK_SIZE);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -1,15 +1,27 @@
 package org.jenkinsci.plugins.rabbitmqconsumer.channels;
 
+import hudson.util.DaemonThreadFactory;
+
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jenkinsci.plugins.rabbitmqconsumer.GlobalRabbitmqConfiguration;
 import org.jenkinsci.plugins.rabbitmqconsumer.RabbitmqConsumeItem;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.ShutdownSignalException;
@@ -24,12 +36,37 @@ import com.rabbitmq.client.AMQP.BasicProperties;
 public class ConsumeRMQChannel extends AbstractRMQChannel {
 
     private static final Logger LOGGER = Logger.getLogger(ConsumeRMQChannel.class.getName());
+    private static final long ACK_TIMEOUT_MILLIS = Long.getLong(
+            ConsumeRMQChannel.class.getName() + ".ackTimeout", 1800000L);
+    private static final ExecutorService PREFETCH_EXECUTOR =
+            Executors.newSingleThreadExecutor(new DaemonThreadFactory());
 
     protected final HashSet<String> appIds;
     private final String queueName;
     private volatile boolean consumeStarted = false;
+    private volatile boolean paused = false;
+    private volatile String consumerTag = null;
+    private volatile ConsumerRole role = null;
+    private volatile boolean delivering = false;
+    private volatile long lastActivityTime = 0;
+    private long lastCheckedTime = 0;
+    private final ConcurrentHashMap<Long, DeliveryAcknowledgement> outstandingAcks =
+            new ConcurrentHashMap<Long, DeliveryAcknowledgement>();
 
     private final boolean debug;
+    private final ConsumerMode mode;
+    private final OrderedDispatcher dispatcher;
+    private volatile FairDispatcher fairDispatcher;
+    private final PrefetchController prefetchController;
+    private final AtomicBoolean prefetchAdjusting = new AtomicBoolean(false);
+    private final Map<String, MessageCoalescer> coalescers = new HashMap<String, MessageCoalescer>();
+    private final ExecutorService coalesceExecutor;
+    private final Map<String, RateLimiter> rateLimiters = new HashMap<String, RateLimiter>();
+    private final RetryScheduler retryScheduler;
+    private final DeduplicationCache deduplicationCache;
+    private final int maxDecompressedSize;
+    private final AtomicLong deliveryCount = new AtomicLong();
+    private final AtomicLong wastedDeliveryCount = new AtomicLong();
 
     /**
      * Creates instance with specified parameters.
@@ -40,9 +77,61 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
      *            the hashset of application id.
      */
     public ConsumeRMQChannel(String queueName, HashSet<String> appIds) {
+        this(queueName, appIds, null);
+    }
+
+    /**
+     * Creates instance with specified parameters and consume items
+     * which have settings for each application id.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param appIds
+     *            the hashset of application id.
+     * @param consumeItems
+     *            the list of consume items for queue. null is allowed.
+     */
+    public ConsumeRMQChannel(String queueName, HashSet<String> appIds, List<RabbitmqConsumeItem> consumeItems) {
+        boolean prioritized = false;
+        if (consumeItems != null) {
+            for (RabbitmqConsumeItem item : consumeItems) {
+                if (!queueName.equals(item.getQueueName()) || !appIds.contains(item.getAppId())) {
+                    continue;
+                }
+                if (item.getTopology() != null && item.getTopology().getMaxPriority() > 0) {
+                    prioritized = true;
+                }
+                if (item.isCoalesce()) {
+                    coalescers.put(item.getAppId(), new MessageCoalescer(item.getAppId(), queueName,
+                            item.getCoalesceKey(), item.getCoalesceWindow(), this));
+                }
+                if (item.isRateLimited()) {
+                    int burst = item.getRateBurst() > 0 ? item.getRateBurst() : (int) Math.ceil(item.getRateLimit());
+                    rateLimiters.put(item.getAppId(), new RateLimiter(item.getRateLimit(), burst));
+                }
+            }
+        }
         this.appIds = appIds;
         this.queueName = queueName;
+        this.coalesceExecutor = coalescers.isEmpty()
+                ? null : Executors.newSingleThreadExecutor(new DaemonThreadFactory());
         this.debug = isEnableDebug();
+        this.mode = getConsumerMode();
+        this.retryScheduler = new RetryScheduler(queueName, getRetryPolicy());
+        this.deduplicationCache = getDeduplicationCache();
+        this.maxDecompressedSize = getMaxDecompressedSize();
+        this.dispatcher = getDispatcher();
+        this.prefetchController = getPrefetchController();
+        if (!rateLimiters.isEmpty() && prefetchController == null) {
+            LOGGER.warning(MessageFormat.format(
+                    "Rate limit for {0} is used without prefetch count, so messages are held in memory.",
+                    queueName));
+        }
+        if (prioritized && prefetchController == null) {
+            LOGGER.warning(MessageFormat.format(
+                    "Priority queue {0} is consumed without prefetch count, so priority may not be honored.",
+                    queueName));
+        }
     }
 
     /**
@@ -64,16 +153,183 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
     }
 
     /**
-     * Starts consume.
+     * Starts consume. Nothing is done if consumer is paused.
      */
-    public void consume() {
+    public synchronized void consume() {
+        if (paused) {
+            LOGGER.info(MessageFormat.format("Consumer for {0} is paused, so not started.", queueName));
+            return;
+        }
         try {
-            channel.basicConsume(queueName, false, new MessageConsumer(channel));
+            if (prefetchController != null) {
+                // global, so that change is applied to running consumer on this channel.
+                channel.basicQos(prefetchController.getPrefetchCount(), true);
+            }
+            if (mode == ConsumerMode.EXCLUSIVE) {
+                consumerTag = channel.basicConsume(queueName, false, "", false, true, null,
+                        new MessageConsumer(channel));
+                role = ConsumerRole.ACTIVE;
+            } else {
+                consumerTag = channel.basicConsume(queueName, false, new MessageConsumer(channel));
+                // broker does not tell which consumer is active, so it is known by delivery.
+                role = mode == ConsumerMode.SINGLE_ACTIVE ? ConsumerRole.STANDBY : ConsumerRole.ACTIVE;
+            }
             consumeStarted = true;
             MessageQueueListener.fireOnBind(appIds, queueName);
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Failed to start consumer: ", e);
+            if (mode == ConsumerMode.EXCLUSIVE && isAccessRefused(e)) {
+                role = ConsumerRole.STANDBY;
+                LOGGER.info(MessageFormat.format("Queue {0} is consumed by other instance, so stand by.", queueName));
+            } else {
+                LOGGER.log(Level.WARNING, "Failed to start consumer: ", e);
+            }
+        }
+    }
+
+    /**
+     * Pauses consumer. Consumer is cancelled but channel is kept open,
+     * so that deliveries in progress can be settled.
+     *
+     * @return true if consumer is cancelled.
+     */
+    public synchronized boolean pause() {
+        boolean wasStarted = consumeStarted;
+        paused = true;
+        consumeStarted = false;
+        if (!wasStarted || consumerTag == null || channel == null || !channel.isOpen()) {
+            return false;
+        }
+        try {
+            channel.basicCancel(consumerTag);
+            LOGGER.info(MessageFormat.format("Paused consumer for {0}.", queueName));
+            MessageQueueListener.fireOnUnbind(appIds, queueName);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to cancel consumer: ", e);
+            return false;
+        } finally {
+            consumerTag = null;
+        }
+    }
+
+    /**
+     * Resumes paused consumer on the same channel.
+     *
+     * @return true if consumer is started.
+     */
+    public synchronized boolean resume() {
+        paused = false;
+        if (!consumeStarted && channel != null && channel.isOpen()) {
+            consume();
+            if (consumeStarted) {
+                LOGGER.info(MessageFormat.format("Resumed consumer for {0}.", queueName));
+            }
         }
+        return consumeStarted;
+    }
+
+    /**
+     * Gets whether consumer is paused or not.
+     *
+     * @return true if consumer is paused.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Gets controller which adjusts prefetch count.
+     *
+     * @return the controller. null if prefetch count is unlimited.
+     */
+    public PrefetchController getPrefetch() {
+        return prefetchController;
+    }
+
+    /**
+     * Gets dispatcher which runs deliveries on ordered lanes.
+     *
+     * @return the dispatcher. null if deliveries are dispatched on consumer thread.
+     */
+    public OrderedDispatcher getOrderedDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Gets dispatcher shared among queues.
+     *
+     * @return the dispatcher. null if it is not used.
+     */
+    public FairDispatcher getFairDispatcher() {
+        return fairDispatcher;
+    }
+
+    /**
+     * Sets dispatcher shared among queues. This is used only if deliveries
+     * are not dispatched on ordered lanes.
+     *
+     * @param fairDispatcher
+     *            the dispatcher. null if deliveries are dispatched on consumer thread.
+     */
+    public void setFairDispatcher(FairDispatcher fairDispatcher) {
+        this.fairDispatcher = fairDispatcher;
+    }
+
+    /**
+     * Gets coalescer for application id.
+     *
+     * @param appId
+     *            the application id.
+     * @return the coalescer. null if messages are not coalesced.
+     */
+    public MessageCoalescer getCoalescer(String appId) {
+        return coalescers.get(appId);
+    }
+
+    /**
+     * Gets rate limiter for application id.
+     *
+     * @param appId
+     *            the application id.
+     * @return the rate limiter. null if rate is not limited.
+     */
+    public RateLimiter getRateLimiter(String appId) {
+        return rateLimiters.get(appId);
+    }
+
+    /**
+     * Gets mode of consumer.
+     *
+     * @return the mode.
+     */
+    public ConsumerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets role of consumer.
+     *
+     * @return the role. null if consume is not tried yet.
+     */
+    public ConsumerRole getRole() {
+        return role;
+    }
+
+    /**
+     * Gets whether exception is caused by access refused or not.
+     *
+     * @param e
+     *            the exception.
+     * @return true if access is refused.
+     */
+    private static boolean isAccessRefused(IOException e) {
+        if (e.getCause() instanceof ShutdownSignalException) {
+            Object reason = ((ShutdownSignalException) e.getCause()).getReason();
+            if (reason instanceof AMQP.Channel.Close) {
+                return ((AMQP.Channel.Close) reason).getReplyCode() == AMQP.ACCESS_REFUSED;
+            }
+        }
+        return e.getMessage() != null && e.getMessage().contains("ACCESS_REFUSED");
     }
 
     /**
@@ -85,6 +341,251 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
         return consumeStarted;
     }
 
+    /**
+     * Gets the number of deliveries from broker.
+     *
+     * @return the number of deliveries.
+     */
+    public long getDeliveryCount() {
+        return deliveryCount.get();
+    }
+
+    /**
+     * Gets the number of deliveries which are discarded because no listener wants them.
+     *
+     * @return the number of wasted deliveries.
+     */
+    public long getWastedDeliveryCount() {
+        return wastedDeliveryCount.get();
+    }
+
+    /**
+     * Gets the number of deliveries which are not settled yet.
+     *
+     * @return the number of outstanding deliveries.
+     */
+    public int getOutstandingAcknowledgementCount() {
+        return outstandingAcks.size();
+    }
+
+    /**
+     * Expires deliveries which are not settled within timeout.
+     * Expired deliveries are requeued.
+     */
+    public void expireAcknowledgements() {
+        long now = System.currentTimeMillis();
+        for (DeliveryAcknowledgement ack : outstandingAcks.values()) {
+            if (ack.expire(now, ACK_TIMEOUT_MILLIS)) {
+                LOGGER.warning(MessageFormat.format(
+                        "Delivery {0} from {1} is not settled within timeout, so requeued.",
+                        ack.getDeliveryTag(), queueName));
+            }
+        }
+    }
+
+    /**
+     * Calls when delivery is settled.
+     *
+     * @param ack
+     *            the settled acknowledgement.
+     * @param outcome
+     *            the outcome sent to broker.
+     */
+    void onSettled(DeliveryAcknowledgement ack, DeliveryAcknowledgement.Outcome outcome) {
+        outstandingAcks.remove(ack.getDeliveryTag());
+        lastActivityTime = System.currentTimeMillis();
+        long completedTime = ack.getCompletedTime();
+        if (prefetchController != null && completedTime > 0) {
+            prefetchController.record(completedTime - ack.getCreatedTime());
+            requestAdjustPrefetch();
+        }
+        if (outcome == DeliveryAcknowledgement.Outcome.REQUEUE) {
+            forgetDeduplicationKey(ack);
+        }
+    }
+
+    /**
+     * Checks whether consumer is stalled or not. Consumer is stalled if nothing
+     * is delivered or settled since the last check while queue has ready messages,
+     * no delivery is outstanding and consumer thread is idle. So consumer which
+     * waits for slow listener or rate limiter is not judged as stalled.
+     *
+     * @param readyCount
+     *            the number of ready messages in queue.
+     * @return true if consumer is stalled.
+     */
+    public synchronized boolean checkStalled(int readyCount) {
+        long now = System.currentTimeMillis();
+        long lastChecked = lastCheckedTime;
+        lastCheckedTime = now;
+        if (!consumeStarted || lastChecked <= 0 || readyCount <= 0) {
+            return false;
+        }
+        if (delivering || !outstandingAcks.isEmpty() || lastActivityTime >= lastChecked) {
+            return false;
+        }
+        if (mode == ConsumerMode.SINGLE_ACTIVE && role == ConsumerRole.STANDBY) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Restarts consumer. Channel is aborted without close request,
+     * so that connection recreates it.
+     *
+     * @param reason
+     *            the reason of restart.
+     */
+    public void restart(String reason) {
+        LOGGER.warning(MessageFormat.format("Restart consumer for {0}: {1}", queueName, reason));
+        consumeStarted = false;
+        try {
+            if (channel != null) {
+                channel.abort();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to abort channel.", e);
+        }
+    }
+
+    /**
+     * Requests prefetch adjustment on prefetch thread, so settling thread never
+     * waits for basicQos. Requests are coalesced while one is pending.
+     */
+    private void requestAdjustPrefetch() {
+        if (!prefetchAdjusting.compareAndSet(false, true)) {
+            return;
+        }
+        PREFETCH_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                prefetchAdjusting.set(false);
+                try {
+                    adjustPrefetch();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to change prefetch count.", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies prefetch count if controller changes it.
+     */
+    private void adjustPrefetch() {
+        int prefetch = prefetchController.adjust();
+        if (prefetch > 0 && channel != null && channel.isOpen()) {
+            try {
+                channel.basicQos(prefetch, true);
+                LOGGER.fine(MessageFormat.format("Prefetch count for {0} is changed to {1} by {2}.",
+                        queueName, prefetch, prefetchController.getLastDecision()));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to change prefetch count.", e);
+            }
+        }
+    }
+
+    /**
+     * Calls when delivery is failed by listener.
+     *
+     * @param ack
+     *            the failed acknowledgement.
+     */
+    void onFailed(DeliveryAcknowledgement ack) {
+        forgetDeduplicationKey(ack);
+        retryScheduler.schedule(ack);
+    }
+
+    /**
+     * Forgets deduplication key of delivery so that it can be processed again.
+     *
+     * @param ack
+     *            the acknowledgement.
+     */
+    private void forgetDeduplicationKey(DeliveryAcknowledgement ack) {
+        if (deduplicationCache != null) {
+            String key = deduplicationCache.getKey(ack.getProperties());
+            if (key != null) {
+                deduplicationCache.forget(key);
+            }
+        }
+    }
+
+    /**
+     * Gets deduplication cache for this queue.
+     *
+     * @return the cache. null if deduplication is disabled.
+     */
+    private DeduplicationCache getDeduplicationCache() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (!conf.isEnableDeduplication()) {
+            return null;
+        }
+        return DeduplicationCache.forQueue(queueName, conf.getDeduplicationHeader(),
+                conf.getDeduplicationCacheSize(), conf.getDeduplicationTtl() * 1000L);
+    }
+
+    /**
+     * Gets max size of decompressed message body from global configuration.
+     *
+     * @return the size in bytes.
+     */
+    private int getMaxDecompressedSize() {
+        return GlobalRabbitmqConfiguration.get().getMaxDecompressedSize();
+    }
+
+    /**
+     * Gets prefetch controller from global configuration.
+     *
+     * @return the controller. null if prefetch count is unlimited.
+     */
+    private PrefetchController getPrefetchController() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf.getPrefetchCount() <= 0) {
+            return null;
+        }
+        if (!conf.isEnableAdaptivePrefetch()) {
+            return new PrefetchController(conf.getPrefetchCount());
+        }
+        return new PrefetchController(conf.getPrefetchCount(), conf.getMaxPrefetchCount(),
+                conf.getPrefetchTargetLatency());
+    }
+
+    /**
+     * Gets dispatcher from global configuration.
+     *
+     * @return the dispatcher. null if deliveries are dispatched on consumer thread.
+     */
+    private OrderedDispatcher getDispatcher() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf.getDispatchLanes() <= 1) {
+            return null;
+        }
+        return new OrderedDispatcher(queueName, conf.getDispatchLanes(), conf.getDispatchKey());
+    }
+
+    /**
+     * Gets retry policy from global configuration.
+     *
+     * @return the retry policy.
+     */
+    private RetryPolicy getRetryPolicy() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        return new RetryPolicy(conf.getRetryMaxAttempts(),
+                conf.getRetryInitialDelay() * 1000L,
+                conf.getRetryMaxDelay() * 1000L,
+                conf.getDeadLetterExchange());
+    }
+
+    /**
+     * Gets consumer mode from global configuration.
+     *
+     * @return the consumer mode.
+     */
+    private ConsumerMode getConsumerMode() {
+        return ConsumerMode.fromName(GlobalRabbitmqConfiguration.get().getConsumerMode());
+    }
+
     /**
      * Gets whether debug mode is enabled or not.
      *
@@ -112,41 +613,221 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
             super(channel);
         }
 
+        @Override
+        public void handleCancel(String consumerTag) throws IOException {
+            restart("consumer was cancelled by broker.");
+        }
+
         @Override
         public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
                 throws IOException {
-
+            delivering = true;
+            lastActivityTime = System.currentTimeMillis();
             try {
+                deliver(envelope, properties, body);
+            } finally {
+                lastActivityTime = System.currentTimeMillis();
+                delivering = false;
+            }
+        }
 
-                long deliveryTag = envelope.getDeliveryTag();
-                String contentType = properties.getContentType();
-                Map<String, Object> headers = properties.getHeaders();
+        /**
+         * Handles delivery on consumer thread.
+         *
+         * @param envelope
+         *            the envelope.
+         * @param properties
+         *            the properties.
+         * @param body
+         *            the body.
+         * @throws IOException
+         *             throw if duplicated delivery cannot be acknowledged.
+         */
+        private void deliver(Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
+            long deliveryTag = envelope.getDeliveryTag();
+            deliveryCount.incrementAndGet();
+            role = ConsumerRole.ACTIVE;
 
-                if (debug) {
-                    if (appIds.contains(RabbitmqConsumeItem.DEBUG_APPID)) {
-                        MessageQueueListener.fireOnReceive(RabbitmqConsumeItem.DEBUG_APPID,
-                                queueName, contentType, headers, body);
-                    }
+            if (deduplicationCache != null) {
+                String key = deduplicationCache.getKey(properties);
+                if (key != null && !deduplicationCache.add(key)) {
+                    LOGGER.fine(MessageFormat.format("Skip duplicated message {0} from {1}.", key, queueName));
+                    channel.basicAck(deliveryTag, false);
+                    return;
                 }
+            }
 
-                if (properties.getAppId() != null &&
-                        !properties.getAppId().equals(RabbitmqConsumeItem.DEBUG_APPID)) {
-                    if (appIds.contains(properties.getAppId())) {
-                        MessageQueueListener.fireOnReceive(properties.getAppId(),
-                                queueName, contentType, headers, body);
+            DeliveryAcknowledgement acknowledgement =
+                    new DeliveryAcknowledgement(channel, ConsumeRMQChannel.this, envelope, properties, body);
+            outstandingAcks.put(deliveryTag, acknowledgement);
+            if (prefetchController != null) {
+                prefetchController.observe(outstandingAcks.size());
+            }
+            boolean handedOver = false;
+
+            try {
+
+                byte[] data = body;
+                CompressionCodec codec = CompressionCodec.get(properties.getContentEncoding());
+                if (codec != null) {
+                    try {
+                        data = codec.decompress(body, maxDecompressedSize);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, MessageFormat.format(
+                                "Failed to decompress delivery {0} from {1}, so rejected.", deliveryTag, queueName), e);
+                        acknowledgement.createPart().reject();
+                        return;
                     }
                 }
 
-                channel.basicAck(deliveryTag, false);
+                Payload payload = new Payload(properties.getContentType(), properties.getHeaders(), data);
 
-            } catch (IOException e) {
-                throw e;
+                // throttled on consumer thread, so shared workers never wait for token.
+                RateLimiter rateLimiter = rateLimiters.get(properties.getAppId());
+                if (rateLimiter != null) {
+                    throttle(rateLimiter);
+                }
+
+                FairDispatcher fair = fairDispatcher;
+                if (dispatcher != null) {
+                    dispatcher.dispatch(envelope, properties, payload,
+                            new DispatchTask(properties, payload, acknowledgement));
+                    handedOver = true;
+                } else if (fair != null) {
+                    handedOver = true;
+                    Integer priority = properties.getPriority();
+                    fair.dispatch(queueName, priority != null ? priority : 0,
+                            new DispatchTask(properties, payload, acknowledgement));
+                } else {
+                    dispatch(properties, payload, acknowledgement);
+                }
+
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "caught exception in delivery handler", e);
+            } finally {
+                if (!handedOver) {
+                    acknowledgement.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Task which dispatches delivery on lane.
+     */
+    private final class DispatchTask implements Runnable {
+        private final BasicProperties properties;
+        private final Payload payload;
+        private final DeliveryAcknowledgement acknowledgement;
+
+        /**
+         * Creates instance with specified parameters.
+         *
+         * @param properties
+         *            the properties.
+         * @param payload
+         *            the payload.
+         * @param acknowledgement
+         *            the acknowledgement.
+         */
+        DispatchTask(BasicProperties properties, Payload payload, DeliveryAcknowledgement acknowledgement) {
+            this.properties = properties;
+            this.payload = payload;
+            this.acknowledgement = acknowledgement;
+        }
+
+        public void run() {
+            try {
+                if (acknowledgement.isSettled()) {
+                    // abandoned or expired while waiting. broker redelivers it.
+                    return;
+                }
+                dispatch(properties, payload, acknowledgement);
             } catch (RuntimeException e) {
                 LOGGER.log(Level.WARNING, "caught exception in delivery handler", e);
+            } finally {
+                acknowledgement.release();
             }
         }
     }
 
+    /**
+     * Dispatches delivery to listeners.
+     *
+     * @param properties
+     *            the properties.
+     * @param payload
+     *            the payload.
+     * @param acknowledgement
+     *            the acknowledgement.
+     */
+    private void dispatch(BasicProperties properties, Payload payload, DeliveryAcknowledgement acknowledgement) {
+        boolean dispatched = false;
+
+        if (debug) {
+            if (appIds.contains(RabbitmqConsumeItem.DEBUG_APPID)) {
+                MessageQueueListener.fireOnReceive(RabbitmqConsumeItem.DEBUG_APPID,
+                        queueName, payload, acknowledgement);
+                dispatched = true;
+            }
+        }
+
+        if (properties.getAppId() != null &&
+                !properties.getAppId().equals(RabbitmqConsumeItem.DEBUG_APPID)) {
+            if (appIds.contains(properties.getAppId())) {
+                MessageCoalescer coalescer = coalescers.get(properties.getAppId());
+                if (coalescer != null) {
+                    coalescer.offer(payload, acknowledgement);
+                } else {
+                    MessageQueueListener.fireOnReceive(properties.getAppId(),
+                            queueName, payload, acknowledgement);
+                }
+                dispatched = true;
+            }
+        }
+
+        if (!dispatched) {
+            wastedDeliveryCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Dispatches message coalesced in window. It is run on lane or shared worker
+     * like other deliveries, or on executor of this queue if dispatcher is not used.
+     *
+     * @param acknowledgement
+     *            the acknowledgement of the latest message.
+     * @param payload
+     *            the coalesced payload.
+     * @param task
+     *            the task which delivers message to listeners.
+     */
+    void dispatchCoalesced(DeliveryAcknowledgement acknowledgement, Payload payload, Runnable task) {
+        FairDispatcher fair = fairDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(acknowledgement.getEnvelope(), acknowledgement.getProperties(), payload, task);
+        } else if (fair != null) {
+            Integer priority = acknowledgement.getProperties().getPriority();
+            fair.dispatch(queueName, priority != null ? priority : 0, task);
+        } else {
+            coalesceExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Waits for token of rate limiter. Delivery is kept unacknowledged while waiting.
+     *
+     * @param rateLimiter
+     *            the rate limiter.
+     */
+    private void throttle(RateLimiter rateLimiter) {
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * @inheritDoc
      * @param shutdownSignalException
@@ -154,7 +835,31 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
      */
     public void shutdownCompleted(ShutdownSignalException shutdownSignalException) {
         consumeStarted = false;
-        MessageQueueListener.fireOnUnbind(appIds, queueName);
+        for (DeliveryAcknowledgement ack : outstandingAcks.values()) {
+            // broker redelivers it, so it must not be skipped as duplicate.
+            forgetDeduplicationKey(ack);
+            ack.abandon();
+        }
+        outstandingAcks.clear();
+        if (dispatcher != null) {
+            dispatcher.cancel();
+            dispatcher.shutdown();
+        }
+        FairDispatcher fair = fairDispatcher;
+        if (fair != null) {
+            fair.cancel(queueName);
+        }
+        for (MessageCoalescer coalescer : coalescers.values()) {
+            coalescer.clear();
+        }
+        if (coalesceExecutor != null) {
+            coalesceExecutor.shutdownNow();
+        }
+        retryScheduler.shutdown();
+        if (!paused) {
+            // already unbound when paused.
+            MessageQueueListener.fireOnUnbind(appIds, queueName);
+        }
         super.shutdownCompleted(shutdownSignalException);
     }
 }
@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+/**
+ * Mode of consumer when several Jenkins instances consume the same queue.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public enum ConsumerMode {
+    /**
+     * All consumers compete for messages.
+     */
+    SHARED,
+    /**
+     * Only one consumer is allowed by exclusive consume. Others retry as standby.
+     */
+    EXCLUSIVE,
+    /**
+     * Broker delivers to one consumer. Queue should be declared with
+     * x-single-active-consumer argument.
+     */
+    SINGLE_ACTIVE;
+
+    /**
+     * Gets mode from its name.
+     *
+     * @param name
+     *            the name of mode.
+     * @return the mode. {@link #SHARED} if name is unknown.
+     */
+    public static ConsumerMode fromName(String name) {
+        if (name != null) {
+            for (ConsumerMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+        }
+        return SHARED;
+    }
+}
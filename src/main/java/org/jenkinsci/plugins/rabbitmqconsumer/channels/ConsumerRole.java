@@ -0,0 +1,17 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+/**
+ * Role of consumer for a queue.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public enum ConsumerRole {
+    /**
+     * Consumer receives messages.
+     */
+    ACTIVE,
+    /**
+     * Consumer waits to take over from other consumer.
+     */
+    STANDBY;
+}
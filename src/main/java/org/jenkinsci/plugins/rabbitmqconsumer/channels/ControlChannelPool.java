@@ -0,0 +1,227 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQConnection;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Pool of control channels which are used for declarations and queries.
+ *
+ * Channels are leased by {@link #lease()} and returned by {@link ChannelLease#close()}.
+ * Channel closed by error is discarded instead of being returned.
+ * Results of passive queue declaration are cached for a short time, and
+ * the number of cached queues is bounded by LRU.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class ControlChannelPool {
+
+    private static final int MAX_IDLE_CHANNELS = 4;
+    private static final long QUEUE_CACHE_TTL_MILLIS = 10000;
+    private static final int MAX_CACHED_QUEUES = 256;
+
+    private static final Logger LOGGER = Logger.getLogger(ControlChannelPool.class.getName());
+
+    private final RMQConnection connection;
+    private final BlockingDeque<Channel> idleChannels = new LinkedBlockingDeque<Channel>(MAX_IDLE_CHANNELS);
+    private final Map<String, QueueState> queueStates = Collections.synchronizedMap(
+            new LinkedHashMap<String, QueueState>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, QueueState> eldest) {
+                    return size() > MAX_CACHED_QUEUES;
+                }
+            });
+    private volatile boolean closed = false;
+
+    /**
+     * Creates instance with specified connection.
+     *
+     * @param connection
+     *            the connection which channels are created on.
+     */
+    public ControlChannelPool(RMQConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Leases channel. Idle channel is reused if exists.
+     *
+     * @return the lease. null if channel cannot be created.
+     */
+    public ChannelLease lease() {
+        if (closed) {
+            return null;
+        }
+        Channel ch;
+        while ((ch = idleChannels.pollFirst()) != null) {
+            if (ch.isOpen()) {
+                return new ChannelLease(this, ch);
+            }
+        }
+        ch = connection.createPureChannel();
+        if (ch == null) {
+            return null;
+        }
+        return new ChannelLease(this, ch);
+    }
+
+    /**
+     * Gets the number of idle channels.
+     *
+     * @return the number of idle channels.
+     */
+    public int getIdleCount() {
+        return idleChannels.size();
+    }
+
+    /**
+     * Gets the number of queues whose state is cached.
+     *
+     * @return the number of queues.
+     */
+    public int getCachedQueueCount() {
+        return queueStates.size();
+    }
+
+    /**
+     * Gets whether queue exists or not. Result is cached for a short time.
+     * Queue is treated as missing only if broker replies NOT_FOUND.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return true if queue exists. null if it cannot be checked.
+     */
+    public Boolean isQueueExists(String queueName) {
+        long now = System.currentTimeMillis();
+        QueueState state = queueStates.get(queueName);
+        if (state != null && now - state.checkedTime < QUEUE_CACHE_TTL_MILLIS) {
+            return state.exists;
+        }
+        ChannelLease lease = lease();
+        if (lease == null) {
+            return null;
+        }
+        boolean exists;
+        try {
+            lease.getChannel().queueDeclarePassive(queueName);
+            exists = true;
+        } catch (IOException e) {
+            if (!isNotFound(e)) {
+                // e.g. ACCESS_REFUSED or connection is lost.
+                LOGGER.fine("Failed to check queue " + queueName + ": " + e.getMessage());
+                return null;
+            }
+            exists = false;
+        } catch (ShutdownSignalException e) {
+            LOGGER.fine("Failed to check queue " + queueName + ": " + e.getMessage());
+            return null;
+        } finally {
+            lease.close();
+        }
+        queueStates.put(queueName, new QueueState(exists, now));
+        return exists;
+    }
+
+    /**
+     * Forgets cached state of queue.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void invalidate(String queueName) {
+        queueStates.remove(queueName);
+    }
+
+    /**
+     * Returns channel to pool.
+     *
+     * @param ch
+     *            the channel.
+     */
+    void giveBack(Channel ch) {
+        if (ch.isOpen() && !closed && idleChannels.offerFirst(ch)) {
+            return;
+        }
+        closeQuietly(ch);
+    }
+
+    /**
+     * Discards channel without returning it to pool.
+     *
+     * @param ch
+     *            the channel.
+     */
+    void discard(Channel ch) {
+        closeQuietly(ch);
+    }
+
+    /**
+     * Closes pool and all idle channels.
+     */
+    public void close() {
+        closed = true;
+        Channel ch;
+        while ((ch = idleChannels.pollFirst()) != null) {
+            closeQuietly(ch);
+        }
+        queueStates.clear();
+    }
+
+    /**
+     * Gets whether exception is caused by missing queue or not.
+     *
+     * @param e
+     *            the exception.
+     * @return true if broker replies NOT_FOUND.
+     */
+    private static boolean isNotFound(IOException e) {
+        if (e.getCause() instanceof ShutdownSignalException) {
+            Object reason = ((ShutdownSignalException) e.getCause()).getReason();
+            if (reason instanceof AMQP.Channel.Close) {
+                return ((AMQP.Channel.Close) reason).getReplyCode() == AMQP.NOT_FOUND;
+            }
+        }
+        return e.getMessage() != null && e.getMessage().contains("NOT_FOUND");
+    }
+
+    /**
+     * Closes channel quietly.
+     *
+     * @param ch
+     *            the channel.
+     */
+    private static void closeQuietly(Channel ch) {
+        try {
+            if (ch.isOpen()) {
+                ch.close();
+            }
+        } catch (Exception ex) {
+            LOGGER.fine("Failed to close channel.");
+        }
+    }
+
+    /**
+     * Cached state of queue.
+     */
+    private static final class QueueState {
+        private final boolean exists;
+        private final long checkedTime;
+
+        QueueState(boolean exists, long checkedTime) {
+            this.exists = exists;
+            this.checkedTime = checkedTime;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Cache of recently seen message keys for a queue.
+ *
+ * Key is message id in properties, or value of configured header.
+ * Entries are evicted by size and time to live. Cache is kept per queue
+ * across reconnects so that redeliveries after reconnect are detected.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class DeduplicationCache {
+
+    private static final ConcurrentMap<String, DeduplicationCache> CACHES =
+            new ConcurrentHashMap<String, DeduplicationCache>();
+
+    private final String queueName;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private volatile String header;
+    private volatile int maxSize;
+    private volatile long ttlMillis;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param header
+     *            the header name for key. If null, message id is used.
+     * @param maxSize
+     *            the max number of entries.
+     * @param ttlMillis
+     *            the time to live of entry in millis.
+     */
+    public DeduplicationCache(String queueName, String header, int maxSize, long ttlMillis) {
+        this.queueName = queueName;
+        configure(header, maxSize, ttlMillis);
+    }
+
+    /**
+     * Gets cache for queue. Cache is created if it does not exist,
+     * otherwise it is reconfigured with given parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param header
+     *            the header name for key. If null, message id is used.
+     * @param maxSize
+     *            the max number of entries.
+     * @param ttlMillis
+     *            the time to live of entry in millis.
+     * @return the cache.
+     */
+    public static DeduplicationCache forQueue(String queueName, String header, int maxSize, long ttlMillis) {
+        DeduplicationCache cache = CACHES.get(queueName);
+        if (cache == null) {
+            cache = new DeduplicationCache(queueName, header, maxSize, ttlMillis);
+            DeduplicationCache prev = CACHES.putIfAbsent(queueName, cache);
+            if (prev != null) {
+                cache = prev;
+            }
+        }
+        cache.configure(header, maxSize, ttlMillis);
+        return cache;
+    }
+
+    /**
+     * Gets cache for queue if it exists.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the cache. null if not exist.
+     */
+    public static DeduplicationCache get(String queueName) {
+        return CACHES.get(queueName);
+    }
+
+    /**
+     * Removes cache for queue. This is called when queue is no longer consumed.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public static void remove(String queueName) {
+        CACHES.remove(queueName);
+    }
+
+    /**
+     * Gets queue name.
+     *
+     * @return the queue name.
+     */
+    public String getQueueName() {
+        return queueName;
+    }
+
+    /**
+     * Gets key of message.
+     *
+     * @param properties
+     *            the properties of message.
+     * @return the key. null if message has no key.
+     */
+    public String getKey(BasicProperties properties) {
+        if (properties == null) {
+            return null;
+        }
+        if (header == null) {
+            return StringUtils.stripToNull(properties.getMessageId());
+        }
+        Map<String, Object> headers = properties.getHeaders();
+        if (headers != null) {
+            Object value = headers.get(header);
+            if (value != null) {
+                return StringUtils.stripToNull(value.toString());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records key if it is not seen within time to live.
+     *
+     * @param key
+     *            the key.
+     * @return true if key is not seen. false if duplicated.
+     */
+    public boolean add(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            evict(now);
+            Long seen = entries.get(key);
+            if (seen != null) {
+                hitCount.incrementAndGet();
+                return false;
+            }
+            entries.put(key, now);
+            missCount.incrementAndGet();
+            evict(now);
+            return true;
+        }
+    }
+
+    /**
+     * Forgets key so that next delivery with it is processed.
+     * This is used if delivery is requeued or retried.
+     *
+     * @param key
+     *            the key.
+     */
+    public void forget(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Gets the number of detected duplicates.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets the number of unique messages.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Configures cache.
+     *
+     * @param header
+     *            the header name for key. If null, message id is used.
+     * @param maxSize
+     *            the max number of entries.
+     * @param ttlMillis
+     *            the time to live of entry in millis.
+     */
+    private void configure(String header, int maxSize, long ttlMillis) {
+        this.header = StringUtils.stripToNull(header);
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = Math.max(0, ttlMillis);
+    }
+
+    /**
+     * Evicts expired and overflowed entries. Entries are ordered by insertion time.
+     *
+     * @param now
+     *            the current time in millis.
+     */
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entries.size() > maxSize || now - entry.getValue() >= ttlMillis) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Acknowledgement for a delivery shared by all listeners which receive it.
+ *
+ * Each listener gets its own part created by {@link #createPart()}.
+ * Delivery is settled to broker when dispatching is released and all parts are settled.
+ * If any part is rejected, delivery is rejected. Otherwise if any part is
+ * nacked with requeue, delivery is requeued. Otherwise if any part is failed,
+ * delivery is handed to retry process of owner channel.
+ *
+ * Outcome is decided under lock of this instance, but it is sent to broker
+ * and owner is notified after the lock is released.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class DeliveryAcknowledgement {
+
+    private static final Logger LOGGER = Logger.getLogger(DeliveryAcknowledgement.class.getName());
+
+    /**
+     * Outcome for delivery. Latter one has priority.
+     */
+    public enum Outcome {
+        /**
+         * Acknowledge.
+         */
+        ACK,
+        /**
+         * Retry later because listener failed.
+         */
+        RETRY,
+        /**
+         * Negatively acknowledge with requeue.
+         */
+        REQUEUE,
+        /**
+         * Negatively acknowledge without requeue.
+         */
+        REJECT;
+    }
+
+    private final Channel channel;
+    private final long deliveryTag;
+    private final long createdTime;
+    private long completedTime = 0;
+    private final ConsumeRMQChannel owner;
+    private final Envelope envelope;
+    private final BasicProperties properties;
+    private final byte[] body;
+    private int pending = 1;
+    private Outcome outcome = Outcome.ACK;
+    private boolean settled = false;
+    private boolean sent = false;
+    private Throwable failure = null;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param channel
+     *            the channel which the message is delivered from.
+     * @param deliveryTag
+     *            the delivery tag.
+     * @param owner
+     *            the owner channel. may be null.
+     */
+    public DeliveryAcknowledgement(Channel channel, long deliveryTag, ConsumeRMQChannel owner) {
+        this(channel, owner, new Envelope(deliveryTag, false, null, null), null, null);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param channel
+     *            the channel which the message is delivered from.
+     * @param owner
+     *            the owner channel. may be null.
+     * @param envelope
+     *            the envelope of message.
+     * @param properties
+     *            the properties of message.
+     * @param body
+     *            the body of message.
+     */
+    public DeliveryAcknowledgement(Channel channel, ConsumeRMQChannel owner,
+            Envelope envelope, BasicProperties properties, byte[] body) {
+        this.channel = channel;
+        this.deliveryTag = envelope.getDeliveryTag();
+        this.owner = owner;
+        this.envelope = envelope;
+        this.properties = properties;
+        this.body = body;
+        this.createdTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets channel which the message is delivered from.
+     *
+     * @return the channel.
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets envelope of message.
+     *
+     * @return the envelope.
+     */
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Gets properties of message.
+     *
+     * @return the properties.
+     */
+    public BasicProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * Gets body of message.
+     *
+     * @return the body.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the first failure reported by listeners.
+     *
+     * @return the failure. null if no failure.
+     */
+    public synchronized Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Gets delivery tag.
+     *
+     * @return the delivery tag.
+     */
+    public long getDeliveryTag() {
+        return deliveryTag;
+    }
+
+    /**
+     * Gets time when this is created.
+     *
+     * @return the time in millis.
+     */
+    public long getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * Gets time when dispatching is released and all listeners complete their parts.
+     * Time waiting for retry is not included.
+     *
+     * @return the time in millis. 0 if not completed yet.
+     */
+    public synchronized long getCompletedTime() {
+        return completedTime;
+    }
+
+    /**
+     * Creates part of acknowledgement for a listener.
+     *
+     * @return the acknowledgement.
+     */
+    public synchronized Acknowledgement createPart() {
+        Part part = new Part();
+        if (settled) {
+            part.done.set(true);
+        } else {
+            pending++;
+        }
+        return part;
+    }
+
+    /**
+     * Marks part as failed. Failed delivery is handled by retry process.
+     *
+     * @param part
+     *            the part created by {@link #createPart()}.
+     * @param cause
+     *            the cause of failure.
+     */
+    public void fail(Acknowledgement part, Throwable cause) {
+        if (part instanceof Part) {
+            ((Part) part).fail(cause);
+        }
+    }
+
+    /**
+     * Releases dispatching. Delivery is never settled before this call.
+     */
+    public void release() {
+        complete(Outcome.ACK);
+    }
+
+    /**
+     * Gets whether delivery is already settled or not.
+     *
+     * @return true if already settled.
+     */
+    public synchronized boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * Expires delivery if it is not settled within timeout.
+     * Expired delivery is requeued.
+     *
+     * @param now
+     *            the current time in millis.
+     * @param timeoutMillis
+     *            the timeout in millis.
+     * @return true if delivery is expired.
+     */
+    public boolean expire(long now, long timeoutMillis) {
+        synchronized (this) {
+            if (settled || now - createdTime < timeoutMillis) {
+                return false;
+            }
+            settled = true;
+            outcome = Outcome.REQUEUE;
+            completedTime = now;
+        }
+        settle(Outcome.REQUEUE);
+        return true;
+    }
+
+    /**
+     * Abandons delivery without settling. This is used if channel is already closed
+     * because broker requeues unacknowledged messages itself.
+     */
+    public synchronized void abandon() {
+        settled = true;
+        sent = true;
+    }
+
+    /**
+     * Completes one of pending parts.
+     *
+     * @param partOutcome
+     *            the outcome of part.
+     */
+    private void complete(Outcome partOutcome) {
+        Outcome decided;
+        synchronized (this) {
+            if (settled) {
+                return;
+            }
+            if (partOutcome.ordinal() > outcome.ordinal()) {
+                outcome = partOutcome;
+            }
+            if (--pending > 0) {
+                return;
+            }
+            settled = true;
+            completedTime = System.currentTimeMillis();
+            decided = outcome;
+        }
+        settle(decided);
+    }
+
+    /**
+     * Records failure.
+     *
+     * @param cause
+     *            the cause of failure.
+     */
+    private synchronized void recordFailure(Throwable cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+    }
+
+    /**
+     * Settles delivery with decided outcome. Failed delivery is handed to owner.
+     * This must be called without lock.
+     *
+     * @param decided
+     *            the outcome.
+     */
+    private void settle(Outcome decided) {
+        if (decided == Outcome.RETRY && owner != null) {
+            owner.onFailed(this);
+        } else {
+            settleTo(decided);
+        }
+    }
+
+    /**
+     * Marks delivery as sent to broker.
+     *
+     * @return true if it is not sent or abandoned yet.
+     */
+    private synchronized boolean markSent() {
+        settled = true;
+        if (sent) {
+            return false;
+        }
+        sent = true;
+        return true;
+    }
+
+    /**
+     * Settles delivery to broker with specified outcome. This is done only
+     * once even if called from multiple threads, and nothing is sent if delivery
+     * is already abandoned.
+     * {@link Outcome#RETRY} is treated as {@link Outcome#ACK}.
+     *
+     * @param settleOutcome
+     *            the outcome.
+     */
+    void settleTo(Outcome settleOutcome) {
+        if (!markSent()) {
+            return;
+        }
+        try {
+            switch (settleOutcome) {
+            case REQUEUE:
+                channel.basicNack(deliveryTag, false, true);
+                break;
+            case REJECT:
+                channel.basicNack(deliveryTag, false, false);
+                break;
+            default:
+                channel.basicAck(deliveryTag, false);
+                break;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("Failed to settle delivery {0}.", deliveryTag), e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("Failed to settle delivery {0}.", deliveryTag), e);
+        }
+        if (owner != null) {
+            owner.onSettled(this, settleOutcome);
+        }
+    }
+
+    /**
+     * Part of acknowledgement given to a listener.
+     *
+     * @author rinrinne a.k.a. rin_ne
+     */
+    private class Part implements Acknowledgement {
+
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        /**
+         * @inheritDoc
+         */
+        public void ack() {
+            if (done.compareAndSet(false, true)) {
+                complete(Outcome.ACK);
+            }
+        }
+
+        /**
+         * @inheritDoc
+         */
+        public void nack(boolean requeue) {
+            if (done.compareAndSet(false, true)) {
+                complete(requeue ? Outcome.REQUEUE : Outcome.REJECT);
+            }
+        }
+
+        /**
+         * @inheritDoc
+         */
+        public void reject() {
+            if (done.compareAndSet(false, true)) {
+                complete(Outcome.REJECT);
+            }
+        }
+
+        /**
+         * @inheritDoc
+         */
+        public boolean isSettled() {
+            return done.get();
+        }
+
+        /**
+         * Marks this part as failed.
+         *
+         * @param cause
+         *            the cause of failure.
+         */
+        void fail(Throwable cause) {
+            if (done.compareAndSet(false, true)) {
+                recordFailure(cause);
+                complete(Outcome.RETRY);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dispatcher which shares worker threads among queues by deficit round-robin.
+ *
+ * Each queue has its own run queue. Run queues which have tasks are served in
+ * turn, and a run queue can run tasks up to its weight in each round. So a
+ * low-volume queue waits at most one round even while another queue saturates
+ * workers. Tasks in the same queue may run in parallel if there are multiple
+ * workers.
+ *
+ * Run queue is ordered by priority of task, and tasks with the same priority
+ * are kept in order. The number of queued tasks is bounded by prefetch count
+ * because they are not acknowledged yet.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FairDispatcher {
+
+    /**
+     * Default weight of queue.
+     */
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private static final Logger LOGGER = Logger.getLogger(FairDispatcher.class.getName());
+    private static final double WAIT_SMOOTHING = 0.2;
+
+    private final Map<String, RunQueue> runQueues = new HashMap<String, RunQueue>();
+    private final LinkedList<RunQueue> activeQueues = new LinkedList<RunQueue>();
+    private final int workerCount;
+    private boolean shutdown = false;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param workerCount
+     *            the number of worker threads.
+     */
+    public FairDispatcher(int workerCount) {
+        this.workerCount = workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, MessageFormat.format("RabbitMQ Consumer dispatch worker {0}", i));
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return the number of worker threads.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Sets weights of queues. Queue not in map has {@link #DEFAULT_WEIGHT}.
+     *
+     * @param weights
+     *            the map of queue name and weight.
+     */
+    public synchronized void setWeights(Map<String, Integer> weights) {
+        for (RunQueue runQueue : runQueues.values()) {
+            runQueue.weight = DEFAULT_WEIGHT;
+        }
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            getRunQueue(entry.getKey()).weight = Math.max(1, entry.getValue());
+        }
+    }
+
+    /**
+     * Gets weight of queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the weight.
+     */
+    public synchronized int getWeight(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        return runQueue != null ? runQueue.weight : DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Gets the number of tasks which wait in run queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the number of tasks.
+     */
+    public synchronized int getQueuedCount(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        return runQueue != null ? runQueue.tasks.size() : 0;
+    }
+
+    /**
+     * Gets smoothed time which tasks wait in run queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the time in millis.
+     */
+    public synchronized long getAverageWait(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        return runQueue != null ? Math.round(runQueue.averageWait) : 0;
+    }
+
+    /**
+     * Gets max time which tasks waited in run queue.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the time in millis.
+     */
+    public synchronized long getMaxWait(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        return runQueue != null ? runQueue.maxWait : 0;
+    }
+
+    /**
+     * Dispatches task to run queue. Task runs on caller thread if dispatcher
+     * is already shut down.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param task
+     *            the task.
+     */
+    public void dispatch(String queueName, Runnable task) {
+        dispatch(queueName, 0, task);
+    }
+
+    /**
+     * Dispatches task to run queue with priority. Task runs on caller thread
+     * if dispatcher is already shut down.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param priority
+     *            the priority. task with higher priority runs first.
+     * @param task
+     *            the task.
+     */
+    public void dispatch(String queueName, int priority, Runnable task) {
+        if (!offer(queueName, priority, task, System.currentTimeMillis())) {
+            task.run();
+        }
+    }
+
+    /**
+     * Adds task to run queue at specified time.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param priority
+     *            the priority.
+     * @param task
+     *            the task.
+     * @param now
+     *            the current time in millis.
+     * @return true if task is queued. false if dispatcher is already shut down.
+     */
+    synchronized boolean offer(String queueName, int priority, Runnable task, long now) {
+        if (shutdown) {
+            return false;
+        }
+        RunQueue runQueue = getRunQueue(queueName);
+        ListIterator<Task> it = runQueue.tasks.listIterator(runQueue.tasks.size());
+        while (it.hasPrevious()) {
+            if (it.previous().priority >= priority) {
+                it.next();
+                break;
+            }
+        }
+        it.add(new Task(task, priority, now));
+        if (!runQueue.active) {
+            runQueue.active = true;
+            runQueue.deficit = 0;
+            activeQueues.addLast(runQueue);
+        }
+        notify();
+        return true;
+    }
+
+    /**
+     * Takes next task by deficit round-robin at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @return the task. null if no task is queued.
+     */
+    synchronized Runnable poll(long now) {
+        RunQueue runQueue = activeQueues.peekFirst();
+        if (runQueue == null) {
+            return null;
+        }
+        if (runQueue.deficit < 1) {
+            runQueue.deficit += runQueue.weight;
+        }
+        Task task = runQueue.tasks.removeFirst();
+        runQueue.deficit--;
+        if (runQueue.tasks.isEmpty()) {
+            runQueue.active = false;
+            runQueue.deficit = 0;
+            activeQueues.removeFirst();
+        } else if (runQueue.deficit < 1) {
+            activeQueues.addLast(activeQueues.removeFirst());
+        }
+
+        long wait = now - task.enqueuedAt;
+        runQueue.averageWait += (wait - runQueue.averageWait) * WAIT_SMOOTHING;
+        runQueue.maxWait = Math.max(runQueue.maxWait, wait);
+        return task.runnable;
+    }
+
+    /**
+     * Removes tasks which wait in run queue for queue. Running tasks are not
+     * interrupted.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the number of removed tasks.
+     */
+    public synchronized int cancel(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        if (runQueue == null || runQueue.tasks.isEmpty()) {
+            return 0;
+        }
+        int count = runQueue.tasks.size();
+        runQueue.tasks.clear();
+        runQueue.active = false;
+        runQueue.deficit = 0;
+        activeQueues.remove(runQueue);
+        return count;
+    }
+
+    /**
+     * Shuts down workers. Queued tasks are still processed.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Gets run queue for queue name.
+     *
+     * @param queueName
+     *            the queue name.
+     * @return the run queue.
+     */
+    private RunQueue getRunQueue(String queueName) {
+        RunQueue runQueue = runQueues.get(queueName);
+        if (runQueue == null) {
+            runQueue = new RunQueue();
+            runQueues.put(queueName, runQueue);
+        }
+        return runQueue;
+    }
+
+    /**
+     * Runs tasks until dispatcher is shut down and run queues are drained.
+     */
+    private void work() {
+        try {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = poll(System.currentTimeMillis());
+                    while (task == null) {
+                        if (shutdown) {
+                            return;
+                        }
+                        wait();
+                        task = poll(System.currentTimeMillis());
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "caught exception in dispatch worker", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.fine("Dispatch worker is interrupted.");
+        }
+    }
+
+    /**
+     * Run queue for a queue.
+     */
+    private static final class RunQueue {
+        private final LinkedList<Task> tasks = new LinkedList<Task>();
+        private int weight = DEFAULT_WEIGHT;
+        private int deficit = 0;
+        private boolean active = false;
+        private double averageWait = 0;
+        private long maxWait = 0;
+    }
+
+    /**
+     * Task with priority and time when it is queued.
+     */
+    private static final class Task {
+        private final Runnable runnable;
+        private final int priority;
+        private final long enqueuedAt;
+
+        /**
+         * Creates instance with specified parameters.
+         *
+         * @param runnable
+         *            the task.
+         * @param priority
+         *            the priority.
+         * @param enqueuedAt
+         *            the time when task is queued.
+         */
+        Task(Runnable runnable, int priority, long enqueuedAt) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.rabbitmq.client.BlockedListener;
+
+/**
+ * Flow control state of connection.
+ *
+ * Broker blocks publishing connections when memory or disk alarm is raised.
+ * While blocked, basicPublish does not return, so publishers wait for this
+ * state instead of calling it. Blocked duration is accumulated as metric.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FlowControl implements BlockedListener {
+
+    private static final Logger LOGGER = Logger.getLogger(FlowControl.class.getName());
+
+    private boolean blocked = false;
+    private String blockedReason = null;
+    private long blockedSince = 0;
+    private long blockedCount = 0;
+    private long totalBlockedMillis = 0;
+
+    /**
+     * @inheritDoc
+     */
+    public void handleBlocked(String reason) {
+        block(reason, System.currentTimeMillis());
+    }
+
+    /**
+     * @inheritDoc
+     */
+    public void handleUnblocked() {
+        unblock(System.currentTimeMillis());
+    }
+
+    /**
+     * Blocks at specified time.
+     *
+     * @param reason
+     *            the reason from broker.
+     * @param now
+     *            the current time in millis.
+     */
+    synchronized void block(String reason, long now) {
+        LOGGER.warning(MessageFormat.format("Connection is blocked by broker: {0}", reason));
+        blockedReason = reason;
+        if (!blocked) {
+            blocked = true;
+            blockedSince = now;
+            blockedCount++;
+        }
+    }
+
+    /**
+     * Unblocks at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     */
+    synchronized void unblock(long now) {
+        if (blocked) {
+            long duration = now - blockedSince;
+            totalBlockedMillis += duration;
+            LOGGER.info(MessageFormat.format("Connection is unblocked after {0}ms.", duration));
+        }
+        blocked = false;
+        blockedReason = null;
+        notifyAll();
+    }
+
+    /**
+     * Gets whether connection is blocked or not.
+     *
+     * @return true if connection is blocked.
+     */
+    public synchronized boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Gets reason of block.
+     *
+     * @return the reason. null if not blocked.
+     */
+    public synchronized String getBlockedReason() {
+        return blockedReason;
+    }
+
+    /**
+     * Gets the number of times connection is blocked.
+     *
+     * @return the number of times.
+     */
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * Gets total duration connection is blocked, including current block.
+     *
+     * @return the duration in millis.
+     */
+    public long getBlockedMillis() {
+        return getBlockedMillis(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets total duration connection is blocked at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @return the duration in millis.
+     */
+    synchronized long getBlockedMillis(long now) {
+        if (blocked) {
+            return totalBlockedMillis + now - blockedSince;
+        }
+        return totalBlockedMillis;
+    }
+
+    /**
+     * Waits until connection is unblocked.
+     *
+     * @param timeout
+     *            the timeout.
+     * @param unit
+     *            the unit of timeout.
+     * @return true if connection is not blocked. false if timeout.
+     * @throws InterruptedException
+     *             throw if wait process is interrupted.
+     */
+    public synchronized boolean awaitUnblocked(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (blocked) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+}
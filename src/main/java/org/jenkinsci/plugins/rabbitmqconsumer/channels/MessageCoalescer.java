@@ -0,0 +1,245 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import hudson.util.DaemonThreadFactory;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+
+/**
+ * Coalescer which groups messages for an application id by key within time window.
+ *
+ * The first message for a key opens window. Messages which arrive for the same
+ * key in window supersede previous one, and superseded messages are acknowledged
+ * immediately. When window is closed, only the latest message is delivered to
+ * listeners with the number of coalesced messages in
+ * {@link #COALESCED_COUNT_HEADER} header. Delivery is handed to dispatch path
+ * of owner channel, so timer shared by all queues never waits for listeners.
+ *
+ * Key is specified by {@link MessageKey} expression.
+ * Message without key is delivered without coalescing.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class MessageCoalescer {
+
+    /**
+     * Header for the number of messages coalesced into delivered one.
+     */
+    public static final String COALESCED_COUNT_HEADER = "x-rabbitmq-consumer-coalesced-count";
+
+    private static final Logger LOGGER = Logger.getLogger(MessageCoalescer.class.getName());
+    private static final ScheduledExecutorService TIMER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+
+    private final String appId;
+    private final String queueName;
+    private final ConsumeRMQChannel owner;
+    private final MessageKey key;
+    private final long windowMillis;
+    private final Map<String, Pending> pendings = new HashMap<String, Pending>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param keyExpression
+     *            the expression of key.
+     * @param windowMillis
+     *            the time window in millis.
+     */
+    public MessageCoalescer(String appId, String queueName, String keyExpression, long windowMillis) {
+        this(appId, queueName, keyExpression, windowMillis, null);
+    }
+
+    /**
+     * Creates instance with specified parameters and owner channel.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param keyExpression
+     *            the expression of key.
+     * @param windowMillis
+     *            the time window in millis.
+     * @param owner
+     *            the owner channel which dispatches coalesced message. if null,
+     *            it is delivered on timer thread.
+     */
+    public MessageCoalescer(String appId, String queueName, String keyExpression, long windowMillis,
+            ConsumeRMQChannel owner) {
+        this.appId = appId;
+        this.queueName = queueName;
+        this.owner = owner;
+        this.key = new MessageKey(keyExpression);
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Gets application id.
+     *
+     * @return the application id.
+     */
+    public String getAppId() {
+        return appId;
+    }
+
+    /**
+     * Gets the number of messages which are superseded by later one.
+     *
+     * @return the number of messages.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Gets the number of keys in window.
+     *
+     * @return the number of keys.
+     */
+    public synchronized int getPendingCount() {
+        return pendings.size();
+    }
+
+    /**
+     * Offers message. Message is held until window is closed, or delivered
+     * immediately if it has no key.
+     *
+     * @param payload
+     *            the payload.
+     * @param acknowledgement
+     *            the acknowledgement for delivery.
+     */
+    public void offer(Payload payload, DeliveryAcknowledgement acknowledgement) {
+        String messageKey = key.get(acknowledgement.getEnvelope(), acknowledgement.getProperties(), payload);
+        if (messageKey == null) {
+            MessageQueueListener.fireOnReceive(appId, queueName, payload, acknowledgement);
+            return;
+        }
+        Acknowledgement hold = acknowledgement.createPart();
+        Acknowledgement superseded = null;
+        synchronized (this) {
+            Pending pending = pendings.get(messageKey);
+            if (pending == null) {
+                pending = new Pending();
+                pendings.put(messageKey, pending);
+                final String pendingKey = messageKey;
+                TIMER.schedule(new Runnable() {
+                    public void run() {
+                        flush(pendingKey);
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                superseded = pending.hold;
+                pending.count++;
+                coalescedCount.incrementAndGet();
+            }
+            pending.payload = payload;
+            pending.acknowledgement = acknowledgement;
+            pending.hold = hold;
+        }
+        if (superseded != null) {
+            superseded.ack();
+        }
+    }
+
+    /**
+     * Discards messages in window without delivering them. This is used if
+     * channel is closed because broker redelivers unacknowledged messages.
+     */
+    public synchronized void clear() {
+        pendings.clear();
+    }
+
+    /**
+     * Closes window for key and hands the latest message to owner channel.
+     *
+     * @param key
+     *            the key.
+     */
+    private void flush(String key) {
+        final Pending pending;
+        synchronized (this) {
+            pending = pendings.remove(key);
+        }
+        if (pending == null) {
+            return;
+        }
+        Payload payload = pending.payload;
+        if (pending.count > 1) {
+            LOGGER.fine(MessageFormat.format("Coalesced {0} messages for {1} in {2}.",
+                    pending.count, key, queueName));
+            Map<String, Object> headers = new HashMap<String, Object>();
+            if (payload.getHeaders() != null) {
+                headers.putAll(payload.getHeaders());
+            }
+            headers.put(COALESCED_COUNT_HEADER, pending.count);
+            payload = new Payload(payload.getContentType(), headers, payload.getBytes());
+        }
+        final Payload coalesced = payload;
+        Runnable task = new Runnable() {
+            public void run() {
+                deliver(coalesced, pending);
+            }
+        };
+        if (owner == null) {
+            task.run();
+            return;
+        }
+        try {
+            owner.dispatchCoalesced(pending.acknowledgement, coalesced, task);
+        } catch (RuntimeException e) {
+            // e.g. dispatcher is already shut down with channel. broker redelivers it.
+            LOGGER.log(Level.WARNING, "Failed to dispatch coalesced delivery.", e);
+            pending.hold.ack();
+        }
+    }
+
+    /**
+     * Delivers coalesced message to listeners.
+     *
+     * @param payload
+     *            the payload.
+     * @param pending
+     *            the message held in window.
+     */
+    private void deliver(Payload payload, Pending pending) {
+        try {
+            if (pending.acknowledgement.isSettled()) {
+                // abandoned or expired while waiting. broker redelivers it.
+                return;
+            }
+            MessageQueueListener.fireOnReceive(appId, queueName, payload, pending.acknowledgement);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "caught exception in coalesced delivery", e);
+        } finally {
+            pending.hold.ack();
+        }
+    }
+
+    /**
+     * Message held in window.
+     */
+    private static final class Pending {
+        private Payload payload;
+        private DeliveryAcknowledgement acknowledgement;
+        private Acknowledgement hold;
+        private int count = 1;
+    }
+}
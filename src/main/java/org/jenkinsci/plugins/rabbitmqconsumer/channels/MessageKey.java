@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.util.Map;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Key of message which is specified by expression.
+ *
+ * Expression is one of the below:
+ * <dl>
+ * <dt>routingKey</dt>
+ * <dd>routing key of message.</dd>
+ * <dt>correlationId</dt>
+ * <dd>correlation id of message.</dd>
+ * <dt>header:NAME</dt>
+ * <dd>value of header NAME.</dd>
+ * <dt>json:PATH</dt>
+ * <dd>value at dot separated PATH in JSON body.</dd>
+ * </dl>
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class MessageKey {
+
+    private static final String KEY_ROUTING_KEY = "routingKey";
+    private static final String KEY_CORRELATION_ID = "correlationId";
+    private static final String PREFIX_HEADER = "header:";
+    private static final String PREFIX_JSON = "json:";
+
+    private final String expression;
+
+    /**
+     * Creates instance with specified expression.
+     *
+     * @param expression
+     *            the expression.
+     */
+    public MessageKey(String expression) {
+        this.expression = StringUtils.strip(expression);
+    }
+
+    /**
+     * Gets expression.
+     *
+     * @return the expression.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Gets key of message.
+     *
+     * @param envelope
+     *            the envelope.
+     * @param properties
+     *            the properties.
+     * @param payload
+     *            the payload.
+     * @return the key. null if message has no key.
+     */
+    public String get(Envelope envelope, BasicProperties properties, Payload payload) {
+        if (StringUtils.isEmpty(expression)) {
+            return null;
+        }
+        Object value = null;
+        if (KEY_ROUTING_KEY.equals(expression)) {
+            value = envelope != null ? envelope.getRoutingKey() : null;
+        } else if (KEY_CORRELATION_ID.equals(expression)) {
+            value = properties != null ? properties.getCorrelationId() : null;
+        } else if (expression.startsWith(PREFIX_HEADER)) {
+            Map<String, Object> headers = payload.getHeaders();
+            value = headers != null ? headers.get(expression.substring(PREFIX_HEADER.length())) : null;
+        } else if (expression.startsWith(PREFIX_JSON)) {
+            value = getJsonValue(payload, expression.substring(PREFIX_JSON.length()));
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Gets value at path in JSON body.
+     *
+     * @param payload
+     *            the payload.
+     * @param path
+     *            the dot separated path.
+     * @return the value. null if not found.
+     */
+    private static Object getJsonValue(Payload payload, String path) {
+        JSON json;
+        try {
+            json = payload.getJson();
+        } catch (RuntimeException e) {
+            return null;
+        }
+        Object value = json;
+        for (String name : StringUtils.split(path, '.')) {
+            if (!(value instanceof JSONObject) || ((JSONObject) value).isNullObject()) {
+                return null;
+            }
+            value = ((JSONObject) value).opt(name);
+        }
+        return value instanceof JSON ? null : value;
+    }
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.text.MessageFormat;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Dispatcher which runs deliveries on ordered lanes.
+ *
+ * Delivery is assigned to lane by hash of its key, so deliveries with the same
+ * key are processed in order while ones with different keys run in parallel.
+ * Delivery without key is assigned to lanes in turn. The number of queued
+ * deliveries is bounded by prefetch count because they are not acknowledged yet.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class OrderedDispatcher {
+
+    private final MessageKey key;
+    private final ThreadPoolExecutor[] lanes;
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param laneCount
+     *            the number of lanes.
+     * @param keyExpression
+     *            the expression of key.
+     */
+    public OrderedDispatcher(final String queueName, int laneCount, String keyExpression) {
+        this.key = new MessageKey(keyExpression);
+        this.lanes = new ThreadPoolExecutor[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            final int laneNumber = i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, MessageFormat.format(
+                                    "RabbitMQ Consumer lane {0} for {1}", laneNumber, queueName));
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Gets the number of lanes.
+     *
+     * @return the number of lanes.
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Gets the number of deliveries which wait in lanes.
+     *
+     * @return the number of deliveries.
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            count += lane.getQueue().size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets lane for message.
+     *
+     * @param envelope
+     *            the envelope.
+     * @param properties
+     *            the properties.
+     * @param payload
+     *            the payload.
+     * @return the lane number.
+     */
+    public int getLane(Envelope envelope, BasicProperties properties, Payload payload) {
+        String messageKey = key.get(envelope, properties, payload);
+        if (messageKey == null) {
+            return (nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+        }
+        return (messageKey.hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * Dispatches task for message to its lane.
+     *
+     * @param envelope
+     *            the envelope.
+     * @param properties
+     *            the properties.
+     * @param payload
+     *            the payload.
+     * @param task
+     *            the task which processes message.
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             throw if dispatcher is already shut down.
+     */
+    public void dispatch(Envelope envelope, BasicProperties properties, Payload payload, Runnable task) {
+        lanes[getLane(envelope, properties, payload)].execute(task);
+    }
+
+    /**
+     * Removes tasks which wait in lanes. Running tasks are not interrupted.
+     */
+    public void cancel() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.getQueue().clear();
+        }
+    }
+
+    /**
+     * Shuts down lanes. Queued tasks are still processed.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+}
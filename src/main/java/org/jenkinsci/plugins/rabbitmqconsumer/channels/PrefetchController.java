@@ -0,0 +1,234 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+/**
+ * Controller which adjusts prefetch count by AIMD.
+ *
+ * Latency from delivery to settlement is recorded for each message. At the end of
+ * each period, prefetch count is halved if average latency exceeds target or heap
+ * headroom is low. Otherwise it is increased by fixed step if listeners keep up and
+ * in-flight deliveries reach current prefetch count.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class PrefetchController {
+
+    /**
+     * Decision made at the end of period.
+     */
+    public enum Decision {
+        /**
+         * Prefetch count is not changed.
+         */
+        HOLD,
+        /**
+         * Prefetch count is increased.
+         */
+        INCREASE,
+        /**
+         * Prefetch count is decreased by latency.
+         */
+        DECREASE_LATENCY,
+        /**
+         * Prefetch count is decreased by heap pressure.
+         */
+        DECREASE_HEAP;
+    }
+
+    private static final long PERIOD_MILLIS = 1000;
+    private static final int INCREASE_STEP = 10;
+    private static final double MIN_HEAP_HEADROOM = 0.1;
+    private static final double SATURATION_RATIO = 0.8;
+
+    private final boolean adaptive;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long targetLatencyMillis;
+
+    private int prefetch;
+    private long periodStart;
+    private long latencyTotal = 0;
+    private int latencyCount = 0;
+    private int maxInFlight = 0;
+    private long lastAverageLatency = 0;
+    private Decision lastDecision = Decision.HOLD;
+    private long increaseCount = 0;
+    private long decreaseCount = 0;
+
+    /**
+     * Creates instance with fixed prefetch count.
+     *
+     * @param prefetch
+     *            the prefetch count.
+     */
+    public PrefetchController(int prefetch) {
+        this(prefetch, prefetch, 0, false);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param initialPrefetch
+     *            the initial prefetch count.
+     * @param maxPrefetch
+     *            the max prefetch count.
+     * @param targetLatencyMillis
+     *            the target latency in millis.
+     */
+    public PrefetchController(int initialPrefetch, int maxPrefetch, long targetLatencyMillis) {
+        this(initialPrefetch, maxPrefetch, targetLatencyMillis, true);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param initialPrefetch
+     *            the initial prefetch count.
+     * @param maxPrefetch
+     *            the max prefetch count.
+     * @param targetLatencyMillis
+     *            the target latency in millis.
+     * @param adaptive
+     *            true if prefetch count is adjusted.
+     */
+    private PrefetchController(int initialPrefetch, int maxPrefetch, long targetLatencyMillis, boolean adaptive) {
+        this.adaptive = adaptive;
+        this.minPrefetch = 1;
+        this.maxPrefetch = Math.max(minPrefetch, maxPrefetch);
+        this.prefetch = Math.min(this.maxPrefetch, Math.max(minPrefetch, initialPrefetch));
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.periodStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets whether prefetch count is adjusted or not.
+     *
+     * @return true if prefetch count is adjusted.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Gets current prefetch count.
+     *
+     * @return the prefetch count.
+     */
+    public synchronized int getPrefetchCount() {
+        return prefetch;
+    }
+
+    /**
+     * Gets average latency in the last period.
+     *
+     * @return the latency in millis.
+     */
+    public synchronized long getAverageLatency() {
+        return lastAverageLatency;
+    }
+
+    /**
+     * Gets decision made at the end of the last period.
+     *
+     * @return the decision.
+     */
+    public synchronized Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * Gets the number of times prefetch count is increased.
+     *
+     * @return the number of times.
+     */
+    public synchronized long getIncreaseCount() {
+        return increaseCount;
+    }
+
+    /**
+     * Gets the number of times prefetch count is decreased.
+     *
+     * @return the number of times.
+     */
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    /**
+     * Records the number of in-flight deliveries when message is delivered.
+     *
+     * @param inFlight
+     *            the number of deliveries not settled yet.
+     */
+    public synchronized void observe(int inFlight) {
+        maxInFlight = Math.max(maxInFlight, inFlight);
+    }
+
+    /**
+     * Records settled delivery.
+     *
+     * @param latencyMillis
+     *            the latency from delivery to completion by listeners.
+     */
+    public synchronized void record(long latencyMillis) {
+        latencyTotal += latencyMillis;
+        latencyCount++;
+    }
+
+    /**
+     * Adjusts prefetch count if period is elapsed.
+     *
+     * @return the new prefetch count. 0 if it is not changed.
+     */
+    public int adjust() {
+        if (!adaptive) {
+            return 0;
+        }
+        Runtime rt = Runtime.getRuntime();
+        double headroom = 1.0 - (double) (rt.totalMemory() - rt.freeMemory()) / rt.maxMemory();
+        return adjust(System.currentTimeMillis(), headroom);
+    }
+
+    /**
+     * Adjusts prefetch count if period is elapsed at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @param heapHeadroom
+     *            the ratio of free heap.
+     * @return the new prefetch count. 0 if it is not changed.
+     */
+    synchronized int adjust(long now, double heapHeadroom) {
+        if (now - periodStart < PERIOD_MILLIS) {
+            return 0;
+        }
+        int previous = prefetch;
+        lastAverageLatency = latencyCount > 0 ? latencyTotal / latencyCount : 0;
+
+        if (heapHeadroom < MIN_HEAP_HEADROOM) {
+            lastDecision = Decision.DECREASE_HEAP;
+            prefetch = Math.max(minPrefetch, prefetch / 2);
+        } else if (latencyCount > 0 && lastAverageLatency > targetLatencyMillis) {
+            lastDecision = Decision.DECREASE_LATENCY;
+            prefetch = Math.max(minPrefetch, prefetch / 2);
+        } else if (maxInFlight >= prefetch * SATURATION_RATIO) {
+            lastDecision = Decision.INCREASE;
+            prefetch = Math.min(maxPrefetch, prefetch + INCREASE_STEP);
+        } else {
+            lastDecision = Decision.HOLD;
+        }
+
+        periodStart = now;
+        latencyTotal = 0;
+        latencyCount = 0;
+        maxInFlight = 0;
+
+        if (prefetch > previous) {
+            increaseCount++;
+        } else if (prefetch < previous) {
+            decreaseCount++;
+        } else {
+            return 0;
+        }
+        return prefetch;
+    }
+}
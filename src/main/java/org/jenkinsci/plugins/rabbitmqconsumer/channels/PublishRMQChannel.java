@@ -6,9 +6,13 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.rabbitmqconsumer.GlobalRabbitmqConfiguration;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQChannelListener;
 import org.jenkinsci.plugins.rabbitmqconsumer.publishers.ExchangeType;
 import org.jenkinsci.plugins.rabbitmqconsumer.publishers.PublishChannel;
@@ -24,12 +28,47 @@ import com.rabbitmq.client.AMQP;
 public class PublishRMQChannel extends AbstractRMQChannel implements PublishChannel {
 
     private static final Logger LOGGER = Logger.getLogger(PublishRMQChannel.class.getName());
+    private static final String BLOCKED_MESSAGE = "Connection is blocked by broker.";
+    private static final long DEFAULT_BLOCKED_PUBLISH_TIMEOUT_MILLIS = 60000;
+    private static final int DEFAULT_BLOCKED_PUBLISH_BUFFER_SIZE = 1000;
+
     private final ExecutorService publishExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger queuedPublishes = new AtomicInteger();
+    private final FlowControl flowControl;
 
     /**
      * Creates instance.
      */
     public PublishRMQChannel() {
+        this(new FlowControl());
+    }
+
+    /**
+     * Creates instance with flow control of connection.
+     *
+     * @param flowControl
+     *            the flow control.
+     */
+    public PublishRMQChannel(FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    /**
+     * Gets flow control of connection.
+     *
+     * @return the flow control.
+     */
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Gets the number of messages which wait for publishing.
+     *
+     * @return the number of messages.
+     */
+    public int getQueuedCount() {
+        return queuedPublishes.get();
     }
 
     /**
@@ -37,6 +76,17 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
      */
     public Future<PublishResult> publish(String exchangeName, String routingKey,
             AMQP.BasicProperties props, byte[] body) {
+        if (flowControl.isBlocked() && (getBlockedPublishPolicy() == BlockedPublishPolicy.FAIL
+                || queuedPublishes.get() >= getBlockedPublishBufferSize())) {
+            FutureTask<PublishResult> failed = new FutureTask<PublishResult>(new Callable<PublishResult>() {
+                public PublishResult call() {
+                    return new PublishResult(false, BLOCKED_MESSAGE, null);
+                }
+            });
+            failed.run();
+            return failed;
+        }
+        queuedPublishes.incrementAndGet();
         return publishExecutor.submit(new PublishTask(exchangeName, routingKey, props, body));
     }
 
@@ -92,6 +142,67 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
         removeRMQChannelListener(listener);
     }
 
+    /**
+     * Gets policy for messages published while connection is blocked.
+     *
+     * @return the policy.
+     */
+    private BlockedPublishPolicy getBlockedPublishPolicy() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf == null) {
+            return BlockedPublishPolicy.BUFFER;
+        }
+        return BlockedPublishPolicy.fromName(conf.getBlockedPublishPolicy());
+    }
+
+    /**
+     * Gets max time to hold message while connection is blocked.
+     *
+     * @return the time in millis.
+     */
+    private long getBlockedPublishTimeout() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf == null) {
+            return DEFAULT_BLOCKED_PUBLISH_TIMEOUT_MILLIS;
+        }
+        return TimeUnit.SECONDS.toMillis(conf.getBlockedPublishTimeout());
+    }
+
+    /**
+     * Gets max number of messages to hold while connection is blocked.
+     *
+     * @return the number of messages.
+     */
+    private int getBlockedPublishBufferSize() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf == null) {
+            return DEFAULT_BLOCKED_PUBLISH_BUFFER_SIZE;
+        }
+        return conf.getBlockedPublishBufferSize();
+    }
+
+    /**
+     * Gets codec to compress published message.
+     *
+     * @return the codec. null if compression is disabled.
+     */
+    private CompressionCodec getCompressionCodec() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (conf == null) {
+            return null;
+        }
+        return CompressionCodec.get(conf.getCompression());
+    }
+
+    /**
+     * Gets min size of message body to be compressed.
+     *
+     * @return the size in bytes.
+     */
+    private int getCompressionThreshold() {
+        return GlobalRabbitmqConfiguration.get().getCompressionThreshold();
+    }
+
     /**
      * A class to publish message.
      *
@@ -104,9 +215,11 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
         private String routingKey;
         private AMQP.BasicProperties props;
         private byte[] body;
+        private final long deadline;
 
         /**
-         * Create instance.
+         * Create instance. Time to wait for unblocked connection starts here.
+         * So messages held in buffer share the same timeout.
          *
          * @param exchangeName the exchange name.
          * @param routingKey the routing key.
@@ -119,15 +232,33 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
             this.routingKey = routingKey;
             this.props = props;
             this.body = body;
+            this.deadline = System.currentTimeMillis() + getBlockedPublishTimeout();
         }
 
         /**
          * @inheritDoc
          */
         public PublishResult call() throws Exception {
+            try {
+                return send();
+            } finally {
+                queuedPublishes.decrementAndGet();
+            }
+        }
+
+        /**
+         * Sends message to broker.
+         *
+         * @return the result.
+         */
+        private PublishResult send() {
             if (channel != null && channel.isOpen()) {
                 if (body != null) {
+                    if (!awaitUnblocked()) {
+                        return new PublishResult(false, BLOCKED_MESSAGE, exchangeName);
+                    }
                     try {
+                        compress();
                         channel.basicPublish(exchangeName, routingKey, props, body);
                         return new PublishResult(true, "Published", exchangeName);
                     } catch (IOException e) {
@@ -138,6 +269,54 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
             }
             return new PublishResult(false, "Channel is not opened.", exchangeName);
         }
+
+        /**
+         * Waits until connection is unblocked according to policy, so that
+         * publish does not hang on blocked connection.
+         *
+         * @return true if message can be published.
+         */
+        private boolean awaitUnblocked() {
+            if (!flowControl.isBlocked()) {
+                return true;
+            }
+            if (getBlockedPublishPolicy() == BlockedPublishPolicy.FAIL) {
+                return false;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                return flowControl.awaitUnblocked(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Compresses body if it is larger than threshold and not encoded yet.
+         * Body is sent as is if it is not reduced.
+         *
+         * @throws IOException
+         *             throw if body cannot be compressed.
+         */
+        private void compress() throws IOException {
+            if (props != null && props.getContentEncoding() != null) {
+                return;
+            }
+            CompressionCodec codec = getCompressionCodec();
+            if (codec == null || body.length < getCompressionThreshold()) {
+                return;
+            }
+            byte[] compressed = codec.compress(body);
+            if (compressed.length < body.length) {
+                AMQP.BasicProperties base = props != null ? props : new AMQP.BasicProperties();
+                props = base.builder().contentEncoding(codec.getEncoding()).build();
+                body = compressed;
+            }
+        }
     }
 
     /**
@@ -0,0 +1,177 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+/**
+ * Token bucket which limits rate of messages delivered to listeners.
+ *
+ * Bucket holds up to burst tokens and is refilled at fixed rate. Delivery which
+ * finds no token waits on consumer thread until token is refilled. Because
+ * waiting deliveries are not acknowledged, broker stops delivering when prefetch
+ * count is reached and excess messages stay in queue.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RateLimiter {
+
+    private static final long SECOND_MILLIS = 1000;
+
+    private final double ratePerSecond;
+    private final int burst;
+
+    private double tokens;
+    private long lastRefill;
+    private long windowSecond = 0;
+    private int windowCount = 0;
+    private int windowThrottled = 0;
+    private int lastWindowCount = 0;
+    private int lastWindowThrottled = 0;
+    private long throttledCount = 0;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param ratePerSecond
+     *            the number of messages per second.
+     * @param burst
+     *            the max number of messages delivered without wait.
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets rate limit.
+     *
+     * @return the number of messages per second.
+     */
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Gets burst size.
+     *
+     * @return the max number of messages delivered without wait.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Acquires token. Caller waits until token is available.
+     *
+     * @throws InterruptedException
+     *             throw if wait process is interrupted.
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve(System.currentTimeMillis());
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Reserves token at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @return the time to wait for reserved token in millis.
+     */
+    synchronized long reserve(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerSecond / SECOND_MILLIS);
+            lastRefill = now;
+        }
+        long wait = 0;
+        if (tokens < 1) {
+            wait = (long) Math.ceil((1 - tokens) * SECOND_MILLIS / ratePerSecond);
+            throttledCount++;
+        }
+        tokens -= 1;
+
+        long second = (now + wait) / SECOND_MILLIS;
+        if (second > windowSecond) {
+            rotate(second);
+        }
+        windowCount++;
+        if (wait > 0) {
+            windowThrottled++;
+        }
+        return wait;
+    }
+
+    /**
+     * Gets the number of messages delivered in the last second.
+     *
+     * @return the number of messages.
+     */
+    public int getCurrentRate() {
+        return getCurrentRate(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of messages delivered in the last second at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @return the number of messages.
+     */
+    synchronized int getCurrentRate(long now) {
+        long second = now / SECOND_MILLIS;
+        if (second == windowSecond) {
+            return lastWindowCount;
+        }
+        return second == windowSecond + 1 ? windowCount : 0;
+    }
+
+    /**
+     * Gets the number of messages which waited for token in the last second.
+     *
+     * @return the number of messages.
+     */
+    public int getThrottledRate() {
+        return getThrottledRate(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of messages which waited for token in the last second
+     * at specified time.
+     *
+     * @param now
+     *            the current time in millis.
+     * @return the number of messages.
+     */
+    synchronized int getThrottledRate(long now) {
+        long second = now / SECOND_MILLIS;
+        if (second == windowSecond) {
+            return lastWindowThrottled;
+        }
+        return second == windowSecond + 1 ? windowThrottled : 0;
+    }
+
+    /**
+     * Gets the total number of messages which waited for token.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Starts new window for rate.
+     *
+     * @param second
+     *            the second of new window.
+     */
+    private void rotate(long second) {
+        boolean consecutive = second == windowSecond + 1;
+        lastWindowCount = consecutive ? windowCount : 0;
+        lastWindowThrottled = consecutive ? windowThrottled : 0;
+        windowSecond = second;
+        windowCount = 0;
+        windowThrottled = 0;
+    }
+}
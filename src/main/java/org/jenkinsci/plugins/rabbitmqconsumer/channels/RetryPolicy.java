@@ -0,0 +1,86 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Policy for retrying failed deliveries.
+ *
+ * Delay is doubled on each attempt from initial delay up to max delay.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RetryPolicy {
+
+    /**
+     * The policy that never retries. Failed delivery is acknowledged.
+     */
+    public static final RetryPolicy DISABLED = new RetryPolicy(0, 0, 0, null);
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final String deadLetterExchange;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param maxAttempts
+     *            the max number of attempts including the first delivery.
+     *            0 means retry is disabled.
+     * @param initialDelayMillis
+     *            the delay before the first retry in millis.
+     * @param maxDelayMillis
+     *            the max delay in millis.
+     * @param deadLetterExchange
+     *            the exchange which exhausted delivery is published to.
+     *            If empty, delivery is rejected.
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, String deadLetterExchange) {
+        this.maxAttempts = Math.max(0, maxAttempts);
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.deadLetterExchange = StringUtils.stripToNull(deadLetterExchange);
+    }
+
+    /**
+     * Gets whether retry is enabled or not.
+     *
+     * @return true if enabled.
+     */
+    public boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    /**
+     * Gets max number of attempts.
+     *
+     * @return the max number of attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets dead letter exchange.
+     *
+     * @return the exchange name. null if not set.
+     */
+    public String getDeadLetterExchange() {
+        return deadLetterExchange;
+    }
+
+    /**
+     * Gets delay before next attempt.
+     *
+     * @param attempts
+     *            the number of attempts which are already failed.
+     * @return the delay in millis.
+     */
+    public long getDelay(int attempts) {
+        long delay = initialDelayMillis;
+        for (int i = 1; i < attempts && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxDelayMillis);
+    }
+}
@@ -0,0 +1,341 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import hudson.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement.Outcome;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Scheduler for failed deliveries.
+ *
+ * Failed delivery is held unacknowledged on timer of the queue, then republished to
+ * the queue with incremented attempt count header after backoff delay.
+ * Original delivery is acknowledged only after broker confirms republished one
+ * on a dedicated channel in confirm mode, so the message is redelivered by broker
+ * if Jenkins stops before retry or republishing fails.
+ * Once attempts are exhausted, the message is published to dead letter exchange
+ * with failure information in headers, or rejected if it is not configured.
+ * Each queue has its own timer, so waiting for confirm never delays retries
+ * of other queues.
+ *
+ * Republished message is dispatched to all listeners for its application id
+ * again, including ones which already succeeded. So listeners must be idempotent
+ * if retry is enabled.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RetryScheduler {
+
+    /**
+     * Header for the number of failed attempts.
+     */
+    public static final String ATTEMPTS_HEADER = "x-rabbitmq-consumer-attempts";
+    /**
+     * Header for the reason of last failure.
+     */
+    public static final String FAILURE_REASON_HEADER = "x-rabbitmq-consumer-failure-reason";
+    /**
+     * Header for the time of last failure.
+     */
+    public static final String FAILURE_TIME_HEADER = "x-rabbitmq-consumer-failure-time";
+    /**
+     * Header for the queue which the message is consumed from.
+     */
+    public static final String ORIGINAL_QUEUE_HEADER = "x-rabbitmq-consumer-original-queue";
+    /**
+     * Header for the exchange which the message is published to first.
+     */
+    public static final String ORIGINAL_EXCHANGE_HEADER = "x-rabbitmq-consumer-original-exchange";
+    /**
+     * Header for the routing key which the message is published with first.
+     */
+    public static final String ORIGINAL_ROUTING_KEY_HEADER = "x-rabbitmq-consumer-original-routing-key";
+
+    private static final Logger LOGGER = Logger.getLogger(RetryScheduler.class.getName());
+    private static final long CONFIRM_TIMEOUT = 5000;
+
+    private final String queueName;
+    private final RetryPolicy policy;
+    private final ScheduledExecutorService timer;
+    private volatile Channel confirmChannel;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param policy
+     *            the retry policy.
+     */
+    public RetryScheduler(String queueName, RetryPolicy policy) {
+        this.queueName = queueName;
+        this.policy = policy;
+        this.timer = policy.isEnabled()
+                ? Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory()) : null;
+    }
+
+    /**
+     * Gets retry policy.
+     *
+     * @return the policy.
+     */
+    public RetryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Handles failed delivery.
+     *
+     * @param ack
+     *            the failed delivery.
+     */
+    public void schedule(final DeliveryAcknowledgement ack) {
+        if (!policy.isEnabled() || ack.getProperties() == null) {
+            ack.settleTo(Outcome.ACK);
+            return;
+        }
+
+        final int attempts = getAttempts(ack.getProperties()) + 1;
+        try {
+            if (attempts >= policy.getMaxAttempts()) {
+                timer.execute(new Runnable() {
+                    public void run() {
+                        deadLetter(ack, attempts);
+                    }
+                });
+                return;
+            }
+
+            long delay = policy.getDelay(attempts);
+            LOGGER.fine(MessageFormat.format("Retry delivery {0} from {1} after {2} ms (attempt {3}).",
+                    ack.getDeliveryTag(), queueName, delay, attempts));
+            timer.schedule(new Runnable() {
+                public void run() {
+                    republish(ack, attempts);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // already shut down with channel. broker redelivers it.
+            LOGGER.fine(MessageFormat.format("Retry of delivery {0} from {1} is skipped due to shutdown.",
+                    ack.getDeliveryTag(), queueName));
+        }
+    }
+
+    /**
+     * Republishes delivery to the queue.
+     *
+     * @param ack
+     *            the failed delivery.
+     * @param attempts
+     *            the number of failed attempts.
+     */
+    private void republish(DeliveryAcknowledgement ack, int attempts) {
+        if (!ack.getChannel().isOpen()) {
+            // broker redelivers it.
+            return;
+        }
+        if (publishConfirmed(ack, "", queueName, withHeaders(ack, attempts, false))) {
+            ack.settleTo(Outcome.ACK);
+        } else {
+            LOGGER.warning(MessageFormat.format("Failed to retry delivery {0} from {1}, so requeued.",
+                    ack.getDeliveryTag(), queueName));
+            ack.settleTo(Outcome.REQUEUE);
+        }
+    }
+
+    /**
+     * Publishes exhausted delivery to dead letter exchange.
+     *
+     * @param ack
+     *            the failed delivery.
+     * @param attempts
+     *            the number of failed attempts.
+     */
+    private void deadLetter(DeliveryAcknowledgement ack, int attempts) {
+        String exchange = policy.getDeadLetterExchange();
+        LOGGER.warning(MessageFormat.format("Delivery {0} from {1} failed {2} times, so dead-lettered.",
+                ack.getDeliveryTag(), queueName, attempts));
+        if (exchange == null) {
+            ack.settleTo(Outcome.REJECT);
+            return;
+        }
+        if (!ack.getChannel().isOpen()) {
+            // broker redelivers it.
+            return;
+        }
+        String routingKey = ack.getEnvelope().getRoutingKey();
+        if (publishConfirmed(ack, exchange, routingKey != null ? routingKey : queueName,
+                withHeaders(ack, attempts, true))) {
+            ack.settleTo(Outcome.ACK);
+        } else {
+            // message must not be lost, so it is dead-lettered again on redelivery.
+            LOGGER.warning(MessageFormat.format("Failed to publish delivery {0} to {1}, so requeued.",
+                    ack.getDeliveryTag(), exchange));
+            ack.settleTo(Outcome.REQUEUE);
+        }
+    }
+
+    /**
+     * Publishes body of delivery and waits for confirm by broker.
+     *
+     * @param ack
+     *            the failed delivery.
+     * @param exchange
+     *            the exchange.
+     * @param routingKey
+     *            the routing key.
+     * @param props
+     *            the properties.
+     * @return true if broker confirms message.
+     */
+    private boolean publishConfirmed(DeliveryAcknowledgement ack, String exchange, String routingKey,
+            BasicProperties props) {
+        try {
+            Channel channel = getConfirmChannel(ack.getChannel().getConnection());
+            channel.basicPublish(exchange, routingKey, props, ack.getBody());
+            return channel.waitForConfirms(CONFIRM_TIMEOUT);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, MessageFormat.format("Failed to publish delivery {0} from {1}.",
+                    ack.getDeliveryTag(), queueName), e);
+        } catch (TimeoutException e) {
+            LOGGER.warning(MessageFormat.format("Publish of delivery {0} from {1} is not confirmed in {2} ms.",
+                    ack.getDeliveryTag(), queueName, CONFIRM_TIMEOUT));
+            // late confirm must not be taken for next message.
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // e.g. AlreadyClosedException if connection is lost.
+            LOGGER.log(Level.WARNING, MessageFormat.format("Failed to publish delivery {0} from {1}.",
+                    ack.getDeliveryTag(), queueName), e);
+        }
+        return false;
+    }
+
+    /**
+     * Gets channel in confirm mode. Channel is created on connection if needed.
+     *
+     * @param connection
+     *            the connection of consume channel.
+     * @return the channel.
+     * @throws IOException
+     *             throw if channel cannot be created.
+     */
+    private synchronized Channel getConfirmChannel(Connection connection) throws IOException {
+        Channel channel = confirmChannel;
+        if (channel != null && channel.isOpen() && channel.getConnection() == connection) {
+            return channel;
+        }
+        close();
+        channel = connection.createChannel();
+        if (channel == null) {
+            throw new IOException("No channel is available for retry.");
+        }
+        channel.confirmSelect();
+        confirmChannel = channel;
+        return channel;
+    }
+
+    /**
+     * Shuts down timer and closes channel for republishing. Held deliveries are
+     * dropped, because broker redelivers them once consume channel is closed.
+     */
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        close();
+    }
+
+    /**
+     * Closes channel for republishing.
+     */
+    public void close() {
+        Channel channel = confirmChannel;
+        confirmChannel = null;
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close channel for retry.", e);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to close channel for retry.", e);
+            }
+        }
+    }
+
+    /**
+     * Creates properties with retry headers.
+     *
+     * @param ack
+     *            the failed delivery.
+     * @param attempts
+     *            the number of failed attempts.
+     * @param failure
+     *            true if failure information is added.
+     * @return the properties.
+     */
+    private BasicProperties withHeaders(DeliveryAcknowledgement ack, int attempts, boolean failure) {
+        BasicProperties props = ack.getProperties();
+        Map<String, Object> headers = new HashMap<String, Object>();
+        if (props.getHeaders() != null) {
+            headers.putAll(props.getHeaders());
+        }
+        headers.put(ATTEMPTS_HEADER, attempts);
+        if (!headers.containsKey(ORIGINAL_QUEUE_HEADER)) {
+            headers.put(ORIGINAL_QUEUE_HEADER, queueName);
+            if (ack.getEnvelope().getExchange() != null) {
+                headers.put(ORIGINAL_EXCHANGE_HEADER, ack.getEnvelope().getExchange());
+            }
+            if (ack.getEnvelope().getRoutingKey() != null) {
+                headers.put(ORIGINAL_ROUTING_KEY_HEADER, ack.getEnvelope().getRoutingKey());
+            }
+        }
+        Throwable cause = ack.getFailure();
+        if (failure && cause != null) {
+            headers.put(FAILURE_REASON_HEADER, cause.toString());
+            headers.put(FAILURE_TIME_HEADER, new Date());
+        }
+        return props.builder().headers(headers).build();
+    }
+
+    /**
+     * Gets the number of failed attempts from properties.
+     *
+     * @param props
+     *            the properties.
+     * @return the number of failed attempts.
+     */
+    static int getAttempts(BasicProperties props) {
+        Map<String, Object> headers = props.getHeaders();
+        if (headers != null) {
+            Object value = headers.get(ATTEMPTS_HEADER);
+            if (value instanceof Number) {
+                return ((Number) value).intValue();
+            } else if (value != null) {
+                try {
+                    return Integer.parseInt(value.toString());
+                } catch (NumberFormatException e) {
+                    LOGGER.fine("Invalid attempts header: " + value);
+                }
+            }
+        }
+        return 0;
+    }
+}
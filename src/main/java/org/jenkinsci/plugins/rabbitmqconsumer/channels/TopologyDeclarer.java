@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.QueueTopology;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Declarer which declares topology of consumed queues.
+ *
+ * Declared topology is cached for each queue. If cached topology is not changed
+ * and queue still exists in broker, declaration is skipped. So topology is
+ * re-applied only when broker lost queue or setting is changed.
+ * Instance should outlive connection to keep cache over reconnects.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class TopologyDeclarer {
+
+    private static final Logger LOGGER = Logger.getLogger(TopologyDeclarer.class.getName());
+
+    private final ConcurrentMap<String, QueueTopology> declared = new ConcurrentHashMap<String, QueueTopology>();
+
+    /**
+     * Declares queue and its bindings if needed.
+     *
+     * @param pool
+     *            the pool of control channels.
+     * @param queueName
+     *            the queue name.
+     * @param topology
+     *            the topology. nothing is declared if null.
+     * @return true if topology is declared. false if skipped or failed.
+     */
+    public boolean declare(ControlChannelPool pool, String queueName, QueueTopology topology) {
+        if (pool == null || queueName == null || topology == null) {
+            return false;
+        }
+        if (topology.equals(declared.get(queueName)) && Boolean.TRUE.equals(pool.isQueueExists(queueName))) {
+            return false;
+        }
+        ChannelLease lease = pool.lease();
+        if (lease == null) {
+            return false;
+        }
+        try {
+            Channel ch = lease.getChannel();
+            ch.queueDeclare(queueName, topology.isDurable(), false, false, topology.getArguments());
+            for (String[] binding : topology.getBindingList()) {
+                ch.queueBind(queueName, binding[0], binding[1]);
+            }
+            declared.put(queueName, topology);
+            LOGGER.info(MessageFormat.format("Declared queue: {0}", queueName));
+            return true;
+        } catch (IOException e) {
+            declared.remove(queueName);
+            LOGGER.log(Level.WARNING, MessageFormat.format("Failed to declare queue: {0}", queueName), e);
+            return false;
+        } finally {
+            pool.invalidate(queueName);
+            lease.close();
+        }
+    }
+
+    /**
+     * Forgets cached topology of queue, so that it is declared next time.
+     *
+     * @param queueName
+     *            the queue name.
+     */
+    public void invalidate(String queueName) {
+        declared.remove(queueName);
+    }
+}
@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.consumers;
+
+/**
+ * A handle to acknowledge consumed message.
+ *
+ * Listener receives this with message and settles it after processing.
+ * All methods are safe to call from any thread. Only the first call settles
+ * message, so the subsequent calls are ignored.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public interface Acknowledgement {
+
+    /**
+     * Acknowledges message.
+     */
+    void ack();
+
+    /**
+     * Negatively acknowledges message.
+     *
+     * @param requeue true if message should be requeued.
+     */
+    void nack(boolean requeue);
+
+    /**
+     * Rejects message. Message is not requeued.
+     */
+    void reject();
+
+    /**
+     * Gets whether this handle is already settled or not.
+     *
+     * @return true if already settled.
+     */
+    boolean isSettled();
+}
@@ -0,0 +1,198 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.consumers;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import net.sf.json.JSON;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Payload of consumed message shared by all listeners which receive it.
+ *
+ * Decoded forms are computed lazily by {@link PayloadCodec} at the first request
+ * and cached, so the same body is never decoded twice for a delivery.
+ * Returned objects are shared with other listeners, so do not modify them.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class Payload {
+
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+    private final String contentType;
+    private final Map<String, Object> headers;
+    private final byte[] body;
+    private final Map<PayloadCodec<?>, Object> decoded = new HashMap<PayloadCodec<?>, Object>();
+    private String mimeType;
+    private Charset charset;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param contentType
+     *            the type of content.
+     * @param headers
+     *            the map of headers.
+     * @param body
+     *            the message body.
+     */
+    public Payload(String contentType, Map<String, Object> headers, byte[] body) {
+        this.contentType = contentType;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Gets type of content.
+     *
+     * @return the content type. may be null.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Gets MIME type of content without parameters.
+     *
+     * @return the MIME type in lower case. empty if content type is not set.
+     */
+    public synchronized String getMimeType() {
+        if (mimeType == null) {
+            mimeType = StringUtils.lowerCase(StringUtils.trimToEmpty(
+                    StringUtils.substringBefore(contentType, ";")));
+        }
+        return mimeType;
+    }
+
+    /**
+     * Gets charset of content. UTF-8 is used if it is not specified.
+     *
+     * @return the charset.
+     */
+    public synchronized Charset getCharset() {
+        if (charset == null) {
+            charset = DEFAULT_CHARSET;
+            if (contentType != null) {
+                for (String param : StringUtils.split(contentType, ';')) {
+                    String name = StringUtils.trim(StringUtils.substringBefore(param, "="));
+                    if ("charset".equalsIgnoreCase(name)) {
+                        String value = StringUtils.strip(StringUtils.substringAfter(param, "="), " \"");
+                        try {
+                            charset = Charset.forName(value);
+                        } catch (IllegalCharsetNameException e) {
+                            charset = DEFAULT_CHARSET;
+                        } catch (UnsupportedCharsetException e) {
+                            charset = DEFAULT_CHARSET;
+                        }
+                    }
+                }
+            }
+        }
+        return charset;
+    }
+
+    /**
+     * Gets map of headers.
+     *
+     * @return the map of headers. may be null.
+     */
+    public Map<String, Object> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets raw body. This is not copied.
+     *
+     * @return the body.
+     */
+    public byte[] getBytes() {
+        return body;
+    }
+
+    /**
+     * Gets body decoded by specified codec.
+     *
+     * @param <T>
+     *            the type of decoded object.
+     * @param codec
+     *            the codec.
+     * @return the decoded object.
+     * @throws RuntimeException
+     *             throw if body cannot be decoded. Same exception is thrown at each call.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(PayloadCodec<T> codec) {
+        Object value;
+        synchronized (decoded) {
+            value = decoded.get(codec);
+            if (value == null) {
+                try {
+                    value = codec.decode(this);
+                } catch (RuntimeException e) {
+                    value = new Failure(e);
+                }
+                decoded.put(codec, value);
+            }
+        }
+        if (value instanceof Failure) {
+            throw ((Failure) value).cause;
+        }
+        return (T) value;
+    }
+
+    /**
+     * Gets body decoded by codec for its content type.
+     *
+     * @return the decoded object. raw body if there is no codec for content type.
+     */
+    public Object getDecoded() {
+        PayloadCodec<?> codec = PayloadCodec.forMimeType(getMimeType());
+        if (codec == null) {
+            return body;
+        }
+        return get(codec);
+    }
+
+    /**
+     * Gets body as text.
+     *
+     * @return the text.
+     */
+    public String getText() {
+        return get(PayloadCodec.TEXT);
+    }
+
+    /**
+     * Gets body as JSON.
+     *
+     * @return the JSON object or array.
+     */
+    public JSON getJson() {
+        return get(PayloadCodec.JSON);
+    }
+
+    /**
+     * Gets body as properties.
+     *
+     * @return the properties.
+     */
+    public Properties getProperties() {
+        return get(PayloadCodec.PROPERTIES);
+    }
+
+    /**
+     * Holder of decode failure.
+     */
+    private static final class Failure {
+        private final RuntimeException cause;
+
+        Failure(RuntimeException cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.consumers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONSerializer;
+
+/**
+ * Codec which decodes message body.
+ *
+ * Decoded object is cached in {@link Payload}, so codec is called at most once per delivery.
+ * Codec for content type is looked up from registered codecs. Codecs registered
+ * by {@link #register(PayloadCodec)} take priority over built-in ones.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ * @param <T>
+ *            the type of decoded object.
+ */
+public abstract class PayloadCodec<T> {
+
+    /**
+     * Codec for text. Charset in content type is used, or UTF-8 if not specified.
+     */
+    public static final PayloadCodec<String> TEXT = new PayloadCodec<String>() {
+        @Override
+        public boolean isApplicable(String mimeType) {
+            return mimeType.startsWith("text/");
+        }
+
+        @Override
+        public String decode(Payload payload) {
+            return new String(payload.getBytes(), payload.getCharset());
+        }
+    };
+
+    /**
+     * Codec for JSON. Text decoded by {@link #TEXT} is reused.
+     */
+    public static final PayloadCodec<JSON> JSON = new PayloadCodec<JSON>() {
+        @Override
+        public boolean isApplicable(String mimeType) {
+            return "application/json".equals(mimeType) || mimeType.endsWith("+json");
+        }
+
+        @Override
+        public JSON decode(Payload payload) {
+            return JSONSerializer.toJSON(payload.getText());
+        }
+    };
+
+    /**
+     * Codec for Java properties. Body is read without copying.
+     */
+    public static final PayloadCodec<Properties> PROPERTIES = new PayloadCodec<Properties>() {
+        @Override
+        public boolean isApplicable(String mimeType) {
+            return "text/x-java-properties".equals(mimeType)
+                    || "application/x-java-properties".equals(mimeType);
+        }
+
+        @Override
+        public Properties decode(Payload payload) {
+            Properties props = new Properties();
+            try {
+                props.load(new InputStreamReader(new ByteArrayInputStream(payload.getBytes()),
+                        payload.getCharset()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid properties", e);
+            }
+            return props;
+        }
+    };
+
+    private static final List<PayloadCodec<?>> CODECS = new CopyOnWriteArrayList<PayloadCodec<?>>();
+
+    static {
+        CODECS.add(PROPERTIES);
+        CODECS.add(JSON);
+        CODECS.add(TEXT);
+    }
+
+    /**
+     * Gets whether this codec is applicable for MIME type or not.
+     *
+     * @param mimeType
+     *            the MIME type in lower case without parameters.
+     * @return true if applicable.
+     */
+    public abstract boolean isApplicable(String mimeType);
+
+    /**
+     * Decodes body of payload.
+     *
+     * @param payload
+     *            the payload.
+     * @return the decoded object.
+     * @throws RuntimeException
+     *             throw if body cannot be decoded.
+     */
+    public abstract T decode(Payload payload);
+
+    /**
+     * Registers codec. Registered codec takes priority over existing ones.
+     *
+     * @param codec
+     *            the codec.
+     */
+    public static void register(PayloadCodec<?> codec) {
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * Unregisters codec.
+     *
+     * @param codec
+     *            the codec.
+     */
+    public static void unregister(PayloadCodec<?> codec) {
+        CODECS.remove(codec);
+    }
+
+    /**
+     * Gets codec for MIME type.
+     *
+     * @param mimeType
+     *            the MIME type in lower case without parameters.
+     * @return the codec. null if not found.
+     */
+    public static PayloadCodec<?> forMimeType(String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        for (PayloadCodec<?> codec : CODECS) {
+            if (codec.isApplicable(mimeType)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
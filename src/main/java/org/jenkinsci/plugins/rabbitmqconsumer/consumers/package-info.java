@@ -0,0 +1,5 @@
+/**
+  * Consumer interface package.
+  *
+  */
+package org.jenkinsci.plugins.rabbitmqconsumer.consumers;
@@ -2,12 +2,17 @@ package org.jenkinsci.plugins.rabbitmqconsumer.extensions;
 
 import java.util.HashSet;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import hudson.ExtensionList;
 import hudson.ExtensionPoint;
 import jenkins.model.Jenkins;
 
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+
 /**
  * Listener for message queue.
  *
@@ -58,6 +63,54 @@ public abstract class MessageQueueListener implements ExtensionPoint {
      */
     public abstract void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body);
 
+    /**
+     * Calls when message arrives with acknowledgement handle.
+     *
+     * Override this if you want to process message asynchronously.
+     * Message is not acknowledged to broker until given handle is settled,
+     * so you can hand it to other thread and settle it from there.
+     * Unsettled handle is requeued after timeout.
+     *
+     * Default implementation calls
+     * {@link #onReceive(String, String, Map, byte[])} then acknowledges.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param contentType
+     *            the type of content.
+     * @param headers
+     *            the map of headers.
+     * @param body
+     *            the content of message.
+     * @param acknowledgement
+     *            the acknowledgement handle.
+     */
+    public void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body,
+            Acknowledgement acknowledgement) {
+        onReceive(queueName, contentType, headers, body);
+        acknowledgement.ack();
+    }
+
+    /**
+     * Calls when message arrives with shared payload and acknowledgement handle.
+     *
+     * Override this if you want to use decoded body such as {@link Payload#getJson()}.
+     * Decoded body is computed once per message and shared with other listeners.
+     *
+     * Default implementation calls
+     * {@link #onReceive(String, String, Map, byte[], Acknowledgement)}.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param payload
+     *            the payload of message.
+     * @param acknowledgement
+     *            the acknowledgement handle.
+     */
+    public void onReceive(String queueName, Payload payload, Acknowledgement acknowledgement) {
+        onReceive(queueName, payload.getContentType(), payload.getHeaders(), payload.getBytes(), acknowledgement);
+    }
+
     /**
      * Fires OnReceive event.
      *
@@ -85,6 +138,65 @@ public abstract class MessageQueueListener implements ExtensionPoint {
         }
     }
 
+    /**
+     * Fires OnReceive event with acknowledgement.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param contentType
+     *            the type of content.
+     * @param headers
+     *            the map of headers.
+     * @param body
+     *            the message body.
+     * @param acknowledgement
+     *            the acknowledgement for delivery.
+     */
+    public static void fireOnReceive(String appId,
+            String queueName,
+            String contentType,
+            Map<String, Object> headers,
+            byte[] body,
+            DeliveryAcknowledgement acknowledgement) {
+        fireOnReceive(appId, queueName, new Payload(contentType, headers, body), acknowledgement);
+    }
+
+    /**
+     * Fires OnReceive event with payload and acknowledgement.
+     * All listeners share given payload, and each listener receives
+     * its own part of given acknowledgement.
+     * If listener throws exception, its part is marked as failed
+     * and delivery is retried later.
+     *
+     * @param appId
+     *            the application id.
+     * @param queueName
+     *            the queue name.
+     * @param payload
+     *            the payload of message.
+     * @param acknowledgement
+     *            the acknowledgement for delivery.
+     */
+    public static void fireOnReceive(String appId,
+            String queueName,
+            Payload payload,
+            DeliveryAcknowledgement acknowledgement) {
+        LOGGER.entering("MessageQueueListener", "fireOnReceive");
+        for (MessageQueueListener l : all()) {
+            if (appId.equals(l.getAppId())) {
+                Acknowledgement part = acknowledgement.createPart();
+                try {
+                    l.onReceive(queueName, payload, part);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "caught exception in listener: " + l.getName(), e);
+                    acknowledgement.fail(part, e);
+                }
+            }
+        }
+    }
+
     /**
      * Fires OnBind event.
      *
@@ -2,13 +2,26 @@ package org.jenkinsci.plugins.rabbitmqconsumer.extensions;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
 import hudson.ExtensionList;
+import hudson.util.DaemonThreadFactory;
 
 import org.apache.tools.ant.ExtensionPoint;
 import org.jenkinsci.plugins.rabbitmqconsumer.RMQConnection;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ChannelLease;
 
 import com.rabbitmq.client.Channel;
 
@@ -20,6 +33,8 @@ import com.rabbitmq.client.Channel;
 public abstract class ServerOperator extends ExtensionPoint {
 
     private static final Logger LOGGER = Logger.getLogger(ServerOperator.class.toString());
+    private static final int MAX_PARALLEL_OPERATORS = 4;
+    private static final long TIMEOUT_OPERATOR_MILLIS = 30000;
 
     /**
      * Calls when channel is opened.
@@ -41,6 +56,17 @@ public abstract class ServerOperator extends ExtensionPoint {
      */
     public abstract void OnCloseCompleted(String seviceUri);
 
+    /**
+     * Gets whether this operator is independent of other operators.
+     * Independent operators are called in parallel on connection open.
+     * Others are called in order.
+     *
+     * @return true if this operator can be called in parallel.
+     */
+    public boolean isIndependent() {
+        return false;
+    }
+
     /**
      * Fires OnOpen event.
      *
@@ -49,19 +75,116 @@ public abstract class ServerOperator extends ExtensionPoint {
      * @throws IOException if ControlRMQChannel has somthing wrong.
      */
     public static void fireOnOpen(RMQConnection rmqConnection) {
+        fireOnOpen(rmqConnection, all());
+    }
+
+    /**
+     * Fires OnOpen event to specified operators.
+     * Control channels are leased from connection. Sequential operators share
+     * a channel, but it is closed after operators are called instead of being
+     * returned to pool, because operators may change its state.
+     * This returns after all operators are called.
+     *
+     * @param rmqConnection
+     *            the connection.
+     * @param operators
+     *            the operators.
+     */
+    public static void fireOnOpen(final RMQConnection rmqConnection, Collection<ServerOperator> operators) {
         LOGGER.entering("ServerOperator", "fireOnOpen");
-        if (rmqConnection.getConnection() != null) {
-            for (ServerOperator l : all()) {
+        if (rmqConnection.getConnection() == null) {
+            return;
+        }
+
+        List<ServerOperator> sequential = new ArrayList<ServerOperator>();
+        List<Callable<Void>> parallel = new ArrayList<Callable<Void>>();
+        for (final ServerOperator l : operators) {
+            if (l.isIndependent()) {
+                parallel.add(new Callable<Void>() {
+                    public Void call() {
+                        ChannelLease lease = rmqConnection.leaseChannel();
+                        if (lease != null) {
+                            try {
+                                callOnOpen(l, lease, rmqConnection.getServiceUri());
+                            } finally {
+                                lease.discard();
+                            }
+                        }
+                        return null;
+                    }
+                });
+            } else {
+                sequential.add(l);
+            }
+        }
+
+        ExecutorService executor = null;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        if (!parallel.isEmpty()) {
+            executor = Executors.newFixedThreadPool(Math.min(parallel.size(), MAX_PARALLEL_OPERATORS),
+                    new DaemonThreadFactory());
+            for (Callable<Void> task : parallel) {
+                futures.add(executor.submit(task));
+            }
+        }
+
+        try {
+            ChannelLease lease = null;
+            try {
+                for (ServerOperator l : sequential) {
+                    if (lease == null || !lease.getChannel().isOpen()) {
+                        if (lease != null) {
+                            lease.discard();
+                        }
+                        lease = rmqConnection.leaseChannel();
+                        if (lease == null) {
+                            break;
+                        }
+                    }
+                    callOnOpen(l, lease, rmqConnection.getServiceUri());
+                }
+            } finally {
+                if (lease != null) {
+                    lease.discard();
+                }
+            }
+
+            for (Future<Void> f : futures) {
                 try {
-                    Channel ch = rmqConnection.getConnection().createChannel();
-                    l.OnOpen(ch, rmqConnection.getServiceUri());
-                    ch.close();
-                } catch (Exception ex) {
-                    LOGGER.warning(MessageFormat.format(
-                            "Caught exception from {0}#OnOpen().",
-                            l.getClass().getSimpleName()));
+                    f.get(TIMEOUT_OPERATOR_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    LOGGER.warning("ServerOperator#OnOpen() does not finish within timeout.");
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception from ServerOperator#OnOpen().", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Calls OnOpen of operator with leased channel.
+     *
+     * @param operator
+     *            the operator.
+     * @param lease
+     *            the lease of control channel.
+     * @param serviceUri
+     *            the service URI.
+     */
+    private static void callOnOpen(ServerOperator operator, ChannelLease lease, String serviceUri) {
+        try {
+            operator.OnOpen(lease.getChannel(), serviceUri);
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, MessageFormat.format(
+                    "Caught exception from {0}#OnOpen().",
+                    operator.getClass().getSimpleName()), ex);
         }
     }
 
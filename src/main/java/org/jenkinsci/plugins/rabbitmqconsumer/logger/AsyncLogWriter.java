@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.logger;
+
+import java.text.MessageFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writer which logs records on its own thread.
+ *
+ * Records are held in bounded buffer. If buffer is full, record is dropped
+ * instead of blocking caller. The number of dropped records is logged later.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class AsyncLogWriter {
+
+    private final Logger logger;
+    private final BlockingQueue<String> buffer;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private long reportedDroppedCount = 0;
+    private Thread writerThread;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param logger
+     *            the logger which records are written to.
+     * @param capacity
+     *            the capacity of buffer.
+     */
+    public AsyncLogWriter(Logger logger, int capacity) {
+        this.logger = logger;
+        this.buffer = new ArrayBlockingQueue<String>(capacity);
+    }
+
+    /**
+     * Writes record. This never blocks.
+     *
+     * @param record
+     *            the record.
+     * @return true if record is accepted. false if dropped.
+     */
+    public boolean write(String record) {
+        ensureStarted();
+        if (buffer.offer(record)) {
+            return true;
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the number of dropped records.
+     *
+     * @return the number of dropped records.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Starts writer thread if not started.
+     */
+    private synchronized void ensureStarted() {
+        if (writerThread == null) {
+            writerThread = new Thread(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, "RabbitMQ Consumer message logger");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Writes buffered records.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                String record = buffer.take();
+                long dropped = droppedCount.get();
+                if (dropped != reportedDroppedCount) {
+                    logger.warning(MessageFormat.format("Dropped {0} messages from log.",
+                            dropped - reportedDroppedCount));
+                    reportedDroppedCount = dropped;
+                }
+                logger.info(record);
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Message logger is interrupted.", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.logger;
+
+/**
+ * Sampler which decides whether message is logged or not.
+ *
+ * Message is sampled one in every N messages, then limited to max number per second.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class LogSampler {
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    private long count = 0;
+    private long windowStart = 0;
+    private int windowCount = 0;
+
+    /**
+     * Decides whether message is logged or not.
+     *
+     * @param interval
+     *            the interval of sampling. 1 or less samples all messages.
+     * @param maxPerSecond
+     *            the max number of messages per second. 0 or less means unlimited.
+     * @return true if message should be logged.
+     */
+    public boolean sample(int interval, int maxPerSecond) {
+        return sample(interval, maxPerSecond, System.currentTimeMillis());
+    }
+
+    /**
+     * Decides whether message is logged or not at specified time.
+     *
+     * @param interval
+     *            the interval of sampling. 1 or less samples all messages.
+     * @param maxPerSecond
+     *            the max number of messages per second. 0 or less means unlimited.
+     * @param now
+     *            the current time in millis.
+     * @return true if message should be logged.
+     */
+    public synchronized boolean sample(int interval, int maxPerSecond, long now) {
+        if (interval > 1 && count++ % interval != 0) {
+            return false;
+        }
+        if (maxPerSecond > 0) {
+            if (now - windowStart >= WINDOW_MILLIS) {
+                windowStart = now;
+                windowCount = 0;
+            }
+            if (windowCount >= maxPerSecond) {
+                return false;
+            }
+            windowCount++;
+        }
+        return true;
+    }
+}
@@ -2,22 +2,35 @@ package org.jenkinsci.plugins.rabbitmqconsumer.logger;
 
 import hudson.Extension;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Map;
 import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.rabbitmqconsumer.GlobalRabbitmqConfiguration;
 import org.jenkinsci.plugins.rabbitmqconsumer.RabbitmqConsumeItem;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
 
 /**
  * Extension for logging messages. This is debug purpose.
  *
+ * Messages are sampled and written on other thread, so that logging does not
+ * slow down consumer. Messages are dropped if writer cannot catch up.
+ *
  * @author rinrinne a.k.a. rin_ne
  */
 @Extension
 public class MessageLogger extends MessageQueueListener {
     private static final Logger LOGGER = Logger.getLogger(MessageLogger.class.getName());
     private static final String PLUGIN_NAME = "Message Logger for debug";
+    private static final int BUFFER_SIZE = 1024;
+
+    private final LogSampler sampler = new LogSampler();
+    private final AsyncLogWriter writer = new AsyncLogWriter(LOGGER, BUFFER_SIZE);
 
     /**
      * @inheritDoc
@@ -61,12 +74,68 @@ public class MessageLogger extends MessageQueueListener {
      *            the content of message.
      */
     public void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body) {
-        String msg;
-        try {
-            msg = new String(body, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            msg = "<Unsupported Encoding>";
+        log(new Payload(contentType, headers, body));
+    }
+
+    /**
+     * @inheritDoc
+     * @param queueName
+     *            the queue name that receive from.
+     * @param payload
+     *            the payload of message.
+     * @param acknowledgement
+     *            the acknowledgement handle.
+     */
+    @Override
+    public void onReceive(String queueName, Payload payload, Acknowledgement acknowledgement) {
+        acknowledgement.ack();
+        log(payload);
+    }
+
+    /**
+     * Logs payload if it is sampled.
+     *
+     * @param payload
+     *            the payload.
+     */
+    private void log(Payload payload) {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        if (!sampler.sample(conf.getDebugSampleInterval(), conf.getDebugMaxPerSecond())) {
+            return;
+        }
+        writer.write("Receive: (" + payload.getContentType() + ") "
+                + createPreview(payload, conf.getDebugPreviewLength()));
+    }
+
+    /**
+     * Creates preview of body. Only the head of body is decoded, and decoding
+     * stops at character boundary so that multi-byte character is not split.
+     *
+     * @param payload
+     *            the payload.
+     * @param maxLength
+     *            the max number of characters. 0 or less means unlimited.
+     * @return the preview.
+     */
+    static String createPreview(Payload payload, int maxLength) {
+        byte[] body = payload.getBytes();
+        if (body == null) {
+            return "";
+        }
+        if (maxLength <= 0 || body.length <= maxLength) {
+            // one character takes at least one byte.
+            return new String(body, payload.getCharset());
+        }
+        CharsetDecoder decoder = payload.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = ByteBuffer.wrap(body);
+        CharBuffer head = CharBuffer.allocate(maxLength);
+        decoder.decode(in, head, true);
+        if (!in.hasRemaining()) {
+            return new String(body, payload.getCharset());
         }
-        LOGGER.info("Receive: (" + contentType + ") " + msg);
+        head.flip();
+        return head.toString() + "... (" + body.length + " bytes)";
     }
 }
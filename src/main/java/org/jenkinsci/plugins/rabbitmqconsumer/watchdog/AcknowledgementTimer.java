@@ -0,0 +1,30 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQManager;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+/**
+ * Timer class to expire unsettled acknowledgements.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+@Extension
+public class AcknowledgementTimer extends PeriodicWork {
+
+    private static final long RECCURENCE_TIME = 60000;
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECCURENCE_TIME;
+    }
+
+    @Override
+    protected void doRun() {
+        for (ConsumeRMQChannel ch : RMQManager.getInstance().getConsumeChannels()) {
+            ch.expireAcknowledgements();
+        }
+    }
+}
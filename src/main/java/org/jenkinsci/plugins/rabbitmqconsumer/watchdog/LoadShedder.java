@@ -0,0 +1,113 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import java.text.MessageFormat;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.GlobalRabbitmqConfiguration;
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQManager;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Watchdog class to pause consumers while Jenkins is overloaded.
+ *
+ * Consumers are paused when length of build queue or ratio of busy executors
+ * reaches its high threshold, and resumed only after both go down to their
+ * low thresholds. Messages stay in broker while consumers are paused.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+@Extension
+public class LoadShedder extends PeriodicWork {
+
+    private static final long RECCURENCE_TIME = 10000;
+    private static final Logger LOGGER = Logger.getLogger(LoadShedder.class.getName());
+
+    private boolean shedding = false;
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECCURENCE_TIME;
+    }
+
+    @Override
+    protected void doRun() {
+        GlobalRabbitmqConfiguration conf = GlobalRabbitmqConfiguration.get();
+        Jenkins jenkins = Jenkins.getInstance();
+        boolean shed = false;
+        if (conf.isEnableLoadShedding() && jenkins != null) {
+            int queueLength = jenkins.getQueue().getItems().length;
+            int busyRatio = getBusyExecutorRatio(jenkins);
+            shed = evaluate(queueLength, busyRatio,
+                    conf.getLoadSheddingQueueHigh(), conf.getLoadSheddingQueueLow(),
+                    conf.getLoadSheddingExecutorHigh(), conf.getLoadSheddingExecutorLow());
+        } else {
+            shedding = false;
+        }
+        RMQManager manager = RMQManager.getInstance();
+        if (manager.isLoadShed() != shed) {
+            manager.setLoadShed(shed);
+        }
+    }
+
+    /**
+     * Gets ratio of busy executors in online computers.
+     *
+     * @param jenkins
+     *            the Jenkins instance.
+     * @return the ratio in percent. 0 if there is no executor.
+     */
+    private static int getBusyExecutorRatio(Jenkins jenkins) {
+        int total = 0;
+        int busy = 0;
+        for (Computer c : jenkins.getComputers()) {
+            if (c.isOnline()) {
+                total += c.countExecutors();
+                busy += c.countBusy();
+            }
+        }
+        return total > 0 ? busy * 100 / total : 0;
+    }
+
+    /**
+     * Evaluates load with hysteresis.
+     *
+     * @param queueLength
+     *            the number of items in build queue.
+     * @param busyRatio
+     *            the ratio of busy executors in percent.
+     * @param queueHigh
+     *            the length of build queue to start shedding.
+     * @param queueLow
+     *            the length of build queue to stop shedding.
+     * @param executorHigh
+     *            the ratio of busy executors to start shedding. 0 means it is not checked.
+     * @param executorLow
+     *            the ratio of busy executors to stop shedding.
+     * @return true if consumers should be paused.
+     */
+    synchronized boolean evaluate(int queueLength, int busyRatio,
+            int queueHigh, int queueLow, int executorHigh, int executorLow) {
+        boolean checkExecutor = executorHigh > 0;
+        if (!shedding) {
+            if (queueLength >= queueHigh || (checkExecutor && busyRatio >= executorHigh)) {
+                shedding = true;
+                LOGGER.warning(MessageFormat.format(
+                        "Pause consumers by load: build queue {0}, busy executors {1}%.",
+                        queueLength, busyRatio));
+            }
+        } else {
+            if (queueLength <= queueLow && (!checkExecutor || busyRatio <= executorLow)) {
+                shedding = false;
+                LOGGER.info(MessageFormat.format(
+                        "Resume consumers by load: build queue {0}, busy executors {1}%.",
+                        queueLength, busyRatio));
+            }
+        }
+        return shedding;
+    }
+}
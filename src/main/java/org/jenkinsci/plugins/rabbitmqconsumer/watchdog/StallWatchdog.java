@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQManager;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ChannelLease;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+/**
+ * Watchdog class to restart consumers which stay started without deliveries
+ * while their queues have messages.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+@Extension
+public class StallWatchdog extends PeriodicWork {
+
+    private static final long RECCURENCE_TIME = 60000;
+    private static final Logger LOGGER = Logger.getLogger(StallWatchdog.class.getName());
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECCURENCE_TIME;
+    }
+
+    @Override
+    protected void doRun() {
+        RMQManager manager = RMQManager.getInstance();
+        Set<ConsumeRMQChannel> channels = manager.getConsumeChannels();
+        if (channels.isEmpty()) {
+            return;
+        }
+        ChannelLease lease = null;
+        try {
+            for (ConsumeRMQChannel ch : channels) {
+                if (!ch.isConsumeStarted()) {
+                    continue;
+                }
+                if (lease == null || !lease.getChannel().isOpen()) {
+                    if (lease != null) {
+                        lease.close();
+                    }
+                    lease = manager.leaseChannel();
+                    if (lease == null) {
+                        return;
+                    }
+                }
+                int readyCount;
+                try {
+                    readyCount = lease.getChannel().queueDeclarePassive(ch.getQueueName()).getMessageCount();
+                } catch (IOException e) {
+                    LOGGER.fine(MessageFormat.format("Cannot get depth of queue {0}.", ch.getQueueName()));
+                    continue;
+                }
+                if (ch.checkStalled(readyCount)) {
+                    ch.restart(MessageFormat.format("no delivery while {0} messages are ready.", readyCount));
+                }
+            }
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,1069 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.PossibleAuthenticationFailureException;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQImpl;
+
+/**
+ * In-process stand-in for RabbitMQ broker.
+ *
+ * This implements enough of {@link Connection} and {@link Channel} contract
+ * to run RMQConnection and its channels without network: queues, exchanges,
+ * bindings, basicConsume, basicAck/Nack/Reject, basicPublish, prefetch,
+ * publisher confirms, forced disconnects and connection blocking.
+ * Faults such as channel-level errors, slow channel creation and
+ * authentication failures can be injected as well.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FakeBroker {
+
+    private static final Logger LOGGER = Logger.getLogger(FakeBroker.class.getName());
+
+    /**
+     * Service URI that can be used with {@link #createConnectionFactory()}.
+     */
+    public static final String SERVICE_URI = "amqp://localhost";
+
+    private final Object lock = new Object();
+    private final Map<String, FakeQueue> queues = new LinkedHashMap<String, FakeQueue>();
+    private final Map<String, String> exchanges = new HashMap<String, String>();
+    private final List<Binding> bindings = new ArrayList<Binding>();
+    private final Set<FakeConnection> connections = new CopyOnWriteArraySet<FakeConnection>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong ackedCount = new AtomicLong();
+    private final AtomicLong redeliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong declaredCount = new AtomicLong();
+
+    private volatile long createChannelDelayMillis = 0;
+    private volatile boolean authFailure = false;
+    private volatile boolean confirmFailure = false;
+
+    /**
+     * Creates connection factory that connects to this broker.
+     *
+     * @return the connection factory.
+     */
+    public ConnectionFactory createConnectionFactory() {
+        return new FakeConnectionFactory();
+    }
+
+    /**
+     * Opens new connection to this broker.
+     *
+     * @return the connection.
+     * @throws IOException if authentication failure is injected.
+     */
+    public Connection connect() throws IOException {
+        if (authFailure) {
+            throw new PossibleAuthenticationFailureException(
+                    new IOException("ACCESS_REFUSED - Login was refused"));
+        }
+        FakeConnection conn = new FakeConnection(connectionCount.incrementAndGet());
+        connections.add(conn);
+        return conn.proxy;
+    }
+
+    /**
+     * Sets delay for each createChannel call.
+     *
+     * @param millis the delay in millis.
+     */
+    public void setCreateChannelDelay(long millis) {
+        this.createChannelDelayMillis = millis;
+    }
+
+    /**
+     * Sets whether new connection fails in authentication.
+     *
+     * @param authFailure true if authentication should fail.
+     */
+    public void setAuthFailure(boolean authFailure) {
+        this.authFailure = authFailure;
+    }
+
+    /**
+     * Sets whether waiting for publisher confirms fails as if broker nacked messages.
+     *
+     * @param confirmFailure true if confirms should fail.
+     */
+    public void setConfirmFailure(boolean confirmFailure) {
+        this.confirmFailure = confirmFailure;
+    }
+
+    /**
+     * Closes channels which consume specified queue as if channel-level error
+     * was occurred in broker.
+     *
+     * @param queueName the queue name.
+     */
+    public void injectChannelError(String queueName) {
+        List<FakeChannel> targets = new ArrayList<FakeChannel>();
+        synchronized (lock) {
+            FakeQueue q = queues.get(queueName);
+            if (q != null) {
+                for (ConsumerEntry c : q.consumers) {
+                    if (!targets.contains(c.channel)) {
+                        targets.add(c.channel);
+                    }
+                }
+            }
+        }
+        for (FakeChannel ch : targets) {
+            ch.shutdown(new ShutdownSignalException(false, false, null, ch.proxy));
+        }
+    }
+
+    /**
+     * Declares queue.
+     *
+     * @param name the queue name.
+     * @param arguments the queue arguments. may be null.
+     */
+    public void declareQueue(String name, Map<String, Object> arguments) {
+        synchronized (lock) {
+            if (!queues.containsKey(name)) {
+                queues.put(name, new FakeQueue(name, arguments));
+            }
+        }
+    }
+
+    /**
+     * Declares queue without arguments.
+     *
+     * @param name the queue name.
+     */
+    public void declareQueue(String name) {
+        declareQueue(name, null);
+    }
+
+    /**
+     * Deletes queue. Consumers on the queue are cancelled by broker.
+     *
+     * @param name the queue name.
+     */
+    public void deleteQueue(String name) {
+        FakeQueue queue;
+        synchronized (lock) {
+            queue = queues.remove(name);
+        }
+        if (queue != null) {
+            queue.cancelConsumers();
+        }
+    }
+
+    /**
+     * Cancels all consumers on specified queue from broker side.
+     *
+     * @param name the queue name.
+     */
+    public void cancelConsumers(String name) {
+        FakeQueue queue;
+        synchronized (lock) {
+            queue = queues.get(name);
+        }
+        if (queue != null) {
+            queue.cancelConsumers();
+        }
+    }
+
+    /**
+     * Publishes message from outside of any connections.
+     *
+     * @param exchange the exchange name.
+     * @param routingKey the routing key.
+     * @param props the properties.
+     * @param body the body.
+     */
+    public void publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        route(exchange, routingKey, props, body);
+    }
+
+    /**
+     * Drops all connections as if network was suddenly disconnected.
+     */
+    public void disconnectAll() {
+        for (FakeConnection c : connections) {
+            c.shutdown(false);
+        }
+    }
+
+    /**
+     * Blocks all connections as if memory or disk alarm was raised.
+     *
+     * @param reason the reason sent to connections.
+     */
+    public void blockAll(String reason) {
+        for (FakeConnection c : connections) {
+            for (BlockedListener l : c.blockedListeners) {
+                try {
+                    l.handleBlocked(reason);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception in blocked listener.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unblocks all connections as if alarm was cleared.
+     */
+    public void unblockAll() {
+        for (FakeConnection c : connections) {
+            for (BlockedListener l : c.blockedListeners) {
+                try {
+                    l.handleUnblocked();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception in blocked listener.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of ready messages in queue.
+     *
+     * @param name the queue name.
+     * @return the number of messages. -1 if queue does not exist.
+     */
+    public int getQueueDepth(String name) {
+        synchronized (lock) {
+            FakeQueue q = queues.get(name);
+            return q == null ? -1 : q.messages.size();
+        }
+    }
+
+    /**
+     * Gets the number of unacknowledged messages in queue.
+     *
+     * @param name the queue name.
+     * @return the number of messages.
+     */
+    public int getUnackedCount(String name) {
+        synchronized (lock) {
+            FakeQueue q = queues.get(name);
+            if (q == null) {
+                return 0;
+            }
+            int count = 0;
+            for (ConsumerEntry c : q.consumers) {
+                count += c.unacked;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Gets the number of consumers on queue.
+     *
+     * @param name the queue name.
+     * @return the number of consumers.
+     */
+    public int getConsumerCount(String name) {
+        synchronized (lock) {
+            FakeQueue q = queues.get(name);
+            return q == null ? 0 : q.consumers.size();
+        }
+    }
+
+    /**
+     * Gets the number of open connections.
+     *
+     * @return the number of connections.
+     */
+    public int getOpenConnectionCount() {
+        return connections.size();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getAckedCount() {
+        return ackedCount.get();
+    }
+
+    public long getRedeliveredCount() {
+        return redeliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of queueDeclare calls from clients.
+     *
+     * @return the number of calls.
+     */
+    public long getDeclaredCount() {
+        return declaredCount.get();
+    }
+
+    /**
+     * Gets arguments of queue.
+     *
+     * @param name the queue name.
+     * @return the arguments. null if queue does not exist or has no arguments.
+     */
+    public Map<String, Object> getQueueArguments(String name) {
+        synchronized (lock) {
+            FakeQueue q = queues.get(name);
+            return q == null ? null : q.arguments;
+        }
+    }
+
+    /**
+     * Routes message to queues.
+     */
+    private void route(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        publishedCount.incrementAndGet();
+        synchronized (lock) {
+            List<FakeQueue> targets = new ArrayList<FakeQueue>();
+            if (exchange == null || exchange.length() == 0) {
+                FakeQueue q = queues.get(routingKey);
+                if (q != null) {
+                    targets.add(q);
+                }
+            } else {
+                String type = exchanges.get(exchange);
+                for (Binding b : bindings) {
+                    if (b.exchange.equals(exchange) && b.matches(type, routingKey, props)) {
+                        FakeQueue q = queues.get(b.queue);
+                        if (q != null && !targets.contains(q)) {
+                            targets.add(q);
+                        }
+                    }
+                }
+            }
+            if (targets.isEmpty()) {
+                droppedCount.incrementAndGet();
+            }
+            for (FakeQueue q : targets) {
+                q.messages.addLast(new Message(exchange, routingKey, props, body));
+                q.pump();
+            }
+        }
+    }
+
+    /**
+     * Pumps all queues.
+     */
+    private void pumpAll() {
+        synchronized (lock) {
+            for (FakeQueue q : queues.values()) {
+                q.pump();
+            }
+        }
+    }
+
+    /**
+     * Message in queue.
+     */
+    private static final class Message {
+        private final String exchange;
+        private final String routingKey;
+        private final AMQP.BasicProperties props;
+        private final byte[] body;
+        private boolean redelivered = false;
+
+        Message(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+            this.exchange = exchange == null ? "" : exchange;
+            this.routingKey = routingKey;
+            this.props = props;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Binding between exchange and queue.
+     */
+    private static final class Binding {
+        private final String exchange;
+        private final String queue;
+        private final String routingKey;
+        private final Map<String, Object> arguments;
+
+        Binding(String exchange, String queue, String routingKey, Map<String, Object> arguments) {
+            this.exchange = exchange;
+            this.queue = queue;
+            this.routingKey = routingKey;
+            this.arguments = arguments;
+        }
+
+        boolean matches(String type, String key, AMQP.BasicProperties props) {
+            if ("fanout".equals(type)) {
+                return true;
+            }
+            if ("headers".equals(type)) {
+                return matchHeaders(props);
+            }
+            if ("topic".equals(type) && "#".equals(routingKey)) {
+                return true;
+            }
+            return routingKey != null && routingKey.equals(key);
+        }
+
+        private boolean matchHeaders(AMQP.BasicProperties props) {
+            if (arguments == null || arguments.isEmpty()) {
+                return true;
+            }
+            Map<String, Object> headers = props == null ? null : props.getHeaders();
+            boolean any = "any".equals(String.valueOf(arguments.get("x-match")));
+            int matched = 0;
+            int required = 0;
+            for (Map.Entry<String, Object> e : arguments.entrySet()) {
+                if (e.getKey().startsWith("x-")) {
+                    continue;
+                }
+                required++;
+                Object value = headers == null ? null : headers.get(e.getKey());
+                if (value != null && String.valueOf(value).equals(String.valueOf(e.getValue()))) {
+                    matched++;
+                }
+            }
+            return any ? matched > 0 : matched == required;
+        }
+    }
+
+    /**
+     * Consumer registered on queue.
+     */
+    private static final class ConsumerEntry {
+        private final FakeChannel channel;
+        private final String tag;
+        private final Consumer consumer;
+        private final boolean autoAck;
+        private int unacked = 0;
+
+        ConsumerEntry(FakeChannel channel, String tag, Consumer consumer, boolean autoAck) {
+            this.channel = channel;
+            this.tag = tag;
+            this.consumer = consumer;
+            this.autoAck = autoAck;
+        }
+
+        boolean hasCapacity() {
+            return channel.prefetch == 0 || unacked < channel.prefetch;
+        }
+    }
+
+    /**
+     * Unacknowledged delivery.
+     */
+    private static final class Unacked {
+        private final FakeQueue queue;
+        private final ConsumerEntry consumer;
+        private final Message message;
+
+        Unacked(FakeQueue queue, ConsumerEntry consumer, Message message) {
+            this.queue = queue;
+            this.consumer = consumer;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Queue in broker.
+     */
+    private final class FakeQueue {
+        private final String name;
+        private final Map<String, Object> arguments;
+        private final LinkedList<Message> messages = new LinkedList<Message>();
+        private final List<ConsumerEntry> consumers = new ArrayList<ConsumerEntry>();
+        private int roundRobin = 0;
+
+        FakeQueue(String name, Map<String, Object> arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        boolean isSingleActiveConsumer() {
+            return arguments != null && Boolean.TRUE.equals(arguments.get("x-single-active-consumer"));
+        }
+
+        boolean hasExclusiveConsumer() {
+            for (ConsumerEntry c : consumers) {
+                if (c.channel.exclusiveTags.contains(c.tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        ConsumerEntry nextConsumer() {
+            if (consumers.isEmpty()) {
+                return null;
+            }
+            if (isSingleActiveConsumer()) {
+                ConsumerEntry active = consumers.get(0);
+                return active.hasCapacity() ? active : null;
+            }
+            for (int i = 0; i < consumers.size(); i++) {
+                ConsumerEntry c = consumers.get((roundRobin + i) % consumers.size());
+                if (c.hasCapacity()) {
+                    roundRobin = (roundRobin + i + 1) % consumers.size();
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        void pump() {
+            while (!messages.isEmpty()) {
+                ConsumerEntry c = nextConsumer();
+                if (c == null) {
+                    break;
+                }
+                c.channel.deliver(this, c, messages.removeFirst());
+            }
+        }
+
+        void requeue(Message m) {
+            m.redelivered = true;
+            redeliveredCount.incrementAndGet();
+            messages.addFirst(m);
+        }
+
+        void deadLetter(Message m) {
+            Object dlx = arguments == null ? null : arguments.get("x-dead-letter-exchange");
+            if (dlx == null) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            Object dlk = arguments.get("x-dead-letter-routing-key");
+            route(String.valueOf(dlx), dlk == null ? m.routingKey : String.valueOf(dlk), m.props, m.body);
+        }
+
+        void cancelConsumers() {
+            List<ConsumerEntry> cancelled;
+            synchronized (lock) {
+                cancelled = new ArrayList<ConsumerEntry>(consumers);
+                consumers.clear();
+            }
+            for (ConsumerEntry c : cancelled) {
+                c.channel.notifyCancel(c);
+            }
+        }
+    }
+
+    /**
+     * Connection factory for this broker.
+     */
+    private final class FakeConnectionFactory extends ConnectionFactory {
+        @Override
+        public Connection newConnection() throws IOException {
+            return connect();
+        }
+    }
+
+    /**
+     * Creates daemon thread factory.
+     */
+    private static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Handler for {@link Connection} proxy.
+     */
+    private final class FakeConnection implements InvocationHandler {
+        private final int number;
+        private final Connection proxy;
+        private final Map<Integer, FakeChannel> channels = new TreeMap<Integer, FakeChannel>();
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<ShutdownListener>();
+        private final List<BlockedListener> blockedListeners = new CopyOnWriteArrayList<BlockedListener>();
+        private volatile boolean open = true;
+        private volatile ShutdownSignalException closeReason = null;
+        private int nextChannelNumber = 1;
+
+        FakeConnection(int number) {
+            this.number = number;
+            this.proxy = (Connection) Proxy.newProxyInstance(FakeBroker.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, this);
+        }
+
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(p);
+            } else if ("equals".equals(name)) {
+                return p == args[0];
+            } else if ("toString".equals(name)) {
+                return "FakeConnection(" + number + ")";
+            } else if ("isOpen".equals(name)) {
+                return open;
+            } else if ("getCloseReason".equals(name)) {
+                return closeReason;
+            } else if ("addShutdownListener".equals(name)) {
+                shutdownListeners.add((ShutdownListener) args[0]);
+                return null;
+            } else if ("removeShutdownListener".equals(name)) {
+                shutdownListeners.remove(args[0]);
+                return null;
+            } else if ("addBlockedListener".equals(name)) {
+                blockedListeners.add((BlockedListener) args[0]);
+                return null;
+            } else if ("removeBlockedListener".equals(name)) {
+                return blockedListeners.remove(args[0]);
+            } else if ("clearBlockedListeners".equals(name)) {
+                blockedListeners.clear();
+                return null;
+            } else if ("createChannel".equals(name)) {
+                if (createChannelDelayMillis > 0) {
+                    Thread.sleep(createChannelDelayMillis);
+                }
+                if (!open) {
+                    throw new IOException("Connection is already closed.");
+                }
+                return createChannel().proxy;
+            } else if ("close".equals(name) || "abort".equals(name)) {
+                if (open) {
+                    shutdown(true);
+                } else if ("close".equals(name)) {
+                    throw new IOException(closeReason);
+                }
+                return null;
+            } else if ("getServerProperties".equals(name) || "getClientProperties".equals(name)) {
+                return Collections.<String, Object>emptyMap();
+            } else if ("getPort".equals(name)) {
+                return 5672;
+            } else if ("getChannelMax".equals(name) || "getFrameMax".equals(name) || "getHeartbeat".equals(name)) {
+                return 0;
+            }
+            throw new UnsupportedOperationException("FakeConnection does not support " + name);
+        }
+
+        private FakeChannel createChannel() {
+            synchronized (lock) {
+                FakeChannel ch = new FakeChannel(this, nextChannelNumber++);
+                channels.put(ch.number, ch);
+                return ch;
+            }
+        }
+
+        void shutdown(boolean byApplication) {
+            List<FakeChannel> chs;
+            synchronized (lock) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                chs = new ArrayList<FakeChannel>(channels.values());
+            }
+            ShutdownSignalException signal = new ShutdownSignalException(true, byApplication, null, proxy);
+            closeReason = signal;
+            for (FakeChannel ch : chs) {
+                ch.shutdown(signal);
+            }
+            connections.remove(this);
+            for (ShutdownListener l : shutdownListeners) {
+                try {
+                    l.shutdownCompleted(signal);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception in connection shutdown listener.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handler for {@link Channel} proxy.
+     */
+    private final class FakeChannel implements InvocationHandler {
+        private final FakeConnection owner;
+        private final int number;
+        private final Channel proxy;
+        private final ExecutorService dispatcher;
+        private final Map<String, ConsumerEntry> consumers = new LinkedHashMap<String, ConsumerEntry>();
+        private final Set<String> exclusiveTags = new CopyOnWriteArraySet<String>();
+        private final TreeMap<Long, Unacked> unacked = new TreeMap<Long, Unacked>();
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<ShutdownListener>();
+        private final List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<ConfirmListener>();
+        private volatile boolean open = true;
+        private volatile ShutdownSignalException closeReason = null;
+        private long nextDeliveryTag = 1;
+        private long nextPublishSeqNo = 0;
+        private int prefetch = 0;
+
+        FakeChannel(FakeConnection owner, int number) {
+            this.owner = owner;
+            this.number = number;
+            this.proxy = (Channel) Proxy.newProxyInstance(FakeBroker.class.getClassLoader(),
+                    new Class<?>[] { Channel.class }, this);
+            this.dispatcher = Executors.newSingleThreadExecutor(
+                    daemonThreadFactory("FakeBroker-" + owner.number + "-" + number));
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(p);
+            } else if ("equals".equals(name)) {
+                return p == args[0];
+            } else if ("toString".equals(name)) {
+                return "FakeChannel(" + owner.number + "-" + number + ")";
+            } else if ("getChannelNumber".equals(name)) {
+                return number;
+            } else if ("getConnection".equals(name)) {
+                return owner.proxy;
+            } else if ("isOpen".equals(name)) {
+                return open;
+            } else if ("getCloseReason".equals(name)) {
+                return closeReason;
+            } else if ("addShutdownListener".equals(name)) {
+                shutdownListeners.add((ShutdownListener) args[0]);
+                return null;
+            } else if ("removeShutdownListener".equals(name)) {
+                shutdownListeners.remove(args[0]);
+                return null;
+            } else if ("addConfirmListener".equals(name)) {
+                confirmListeners.add((ConfirmListener) args[0]);
+                return null;
+            } else if ("removeConfirmListener".equals(name)) {
+                return confirmListeners.remove(args[0]);
+            } else if ("close".equals(name) || "abort".equals(name)) {
+                if (open) {
+                    shutdown(new ShutdownSignalException(false, true, null, proxy));
+                } else if ("close".equals(name)) {
+                    throw new IOException(closeReason);
+                }
+                return null;
+            }
+
+            ensureOpen();
+
+            if ("basicQos".equals(name)) {
+                prefetch = (Integer) (args.length == 1 ? args[0] : args[1]);
+                pumpAll();
+                return null;
+            } else if ("queueDeclare".equals(name)) {
+                String queue = args.length == 0 ? "amq.gen-" + UUID.randomUUID() : (String) args[0];
+                Map<String, Object> arguments = args.length == 5 ? (Map<String, Object>) args[4] : null;
+                declaredCount.incrementAndGet();
+                declareQueue(queue, arguments);
+                return declareOk(queue);
+            } else if ("queueDeclarePassive".equals(name)) {
+                String queue = (String) args[0];
+                synchronized (lock) {
+                    if (!queues.containsKey(queue)) {
+                        throw channelError("NOT_FOUND - no queue '" + queue + "'");
+                    }
+                }
+                return declareOk(queue);
+            } else if ("queueDelete".equals(name)) {
+                deleteQueue((String) args[0]);
+                return null;
+            } else if ("exchangeDeclare".equals(name)) {
+                synchronized (lock) {
+                    exchanges.put((String) args[0], String.valueOf(args[1]).toLowerCase());
+                }
+                return null;
+            } else if ("queueBind".equals(name)) {
+                Map<String, Object> arguments = args.length == 4 ? (Map<String, Object>) args[3] : null;
+                synchronized (lock) {
+                    bindings.add(new Binding((String) args[1], (String) args[0], (String) args[2], arguments));
+                }
+                return null;
+            } else if ("queueUnbind".equals(name)) {
+                synchronized (lock) {
+                    for (Iterator<Binding> it = bindings.iterator(); it.hasNext();) {
+                        Binding b = it.next();
+                        if (b.queue.equals(args[0]) && b.exchange.equals(args[1])
+                                && String.valueOf(b.routingKey).equals(String.valueOf(args[2]))) {
+                            it.remove();
+                        }
+                    }
+                }
+                return null;
+            } else if ("basicPublish".equals(name)) {
+                AMQP.BasicProperties props = (AMQP.BasicProperties) args[args.length - 2];
+                byte[] body = (byte[]) args[args.length - 1];
+                route((String) args[0], (String) args[1], props, body);
+                confirm();
+                return null;
+            } else if ("confirmSelect".equals(name)) {
+                if (nextPublishSeqNo == 0) {
+                    nextPublishSeqNo = 1;
+                }
+                return null;
+            } else if ("getNextPublishSeqNo".equals(name)) {
+                return nextPublishSeqNo;
+            } else if ("waitForConfirms".equals(name)) {
+                return !confirmFailure;
+            } else if ("waitForConfirmsOrDie".equals(name)) {
+                return null;
+            } else if ("basicConsume".equals(name)) {
+                return consume(args);
+            } else if ("basicCancel".equals(name)) {
+                cancel((String) args[0]);
+                return null;
+            } else if ("basicAck".equals(name)) {
+                settle((Long) args[0], (Boolean) args[1], false, false);
+                return null;
+            } else if ("basicNack".equals(name)) {
+                settle((Long) args[0], (Boolean) args[1], true, (Boolean) args[2]);
+                return null;
+            } else if ("basicReject".equals(name)) {
+                settle((Long) args[0], false, true, (Boolean) args[1]);
+                return null;
+            } else if ("basicRecover".equals(name)) {
+                requeueAll();
+                return null;
+            }
+            throw new UnsupportedOperationException("FakeChannel does not support " + name);
+        }
+
+        private AMQP.Queue.DeclareOk declareOk(String queue) {
+            synchronized (lock) {
+                FakeQueue q = queues.get(queue);
+                return new AMQImpl.Queue.DeclareOk(queue, q.messages.size(), q.consumers.size());
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (!open) {
+                throw new IOException(closeReason);
+            }
+        }
+
+        private IOException channelError(String reason) {
+            LOGGER.info("FakeBroker channel error: " + reason);
+            ShutdownSignalException signal = new ShutdownSignalException(false, false, null, proxy);
+            shutdown(signal);
+            return new IOException(reason, signal);
+        }
+
+        private String consume(Object[] args) throws IOException {
+            String queue = (String) args[0];
+            Consumer callback = (Consumer) args[args.length - 1];
+            boolean autoAck = args.length >= 3 && (Boolean) args[1];
+            String tag = args.length >= 4 ? (String) args[2] : null;
+            boolean exclusive = args.length == 7 && (Boolean) args[4];
+            if (tag == null || tag.length() == 0) {
+                tag = "amq.ctag-" + UUID.randomUUID();
+            }
+            final ConsumerEntry entry = new ConsumerEntry(this, tag, callback, autoAck);
+            synchronized (lock) {
+                FakeQueue q = queues.get(queue);
+                if (q == null) {
+                    throw channelError("NOT_FOUND - no queue '" + queue + "'");
+                }
+                if (q.hasExclusiveConsumer() || (exclusive && !q.consumers.isEmpty())) {
+                    throw channelError("ACCESS_REFUSED - queue '" + queue + "' in exclusive use");
+                }
+                if (exclusive) {
+                    exclusiveTags.add(tag);
+                }
+                consumers.put(tag, entry);
+                q.consumers.add(entry);
+            }
+            final String consumerTag = tag;
+            dispatcher.submit(new Runnable() {
+                public void run() {
+                    entry.consumer.handleConsumeOk(consumerTag);
+                }
+            });
+            pumpAll();
+            return tag;
+        }
+
+        private void cancel(String tag) {
+            final ConsumerEntry entry;
+            synchronized (lock) {
+                entry = consumers.remove(tag);
+                exclusiveTags.remove(tag);
+                if (entry != null) {
+                    for (FakeQueue q : queues.values()) {
+                        q.consumers.remove(entry);
+                    }
+                }
+            }
+            if (entry != null) {
+                dispatcher.submit(new Runnable() {
+                    public void run() {
+                        entry.consumer.handleCancelOk(entry.tag);
+                    }
+                });
+            }
+            pumpAll();
+        }
+
+        void notifyCancel(final ConsumerEntry entry) {
+            synchronized (lock) {
+                consumers.remove(entry.tag);
+                exclusiveTags.remove(entry.tag);
+            }
+            if (open) {
+                dispatcher.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            entry.consumer.handleCancel(entry.tag);
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Caught exception in handleCancel.", e);
+                        }
+                    }
+                });
+            }
+        }
+
+        /**
+         * Delivers message. Caller must hold lock.
+         */
+        void deliver(FakeQueue queue, final ConsumerEntry entry, final Message m) {
+            final long tag = nextDeliveryTag++;
+            if (!entry.autoAck) {
+                unacked.put(tag, new Unacked(queue, entry, m));
+                entry.unacked++;
+            }
+            deliveredCount.incrementAndGet();
+            final Envelope envelope = new Envelope(tag, m.redelivered, m.exchange, m.routingKey);
+            dispatcher.submit(new Runnable() {
+                public void run() {
+                    if (!open) {
+                        return;
+                    }
+                    try {
+                        entry.consumer.handleDelivery(entry.tag, envelope, m.props, m.body);
+                    } catch (Throwable t) {
+                        LOGGER.log(Level.WARNING, "Caught exception in consumer.", t);
+                    }
+                }
+            });
+        }
+
+        private void settle(long tag, boolean multiple, boolean negative, boolean requeue) throws IOException {
+            synchronized (lock) {
+                List<Long> tags = new ArrayList<Long>();
+                if (multiple) {
+                    tags.addAll(unacked.headMap(tag, true).keySet());
+                } else if (unacked.containsKey(tag)) {
+                    tags.add(tag);
+                } else {
+                    throw channelError("PRECONDITION_FAILED - unknown delivery tag " + tag);
+                }
+                for (Long t : tags) {
+                    Unacked u = unacked.remove(t);
+                    u.consumer.unacked--;
+                    if (!negative) {
+                        ackedCount.incrementAndGet();
+                    } else if (requeue) {
+                        u.queue.requeue(u.message);
+                    } else {
+                        u.queue.deadLetter(u.message);
+                    }
+                }
+            }
+            pumpAll();
+        }
+
+        private void requeueAll() {
+            synchronized (lock) {
+                for (Long t : unacked.descendingKeySet()) {
+                    Unacked u = unacked.get(t);
+                    u.consumer.unacked--;
+                    u.queue.requeue(u.message);
+                }
+                unacked.clear();
+            }
+            pumpAll();
+        }
+
+        private void confirm() {
+            if (nextPublishSeqNo == 0) {
+                return;
+            }
+            final long seqNo = nextPublishSeqNo++;
+            dispatcher.submit(new Runnable() {
+                public void run() {
+                    for (ConfirmListener l : confirmListeners) {
+                        try {
+                            l.handleAck(seqNo, false);
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Caught exception in confirm listener.", e);
+                        }
+                    }
+                }
+            });
+        }
+
+        void shutdown(ShutdownSignalException signal) {
+            List<ConsumerEntry> entries;
+            synchronized (lock) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                closeReason = signal;
+                entries = new ArrayList<ConsumerEntry>(consumers.values());
+                for (FakeQueue q : queues.values()) {
+                    q.consumers.removeAll(entries);
+                }
+                consumers.clear();
+                exclusiveTags.clear();
+                owner.channels.remove(number);
+            }
+            requeueAll();
+            for (ConsumerEntry e : entries) {
+                e.consumer.handleShutdownSignal(e.tag, signal);
+            }
+            for (ShutdownListener l : shutdownListeners) {
+                try {
+                    l.shutdownCompleted(signal);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Caught exception in channel shutdown listener.", e);
+                }
+            }
+            dispatcher.shutdown();
+        }
+    }
+}
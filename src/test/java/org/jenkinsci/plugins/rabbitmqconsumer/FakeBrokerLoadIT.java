@@ -0,0 +1,229 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Load test for consumer using in-process broker.
+ *
+ * This measures sustained throughput, memory and recovery time
+ * without network or real RabbitMQ. This is not run by default,
+ * use soak profile: mvn test -Psoak
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FakeBrokerLoadIT {
+
+    private static final Logger LOGGER = Logger.getLogger(FakeBrokerLoadIT.class.getName());
+
+    private static final String APP_ID = "load-app";
+    private static final String QUEUE_NAME = "load-queue";
+    private static final int MESSAGES = 20000;
+    private static final long TIMEOUT_MILLIS = 60000;
+    private static final long POLL_MILLIS = 10;
+
+    private static final CountingListener LISTENER = new CountingListener();
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+        Mocks.mqListenerSet.add(LISTENER);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Mocks.mqListenerSet.remove(LISTENER);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        LISTENER.reset();
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            result = new Mocks.OnBindDelegation();
+
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+            result = new Mocks.OnUnbindDelegation();
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
+        }};
+    }
+
+    @Test
+    public void testSustainedThroughput() throws Exception {
+        final FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        RMQConnection conn = openConnection(broker);
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+            long start = System.nanoTime();
+            publish(broker, MESSAGES);
+            waitFor(new Condition() {
+                public boolean isSatisfied() {
+                    return broker.getAckedCount() >= MESSAGES;
+                }
+            });
+            long elapsedNanos = System.nanoTime() - start;
+            long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+            LOGGER.info(MessageFormat.format("Sustained throughput: {0} msgs/s ({1} msgs in {2} ms), heap delta {3} KB",
+                    (long) (MESSAGES / (elapsedNanos / 1e9)), MESSAGES, elapsedNanos / 1000000,
+                    (usedAfter - usedBefore) / 1024));
+
+            assertEquals("Unmatched received count", MESSAGES, LISTENER.getCount());
+            assertEquals("Queue is not drained", 0, broker.getQueueDepth(QUEUE_NAME));
+            assertEquals("Unacked messages remain", 0, broker.getUnackedCount(QUEUE_NAME));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testRecoveryAfterForcedDisconnect() throws Exception {
+        final FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        RMQConnection conn = openConnection(broker);
+
+        publish(broker, MESSAGES / 2);
+        broker.disconnectAll();
+        assertFalse("Channel is still consuming", conn.getConsumeChannelStatus(QUEUE_NAME));
+
+        long start = System.nanoTime();
+        // RMQManager recreates connection in the same way.
+        final RMQConnection recovered = openConnection(broker);
+        waitFor(new Condition() {
+            public boolean isSatisfied() {
+                return recovered.getConsumeChannelStatus(QUEUE_NAME);
+            }
+        });
+        long recoveryMillis = (System.nanoTime() - start) / 1000000;
+
+        try {
+            publish(broker, MESSAGES / 2);
+            waitFor(new Condition() {
+                public boolean isSatisfied() {
+                    return broker.getQueueDepth(QUEUE_NAME) == 0 && broker.getUnackedCount(QUEUE_NAME) == 0;
+                }
+            });
+
+            LOGGER.info(MessageFormat.format("Recovery time: {0} ms, redelivered {1}, received {2}",
+                    recoveryMillis, broker.getRedeliveredCount(), LISTENER.getCount()));
+
+            assertTrue("Lost messages", LISTENER.getCount() >= MESSAGES);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private RMQConnection openConnection(FakeBroker broker) throws Exception {
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+        conn.open();
+        conn.updateChannels(items);
+        return conn;
+    }
+
+    private void publish(FakeBroker broker, int count) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .appId(APP_ID)
+                .contentType("application/json")
+                .build();
+        byte[] body = "{\"type\":\"load\"}".getBytes();
+        for (int i = 0; i < count; i++) {
+            broker.publish("", QUEUE_NAME, props, body);
+        }
+    }
+
+    private void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.isSatisfied()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Condition to wait.
+     */
+    private interface Condition {
+        boolean isSatisfied();
+    }
+
+    /**
+     * Listener that counts received messages.
+     */
+    private static final class CountingListener extends MessageQueueListener {
+
+        private final AtomicLong count = new AtomicLong();
+
+        public void reset() {
+            count.set(0);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public String getName() {
+            return "counting-listener";
+        }
+
+        @Override
+        public String getAppId() {
+            return APP_ID;
+        }
+
+        @Override
+        public void onBind(String queueName) {
+        }
+
+        @Override
+        public void onUnbind(String queueName) {
+        }
+
+        @Override
+        public void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body) {
+            count.incrementAndGet();
+        }
+    }
+}
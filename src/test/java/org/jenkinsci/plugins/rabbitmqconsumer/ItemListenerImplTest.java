@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Mock;
+import mockit.MockUp;
+
+import org.junit.Test;
+
+/**
+ * Test for ItemListenerImpl class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class ItemListenerImplTest {
+
+    @Test
+    public void testOnLoadedDoesNotBlock() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        new MockUp<RMQManager>() {
+            @Mock
+            public void update() {
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RMQManager manager = RMQManager.getInstance();
+
+        long start = System.currentTimeMillis();
+        new ItemListenerImpl().onLoaded();
+        assertTrue("onLoaded is blocked", System.currentTimeMillis() - start < 1000);
+        assertFalse("Ready before update", manager.isReady());
+
+        release.countDown();
+        assertTrue("Not ready", manager.awaitReady(5, TimeUnit.SECONDS));
+    }
+}
@@ -16,7 +16,16 @@ import mockit.Mock;
 import mockit.MockUp;
 
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.AbstractRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.CompressionCodec;
 import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerMode;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.OrderedDispatcher;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.PrefetchController;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeduplicationCache;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.RetryPolicy;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.ServerOperator;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQChannelListener;
@@ -39,6 +48,9 @@ public class Mocks {
     public static final List<String> responseArray = new CopyOnWriteArrayList<String>();
     public static final Set<MessageQueueListener> mqListenerSet = new CopyOnWriteArraySet<MessageQueueListener>();
     public static final Set<ServerOperator> operatorSet = new CopyOnWriteArraySet<ServerOperator>();
+    public static volatile RetryPolicy retryPolicy = RetryPolicy.DISABLED;
+    public static volatile ConsumerMode consumerMode = ConsumerMode.SHARED;
+    public static volatile DeduplicationCache deduplicationCache = null;
 
     public static final class ChannelMock extends MockUp<Channel> {
 
@@ -73,6 +85,36 @@ public class Mocks {
             return false;
         }
 
+        @Mock
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        @Mock
+        public DeduplicationCache getDeduplicationCache() {
+            return deduplicationCache;
+        }
+
+        @Mock
+        public ConsumerMode getConsumerMode() {
+            return consumerMode;
+        }
+
+        @Mock
+        public OrderedDispatcher getDispatcher() {
+            return null;
+        }
+
+        @Mock
+        public PrefetchController getPrefetchController() {
+            return null;
+        }
+
+        @Mock
+        public int getMaxDecompressedSize() {
+            return CompressionCodec.DEFAULT_MAX_DECOMPRESSED_SIZE;
+        }
+
         @Mock
         public void close(Invocation invocation) {
             invocation.proceed();
@@ -81,6 +123,47 @@ public class Mocks {
         }
     }
 
+    /**
+     * Mocks configuration only. Channel lifecycle is left to real broker implementation.
+     */
+    public static final class ConsumeRMQChannelConfigMock extends MockUp<ConsumeRMQChannel> {
+
+        @Mock
+        public boolean isEnableDebug() {
+            return false;
+        }
+
+        @Mock
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        @Mock
+        public DeduplicationCache getDeduplicationCache() {
+            return deduplicationCache;
+        }
+
+        @Mock
+        public ConsumerMode getConsumerMode() {
+            return consumerMode;
+        }
+
+        @Mock
+        public OrderedDispatcher getDispatcher() {
+            return null;
+        }
+
+        @Mock
+        public PrefetchController getPrefetchController() {
+            return null;
+        }
+
+        @Mock
+        public int getMaxDecompressedSize() {
+            return CompressionCodec.DEFAULT_MAX_DECOMPRESSED_SIZE;
+        }
+    }
+
     public static final class RMQChannelListenerMock implements RMQChannelListener {
         public void onOpen(AbstractRMQChannel rmqChannel) {
             LOGGER.info(MessageFormat.format("Open ConsumeRMQChannelMock channel {0} for {1}.",
@@ -181,6 +264,25 @@ public class Mocks {
         }
     }
 
+    public static final class OnReceiveWithAckDelegation implements Delegate<MessageQueueListener> {
+        void fireOnReceive(String appId,
+                String queueName,
+                Payload payload,
+                DeliveryAcknowledgement acknowledgement) {
+            for (MessageQueueListener l : mqListenerSet) {
+                if (appId.equals(l.getAppId())) {
+                    Acknowledgement part = acknowledgement.createPart();
+                    try {
+                        l.onReceive(queueName, payload.getContentType(), payload.getHeaders(), payload.getBytes());
+                        part.ack();
+                    } catch (RuntimeException e) {
+                        acknowledgement.fail(part, e);
+                    }
+                }
+            }
+        }
+    }
+
     public static final class OnOpenDelegation implements Delegate<ServerOperator> {
         void fireOnOpen(RMQConnection rmqConnection) throws IOException {
             if (rmqConnection.getConnection() != null) {
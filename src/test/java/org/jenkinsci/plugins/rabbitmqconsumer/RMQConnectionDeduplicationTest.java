@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeduplicationCache;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Test for deduplication of deliveries across reconnect in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionDeduplicationTest {
+
+    private static final String QUEUE_NAME = "dedup-queue";
+    private static final String APP_ID = "app";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final AtomicInteger received = new AtomicInteger();
+    private static volatile boolean holding = true;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @After
+    public void tearDown() {
+        Mocks.deduplicationCache = null;
+        DeduplicationCache.remove(QUEUE_NAME);
+    }
+
+    @Test
+    public void testRedeliveryAfterReconnect() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Delegate<MessageQueueListener>() {
+                @SuppressWarnings("unused")
+                void fireOnReceive(String appId, String queueName, Payload payload,
+                        DeliveryAcknowledgement acknowledgement) {
+                    received.incrementAndGet();
+                    // part is kept pending while holding.
+                    Acknowledgement part = acknowledgement.createPart();
+                    if (!holding) {
+                        part.ack();
+                    }
+                }
+            };
+        }};
+
+        received.set(0);
+        holding = true;
+        Mocks.deduplicationCache = DeduplicationCache.forQueue(QUEUE_NAME, null, 100, 60000);
+
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                    .appId(APP_ID).messageId("message-1").build();
+            broker.publish("", QUEUE_NAME, props, "message".getBytes());
+            waitForReceived(1);
+            assertEquals(1, broker.getUnackedCount(QUEUE_NAME));
+
+            broker.disconnectAll();
+        } finally {
+            conn.close();
+        }
+
+        holding = false;
+        RMQConnection reconnected = new RMQConnection(FakeBroker.SERVICE_URI, null, null,
+                broker.createConnectionFactory());
+        reconnected.open();
+        try {
+            reconnected.updateChannels(items);
+            waitForReceived(2);
+            assertEquals(1, broker.getRedeliveredCount());
+
+            // cache is evicted once queue is no longer consumed.
+            assertNotNull(DeduplicationCache.get(QUEUE_NAME));
+            reconnected.updateChannels(new ArrayList<RabbitmqConsumeItem>());
+            assertNull(DeduplicationCache.get(QUEUE_NAME));
+        } finally {
+            reconnected.close();
+        }
+    }
+
+    private void waitForReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not received: " + received.get());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
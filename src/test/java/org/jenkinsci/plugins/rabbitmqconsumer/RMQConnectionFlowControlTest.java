@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.BlockedPublishPolicy;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.CompressionCodec;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.PublishRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.publishers.PublishResult;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for publish while connection is blocked by broker.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionFlowControlTest {
+
+    private static final String QUEUE_NAME = "blocked-queue";
+
+    private static volatile BlockedPublishPolicy policy = BlockedPublishPolicy.BUFFER;
+    private static volatile long timeout = 10000;
+    private static volatile int bufferSize = 1000;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    private FakeBroker broker;
+    private RMQConnection conn;
+    private PublishRMQChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+        }};
+        new MockUp<PublishRMQChannel>() {
+            @Mock
+            CompressionCodec getCompressionCodec() {
+                return null;
+            }
+
+            @Mock
+            BlockedPublishPolicy getBlockedPublishPolicy() {
+                return policy;
+            }
+
+            @Mock
+            long getBlockedPublishTimeout() {
+                return timeout;
+            }
+
+            @Mock
+            int getBlockedPublishBufferSize() {
+                return bufferSize;
+            }
+        };
+
+        broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        conn.updatePublishChannel();
+        channel = conn.getPublishRMQChannels().iterator().next();
+    }
+
+    @After
+    public void tearDown() {
+        conn.close();
+        policy = BlockedPublishPolicy.BUFFER;
+        timeout = 10000;
+        bufferSize = 1000;
+    }
+
+    @Test
+    public void testBufferWhileBlocked() throws Exception {
+        broker.blockAll("low on memory");
+        assertTrue(conn.getFlowControl().isBlocked());
+
+        Future<PublishResult> future = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        Thread.sleep(200);
+        assertFalse("Published while blocked", future.isDone());
+        assertEquals(0, broker.getQueueDepth(QUEUE_NAME));
+
+        broker.unblockAll();
+        assertTrue(future.get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(1, broker.getQueueDepth(QUEUE_NAME));
+        assertTrue(conn.getFlowControl().getBlockedMillis() >= 200);
+    }
+
+    @Test
+    public void testFailWhileBlocked() throws Exception {
+        policy = BlockedPublishPolicy.FAIL;
+        broker.blockAll("low on disk");
+
+        Future<PublishResult> future = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        assertTrue(future.isDone());
+        assertFalse(future.get().isSuccess());
+
+        broker.unblockAll();
+        assertTrue(channel.publish("", QUEUE_NAME, null, "message".getBytes()).get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(1, broker.getQueueDepth(QUEUE_NAME));
+    }
+
+    @Test
+    public void testBufferIsBounded() throws Exception {
+        bufferSize = 2;
+        broker.blockAll("low on memory");
+
+        Future<PublishResult> first = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        Future<PublishResult> second = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        Future<PublishResult> third = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        assertTrue(third.isDone());
+        assertFalse(third.get().isSuccess());
+        assertEquals(2, channel.getQueuedCount());
+
+        broker.unblockAll();
+        assertTrue(first.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(second.get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(2, broker.getQueueDepth(QUEUE_NAME));
+        assertEquals(0, channel.getQueuedCount());
+    }
+
+    @Test
+    public void testTimeoutStartsAtPublish() throws Exception {
+        timeout = 300;
+        broker.blockAll("low on memory");
+
+        long start = System.currentTimeMillis();
+        Future<PublishResult> first = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        Future<PublishResult> second = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        Future<PublishResult> third = channel.publish("", QUEUE_NAME, null, "message".getBytes());
+        assertFalse(first.get(5, TimeUnit.SECONDS).isSuccess());
+        assertFalse(second.get(5, TimeUnit.SECONDS).isSuccess());
+        assertFalse(third.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue("Timeout is accumulated", System.currentTimeMillis() - start < 2 * timeout);
+        broker.unblockAll();
+    }
+}
@@ -0,0 +1,171 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Test for runtime pause and resume of consumer in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionPauseTest {
+
+    private static final String QUEUE_NAME = "pause-queue";
+    private static final String APP_ID = "app";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @Test
+    public void testPauseAndResume() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
+        }};
+
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        Set<String> pausedQueueNames = new CopyOnWriteArraySet<String>();
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.setPausedQueueNames(pausedQueueNames);
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            ConsumeRMQChannel ch = conn.getConsumeRMQChannels().iterator().next();
+            assertEquals(1, broker.getConsumerCount(QUEUE_NAME));
+
+            conn.pauseConsume(QUEUE_NAME);
+            assertTrue(conn.isConsumePaused(QUEUE_NAME));
+            assertTrue(ch.isPaused());
+            assertFalse(conn.getConsumeChannelStatus(QUEUE_NAME));
+            assertTrue("Channel is closed", ch.getChannel().isOpen());
+            assertEquals(0, broker.getConsumerCount(QUEUE_NAME));
+
+            publish(broker, 3);
+            Thread.sleep(100);
+            assertEquals(3, broker.getQueueDepth(QUEUE_NAME));
+
+            conn.resumeConsume(QUEUE_NAME);
+            assertTrue(conn.getConsumeChannelStatus(QUEUE_NAME));
+            assertSame("Channel is recreated", ch, conn.getConsumeRMQChannels().iterator().next());
+            waitForDrain(broker);
+            assertEquals(3, ch.getDeliveryCount());
+
+            conn.pauseConsume(QUEUE_NAME);
+        } finally {
+            conn.close();
+        }
+
+        // pause state is kept after reconnect.
+        RMQConnection reconnected = new RMQConnection(FakeBroker.SERVICE_URI, null, null,
+                broker.createConnectionFactory());
+        reconnected.setPausedQueueNames(pausedQueueNames);
+        reconnected.open();
+        try {
+            reconnected.updateChannels(items);
+            assertEquals(1, reconnected.getConsumeRMQChannels().size());
+            assertFalse(reconnected.getConsumeChannelStatus(QUEUE_NAME));
+            assertEquals(0, broker.getConsumerCount(QUEUE_NAME));
+
+            reconnected.resumeConsume(QUEUE_NAME);
+            assertEquals(1, broker.getConsumerCount(QUEUE_NAME));
+        } finally {
+            reconnected.close();
+        }
+    }
+
+    @Test
+    public void testLoadShedKeepsManualPause() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+        }};
+
+        String otherQueueName = "other-queue";
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        broker.declareQueue(otherQueueName);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+        items.add(new RabbitmqConsumeItem(APP_ID, otherQueueName));
+
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            conn.pauseConsume(QUEUE_NAME);
+
+            conn.setLoadShed(true);
+            assertEquals(0, broker.getConsumerCount(QUEUE_NAME));
+            assertEquals(0, broker.getConsumerCount(otherQueueName));
+
+            // manual resume waits for load shedding to be released.
+            conn.resumeConsume(QUEUE_NAME);
+            assertEquals(0, broker.getConsumerCount(QUEUE_NAME));
+            conn.pauseConsume(QUEUE_NAME);
+
+            conn.setLoadShed(false);
+            assertEquals(0, broker.getConsumerCount(QUEUE_NAME));
+            assertEquals(1, broker.getConsumerCount(otherQueueName));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void publish(FakeBroker broker, int count) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().appId(APP_ID).build();
+        for (int i = 0; i < count; i++) {
+            broker.publish("", QUEUE_NAME, props, "message".getBytes());
+        }
+    }
+
+    private void waitForDrain(FakeBroker broker) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (broker.getQueueDepth(QUEUE_NAME) > 0 || broker.getUnackedCount(QUEUE_NAME) > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not drained");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Test for recovery of consume channel in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionRecoveryTest {
+
+    private static final String QUEUE_NAME = "recovery-queue";
+    private static final String APP_ID = "app";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final AtomicInteger received = new AtomicInteger();
+    private static final List<Acknowledgement> heldParts = new CopyOnWriteArrayList<Acknowledgement>();
+    private static volatile boolean holding = false;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        received.set(0);
+        heldParts.clear();
+        holding = false;
+
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Delegate<MessageQueueListener>() {
+                @SuppressWarnings("unused")
+                void fireOnReceive(String appId, String queueName, Payload payload,
+                        DeliveryAcknowledgement acknowledgement) {
+                    Acknowledgement part = acknowledgement.createPart();
+                    if (holding) {
+                        heldParts.add(part);
+                    } else {
+                        part.ack();
+                    }
+                    received.incrementAndGet();
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void testResumeAfterCancelledByBroker() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            ConsumeRMQChannel ch = conn.getConsumeRMQChannels().iterator().next();
+            publish(broker);
+            waitForReceived(1);
+
+            broker.cancelConsumers(QUEUE_NAME);
+            waitForRecovered(conn, broker, ch);
+
+            publish(broker);
+            waitForReceived(2);
+            assertEquals(0, broker.getQueueDepth(QUEUE_NAME));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            ConsumeRMQChannel ch = conn.getConsumeRMQChannels().iterator().next();
+
+            ch.restart("test");
+            waitForRecovered(conn, broker, ch);
+
+            publish(broker);
+            waitForReceived(1);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testNotStalledWhileDeliveryIsOutstanding() throws Exception {
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        holding = true;
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            ConsumeRMQChannel ch = conn.getConsumeRMQChannels().iterator().next();
+            publish(broker);
+            waitForReceived(1);
+
+            assertFalse("First check is baseline", checkStalled(ch));
+            assertFalse("Delivery is outstanding", checkStalled(ch));
+
+            holding = false;
+            for (Acknowledgement part : heldParts) {
+                part.ack();
+            }
+            assertEquals(0, broker.getUnackedCount(QUEUE_NAME));
+            assertFalse("Settled since last check", checkStalled(ch));
+            assertTrue("No delivery", checkStalled(ch));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void publish(FakeBroker broker) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().appId(APP_ID).build();
+        broker.publish("", QUEUE_NAME, props, "message".getBytes());
+    }
+
+    private boolean checkStalled(ConsumeRMQChannel ch) throws InterruptedException {
+        // checks are never in the same millisecond as activity.
+        Thread.sleep(5);
+        return ch.checkStalled(1);
+    }
+
+    private void waitForRecovered(RMQConnection conn, FakeBroker broker, ConsumeRMQChannel oldChannel)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            Set<ConsumeRMQChannel> channels = conn.getConsumeRMQChannels();
+            if (channels.size() == 1 && !channels.contains(oldChannel)
+                    && channels.iterator().next().isConsumeStarted()
+                    && broker.getConsumerCount(QUEUE_NAME) == 1) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not recovered: channels=" + channels.size()
+                        + ", consumers=" + broker.getConsumerCount(QUEUE_NAME));
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void waitForReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not received: " + received.get());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
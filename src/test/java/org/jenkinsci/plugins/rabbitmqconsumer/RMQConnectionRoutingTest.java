@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Test for server-side routing by application id in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionRoutingTest {
+
+    private static final String QUEUE_NAME = "routing-queue";
+    private static final String EXCHANGE_NAME = "routing-exchange";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @Test
+    public void testOnlyBoundAppIdsAreDelivered() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
+        }};
+
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.setRoutingExchange(EXCHANGE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem("app-1", QUEUE_NAME));
+        conn.open();
+        conn.updateChannels(items);
+        try {
+            publish(broker, "app-1");
+            publish(broker, "app-2");
+            publish(broker, "app-1");
+
+            ConsumeRMQChannel ch = conn.getConsumeRMQChannels().iterator().next();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (ch.getDeliveryCount() < 2 || broker.getUnackedCount(QUEUE_NAME) > 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Not delivered");
+                }
+                Thread.sleep(10);
+            }
+            assertEquals("Unmatched delivery count", 2, ch.getDeliveryCount());
+            assertEquals("Wasted deliveries", 0, ch.getWastedDeliveryCount());
+            assertEquals("Unrouted message is queued", 0, broker.getQueueDepth(QUEUE_NAME));
+        } finally {
+            conn.close();
+        }
+    }
+
+    private void publish(FakeBroker broker, String appId) {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put(RMQConnection.ROUTING_HEADER, appId);
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .appId(appId).headers(headers).build();
+        broker.publish(EXCHANGE_NAME, "", props, appId.getBytes());
+    }
+}
@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerMode;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumerRole;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for exclusive consumer and standby takeover in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionStandbyTest {
+
+    private static final String QUEUE_NAME = "standby-queue";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @After
+    public void tearDown() {
+        Mocks.consumerMode = ConsumerMode.SHARED;
+    }
+
+    @Test
+    public void testStandbyTakesOver() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+        }};
+
+        Mocks.consumerMode = ConsumerMode.EXCLUSIVE;
+        FakeBroker broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem("app", QUEUE_NAME));
+
+        RMQConnection active = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        RMQConnection standby = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        standby.setStandbyRetryInterval(100);
+        active.open();
+        standby.open();
+        try {
+            active.updateChannels(items);
+            standby.updateChannels(items);
+
+            assertEquals(ConsumerRole.ACTIVE, active.getConsumerRole(QUEUE_NAME));
+            assertEquals(ConsumerRole.STANDBY, standby.getConsumerRole(QUEUE_NAME));
+            assertFalse(standby.getConsumeChannelStatus(QUEUE_NAME));
+            assertEquals(1, broker.getConsumerCount(QUEUE_NAME));
+
+            active.close();
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (standby.getConsumerRole(QUEUE_NAME) != ConsumerRole.ACTIVE) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("Standby did not take over");
+                }
+                Thread.sleep(10);
+            }
+            assertTrue(standby.getConsumeChannelStatus(QUEUE_NAME));
+        } finally {
+            active.close();
+            standby.close();
+        }
+    }
+}
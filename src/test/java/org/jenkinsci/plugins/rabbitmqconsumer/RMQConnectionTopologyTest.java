@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.TopologyDeclarer;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for topology declaration in RMQConnection.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RMQConnectionTopologyTest {
+
+    private static final String QUEUE_NAME = "topology-queue";
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+    }
+
+    @Test
+    public void testDeclareOnlyWhenLost() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+        }};
+
+        FakeBroker broker = new FakeBroker();
+        TopologyDeclarer declarer = new TopologyDeclarer();
+        QueueTopology topology = new QueueTopology(false, QueueTopology.TYPE_QUORUM, 100, 60000, "jenkins build\n");
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem("app", QUEUE_NAME, null, 0, topology));
+
+        assertTrue(connect(broker, declarer, items));
+        assertEquals(1, broker.getDeclaredCount());
+        assertEquals("quorum", broker.getQueueArguments(QUEUE_NAME).get("x-queue-type"));
+        assertEquals(100L, broker.getQueueArguments(QUEUE_NAME).get("x-max-length"));
+        assertEquals(60000L, broker.getQueueArguments(QUEUE_NAME).get("x-message-ttl"));
+
+        // healthy reconnect
+        assertTrue(connect(broker, declarer, items));
+        assertEquals(1, broker.getDeclaredCount());
+
+        // broker lost queue
+        broker.deleteQueue(QUEUE_NAME);
+        assertTrue(connect(broker, declarer, items));
+        assertEquals(2, broker.getDeclaredCount());
+    }
+
+    @Test
+    public void testTopologyArguments() {
+        QueueTopology topology = new QueueTopology(false, QueueTopology.TYPE_LAZY, 0, 0, "ex1\nex2 key\n\n");
+        assertFalse(topology.isDurable());
+        assertEquals("lazy", topology.getArguments().get("x-queue-mode"));
+        assertFalse(topology.getArguments().containsKey("x-max-length"));
+        assertEquals(2, topology.getBindingList().size());
+        assertEquals("", topology.getBindingList().get(0)[1]);
+        assertEquals("key", topology.getBindingList().get(1)[1]);
+
+        assertTrue(new QueueTopology(false, QueueTopology.TYPE_QUORUM, 0, 0, null).isDurable());
+        assertEquals(topology, new QueueTopology(false, "lazy", 0, 0, "ex1\nex2 key"));
+
+        QueueTopology priority = new QueueTopology(true, QueueTopology.TYPE_CLASSIC, 0, 0, null, 10);
+        assertEquals(10, priority.getArguments().get("x-max-priority"));
+        assertFalse(priority.equals(new QueueTopology(true, QueueTopology.TYPE_CLASSIC, 0, 0, null)));
+        assertFalse(new QueueTopology(true, QueueTopology.TYPE_QUORUM, 0, 0, null, 10)
+                .getArguments().containsKey("x-max-priority"));
+    }
+
+    private boolean connect(FakeBroker broker, TopologyDeclarer declarer, List<RabbitmqConsumeItem> items)
+            throws Exception {
+        RMQConnection conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.setTopologyDeclarer(declarer);
+        conn.open();
+        try {
+            conn.updateChannels(items);
+            return conn.getConsumeChannelStatus(QUEUE_NAME);
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.plugins.rabbitmqconsumer;
+
+import static org.junit.Assert.*;
+
+import java.net.Socket;
+
+import org.junit.Test;
+
+/**
+ * Test for TransportConnectionFactory class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class TransportConnectionFactoryTest {
+
+    @Test
+    public void testConfigureSocket() throws Exception {
+        TransportConnectionFactory factory = new TransportConnectionFactory();
+        factory.setTcpKeepAlive(true);
+        factory.setTcpNoDelay(false);
+        factory.setSendBufferSize(256 * 1024);
+        factory.setReceiveBufferSize(128 * 1024);
+
+        Socket socket = new Socket();
+        try {
+            factory.configureSocket(socket);
+            assertTrue(socket.getKeepAlive());
+            assertFalse(socket.getTcpNoDelay());
+            assertTrue(socket.getSendBufferSize() > 0);
+            assertTrue(socket.getReceiveBufferSize() > 0);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testDefaultBufferSize() throws Exception {
+        TransportConnectionFactory factory = new TransportConnectionFactory();
+        factory.setSendBufferSize(-1);
+        assertEquals(0, factory.getSendBufferSize());
+
+        Socket socket = new Socket();
+        try {
+            int sendBufferSize = socket.getSendBufferSize();
+            factory.configureSocket(socket);
+            assertTrue(socket.getKeepAlive());
+            assertTrue(socket.getTcpNoDelay());
+            assertEquals(sendBufferSize, socket.getSendBufferSize());
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test for CompressionCodec class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class CompressionCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = createLog(100000);
+        for (String encoding : CompressionCodec.getEncodings()) {
+            CompressionCodec codec = CompressionCodec.get(encoding);
+            byte[] compressed = codec.compress(data);
+            assertTrue("Not compressed: " + encoding, compressed.length < data.length);
+            assertTrue("Unmatched data: " + encoding, Arrays.equals(data, codec.decompress(compressed)));
+        }
+    }
+
+    @Test
+    public void testLargeData() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(0).nextBytes(data);
+        CompressionCodec codec = CompressionCodec.GZIP;
+        assertTrue(Arrays.equals(data, codec.decompress(codec.compress(data))));
+
+        byte[] small = createLog(100);
+        assertTrue(Arrays.equals(small, codec.decompress(codec.compress(small))));
+    }
+
+    @Test
+    public void testGet() {
+        assertSame(CompressionCodec.GZIP, CompressionCodec.get("GZIP"));
+        assertSame(CompressionCodec.DEFLATE, CompressionCodec.get("deflate"));
+        assertNull(CompressionCodec.get("UTF-8"));
+        assertNull(CompressionCodec.get(null));
+    }
+
+    @Test
+    public void testMaxDecompressedSize() throws Exception {
+        byte[] data = new byte[1024 * 1024];
+        for (String encoding : CompressionCodec.getEncodings()) {
+            CompressionCodec codec = CompressionCodec.get(encoding);
+            byte[] compressed = codec.compress(data);
+            assertEquals(data.length, codec.decompress(compressed, data.length).length);
+            try {
+                codec.decompress(compressed, data.length - 1);
+                fail("Not limited: " + encoding);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("exceeds"));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidData() throws Exception {
+        CompressionCodec.GZIP.decompress("not compressed".getBytes());
+    }
+
+    private byte[] createLog(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines / 10; i++) {
+            sb.append("[INFO] Building module ").append(i).append('\n');
+        }
+        return sb.toString().getBytes();
+    }
+}
@@ -5,13 +5,13 @@ import static org.hamcrest.CoreMatchers.*;
 
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 
 import org.apache.commons.codec.CharEncoding;
 import org.jenkinsci.plugins.rabbitmqconsumer.Mocks;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
 import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
 import org.jenkinsci.plugins.rabbitmqconsumer.listeners.RMQChannelListener;
 import org.junit.After;
@@ -69,10 +69,9 @@ public class ConsumeRMQChannelTest {
 
             MessageQueueListener.fireOnReceive(anyString,
                     anyString,
-                    anyString,
-                    (Map<String, Object>) any,
-                    (byte[]) any);
-            result = new Mocks.OnReceiveDelegation();
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
         }};
     }
 
@@ -110,4 +109,27 @@ public class ConsumeRMQChannelTest {
         }
     }
 
+    @Test
+    public void testCheckStalled() throws Exception {
+        HashSet<String> appIds = new HashSet<String>();
+        appIds.add("app-1");
+        Envelope envelope = new Envelope(0L, false, "exchange-1", "test.app");
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().appId("app-1").build();
+
+        ConsumeRMQChannel channel = new ConsumeRMQChannel("theQueue", appIds);
+        channel.addRMQChannelListener(chListener);
+        channel.open(connection);
+        channel.consume();
+        try {
+            assertFalse("First check is baseline", channel.checkStalled(5));
+            assertFalse("Empty queue", channel.checkStalled(0));
+            assertTrue("No delivery", channel.checkStalled(5));
+
+            Consumer consumer = Mocks.consumerPool.pop();
+            consumer.handleDelivery("consumerTag", envelope, props, "Test message".getBytes());
+            assertFalse("Delivered", channel.checkStalled(5));
+        } finally {
+            channel.close();
+        }
+    }
 }
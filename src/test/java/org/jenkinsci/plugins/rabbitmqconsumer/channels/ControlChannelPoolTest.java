@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.FakeBroker;
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQConnection;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Test for ControlChannelPool class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class ControlChannelPoolTest {
+
+    private static final String QUEUE_NAME = "control-queue";
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    private FakeBroker broker;
+    private RMQConnection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+        }};
+        broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+    }
+
+    @After
+    public void tearDown() {
+        conn.close();
+    }
+
+    @Test
+    public void testReuseChannel() throws Exception {
+        ChannelLease lease = conn.leaseChannel();
+        Channel ch = lease.getChannel();
+        lease.close();
+        lease.close();
+        assertEquals(1, conn.getControlChannelPool().getIdleCount());
+
+        lease = conn.leaseChannel();
+        assertSame(ch, lease.getChannel());
+        assertEquals(0, conn.getControlChannelPool().getIdleCount());
+        lease.close();
+    }
+
+    @Test
+    public void testDiscardClosedChannel() throws Exception {
+        ChannelLease lease = conn.leaseChannel();
+        Channel ch = lease.getChannel();
+        try {
+            ch.queueDeclarePassive("missing-queue");
+            fail("Queue exists");
+        } catch (Exception e) {
+            // expected
+        } finally {
+            lease.close();
+        }
+        assertEquals(0, conn.getControlChannelPool().getIdleCount());
+
+        lease = conn.leaseChannel();
+        assertNotSame(ch, lease.getChannel());
+        assertTrue(lease.getChannel().isOpen());
+        lease.close();
+    }
+
+    @Test
+    public void testQueueExistsIsCached() throws Exception {
+        ControlChannelPool pool = conn.getControlChannelPool();
+        assertEquals(Boolean.TRUE, pool.isQueueExists(QUEUE_NAME));
+        assertEquals(Boolean.FALSE, pool.isQueueExists("missing-queue"));
+
+        broker.deleteQueue(QUEUE_NAME);
+        assertEquals(Boolean.TRUE, pool.isQueueExists(QUEUE_NAME));
+
+        pool.invalidate(QUEUE_NAME);
+        assertEquals(Boolean.FALSE, pool.isQueueExists(QUEUE_NAME));
+    }
+
+    @Test
+    public void testQueueCacheIsBounded() throws Exception {
+        ControlChannelPool pool = conn.getControlChannelPool();
+        assertEquals(Boolean.TRUE, pool.isQueueExists(QUEUE_NAME));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Boolean.FALSE, pool.isQueueExists("typed-queue-" + i));
+            if (i % 100 == 0) {
+                // recently used queue is kept.
+                pool.isQueueExists(QUEUE_NAME);
+            }
+        }
+        assertTrue(pool.getCachedQueueCount() <= 256);
+
+        broker.deleteQueue(QUEUE_NAME);
+        assertEquals("Recently used queue is evicted", Boolean.TRUE, pool.isQueueExists(QUEUE_NAME));
+    }
+
+    @Test
+    public void testCloseConnection() throws Exception {
+        ControlChannelPool pool = conn.getControlChannelPool();
+        conn.leaseChannel().close();
+        conn.close();
+        assertNull(conn.leaseChannel());
+        assertEquals(0, pool.getIdleCount());
+        assertNull(pool.lease());
+    }
+}
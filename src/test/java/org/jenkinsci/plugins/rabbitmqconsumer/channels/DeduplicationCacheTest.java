@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Test for DeduplicationCache class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class DeduplicationCacheTest {
+
+    @Test
+    public void testDuplicated() {
+        DeduplicationCache cache = new DeduplicationCache("queue", null, 10, 60000);
+        assertTrue(cache.add("a"));
+        assertTrue(cache.add("b"));
+        assertFalse(cache.add("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.forget("a");
+        assertTrue(cache.add("a"));
+    }
+
+    @Test
+    public void testEvictBySize() {
+        DeduplicationCache cache = new DeduplicationCache("queue", null, 2, 60000);
+        cache.add("a");
+        cache.add("b");
+        cache.add("c");
+        assertEquals(2, cache.size());
+        assertTrue("Oldest key is not evicted", cache.add("a"));
+    }
+
+    @Test
+    public void testEvictByTtl() throws Exception {
+        DeduplicationCache cache = new DeduplicationCache("queue", null, 10, 50);
+        cache.add("a");
+        Thread.sleep(100);
+        assertTrue("Expired key is not evicted", cache.add("a"));
+    }
+
+    @Test
+    public void testGetKey() {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("x-build-id", 42);
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .messageId("msg-1").headers(headers).build();
+
+        assertEquals("msg-1", new DeduplicationCache("queue", null, 10, 60000).getKey(props));
+        assertEquals("42", new DeduplicationCache("queue", "x-build-id", 10, 60000).getKey(props));
+        assertNull(new DeduplicationCache("queue", "x-none", 10, 60000).getKey(props));
+        assertNull(new DeduplicationCache("queue", null, 10, 60000)
+                .getKey(new AMQP.BasicProperties.Builder().build()));
+    }
+
+    @Test
+    public void testForQueueKeepsCache() {
+        DeduplicationCache cache = DeduplicationCache.forQueue("dedup-queue", null, 10, 60000);
+        cache.add("a");
+        assertSame(cache, DeduplicationCache.forQueue("dedup-queue", null, 20, 60000));
+        assertFalse(DeduplicationCache.get("dedup-queue").add("a"));
+        DeduplicationCache.remove("dedup-queue");
+    }
+}
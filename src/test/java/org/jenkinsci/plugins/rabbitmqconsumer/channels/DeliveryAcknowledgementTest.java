@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Acknowledgement;
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Test for DeliveryAcknowledgement class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class DeliveryAcknowledgementTest {
+
+    @Mocked
+    Channel channel;
+
+    @Test
+    public void testAckAfterAllParts() throws Exception {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 1L, null);
+        Acknowledgement part1 = ack.createPart();
+        final Acknowledgement part2 = ack.createPart();
+        ack.release();
+        part1.ack();
+        assertFalse(ack.isSettled());
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                part2.ack();
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(ack.isSettled());
+
+        new Verifications() {{
+            channel.basicAck(1L, false); times = 1;
+        }};
+    }
+
+    @Test
+    public void testRequeueHasPriority() throws Exception {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 2L, null);
+        Acknowledgement part1 = ack.createPart();
+        Acknowledgement part2 = ack.createPart();
+        part1.nack(true);
+        part2.ack();
+        part2.reject();
+        ack.release();
+
+        new Verifications() {{
+            channel.basicNack(2L, false, true); times = 1;
+            channel.basicAck(anyLong, anyBoolean); times = 0;
+        }};
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 3L, null);
+        Acknowledgement part = ack.createPart();
+        ack.release();
+        assertFalse(ack.expire(ack.getCreatedTime(), 1000));
+        assertTrue(ack.expire(ack.getCreatedTime() + 1000, 1000));
+        part.ack();
+
+        new Verifications() {{
+            channel.basicNack(3L, false, true); times = 1;
+            channel.basicAck(anyLong, anyBoolean); times = 0;
+        }};
+    }
+
+    @Test
+    public void testCompletedTime() throws Exception {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 7L, null);
+        Acknowledgement part = ack.createPart();
+        ack.release();
+        assertEquals(0, ack.getCompletedTime());
+
+        ack.fail(part, new RuntimeException("failed"));
+        assertTrue(ack.getCompletedTime() >= ack.getCreatedTime());
+    }
+
+    @Test
+    public void testSettleWithoutLock() throws Exception {
+        final DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 4L, null);
+        final boolean[] locked = new boolean[1];
+        new NonStrictExpectations() {{
+            channel.basicAck(4L, false);
+            result = new Delegate<Channel>() {
+                @SuppressWarnings("unused")
+                void basicAck(long deliveryTag, boolean multiple) {
+                    locked[0] = Thread.holdsLock(ack);
+                }
+            };
+        }};
+        ack.release();
+        assertTrue(ack.isSettled());
+        assertFalse("Settled under lock", locked[0]);
+    }
+
+    @Test
+    public void testSettleToOnlyOnce() throws Exception {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, 5L, null);
+        ack.settleTo(DeliveryAcknowledgement.Outcome.ACK);
+        ack.settleTo(DeliveryAcknowledgement.Outcome.REQUEUE);
+
+        DeliveryAcknowledgement abandoned = new DeliveryAcknowledgement(channel, 6L, null);
+        abandoned.abandon();
+        abandoned.settleTo(DeliveryAcknowledgement.Outcome.ACK);
+
+        new Verifications() {{
+            channel.basicAck(5L, false); times = 1;
+            channel.basicNack(anyLong, anyBoolean, anyBoolean); times = 0;
+            channel.basicAck(6L, false); times = 0;
+        }};
+    }
+}
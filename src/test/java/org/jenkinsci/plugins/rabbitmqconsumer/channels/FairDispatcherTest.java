@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test for FairDispatcher class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FairDispatcherTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void testWeightedRoundRobin() {
+        FairDispatcher dispatcher = new FairDispatcher(0);
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("critical", 2);
+        dispatcher.setWeights(weights);
+
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            dispatcher.offer("bulk", 0, new Record(order, "bulk"), 0);
+        }
+        for (int i = 0; i < 3; i++) {
+            dispatcher.offer("critical", 0, new Record(order, "critical"), 0);
+        }
+        Runnable task;
+        while ((task = dispatcher.poll(10)) != null) {
+            task.run();
+        }
+
+        assertEquals("[bulk, critical, critical, bulk, critical, bulk, bulk, bulk, bulk]", order.toString());
+        assertEquals(0, dispatcher.getQueuedCount("bulk"));
+        assertEquals(10, dispatcher.getMaxWait("critical"));
+    }
+
+    @Test
+    public void testLowVolumeQueueIsNotStarved() {
+        FairDispatcher dispatcher = new FairDispatcher(0);
+        List<String> order = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            dispatcher.offer("bulk", 0, new Record(order, "bulk"), 0);
+        }
+        dispatcher.poll(0).run();
+        dispatcher.offer("critical", 0, new Record(order, "critical"), 0);
+        dispatcher.poll(0).run();
+        dispatcher.poll(5).run();
+
+        assertEquals("critical", order.get(2));
+        assertEquals(98, dispatcher.getQueuedCount("bulk"));
+    }
+
+    @Test
+    public void testHigherPriorityRunsFirst() {
+        FairDispatcher dispatcher = new FairDispatcher(0);
+        List<String> order = new ArrayList<String>();
+        dispatcher.offer("queue", 0, new Record(order, "routine-1"), 0);
+        dispatcher.offer("queue", 0, new Record(order, "routine-2"), 0);
+        dispatcher.offer("queue", 5, new Record(order, "hotfix"), 0);
+        dispatcher.offer("queue", 9, new Record(order, "release"), 0);
+        dispatcher.offer("queue", 5, new Record(order, "hotfix-2"), 0);
+        Runnable task;
+        while ((task = dispatcher.poll(0)) != null) {
+            task.run();
+        }
+
+        assertEquals("[release, hotfix, hotfix-2, routine-1, routine-2]", order.toString());
+    }
+
+    @Test
+    public void testCancelQueue() {
+        FairDispatcher dispatcher = new FairDispatcher(0);
+        List<String> order = new ArrayList<String>();
+        dispatcher.offer("closed", 0, new Record(order, "closed-1"), 0);
+        dispatcher.offer("open", 0, new Record(order, "open-1"), 0);
+        dispatcher.offer("closed", 0, new Record(order, "closed-2"), 0);
+
+        assertEquals(2, dispatcher.cancel("closed"));
+        assertEquals(0, dispatcher.getQueuedCount("closed"));
+        Runnable task;
+        while ((task = dispatcher.poll(0)) != null) {
+            task.run();
+        }
+
+        assertEquals("[open-1]", order.toString());
+        assertEquals(0, dispatcher.cancel("unknown"));
+    }
+
+    @Test
+    public void testWorkersRunTasks() throws Exception {
+        FairDispatcher dispatcher = new FairDispatcher(2);
+        try {
+            final CountDownLatch done = new CountDownLatch(20);
+            for (int i = 0; i < 20; i++) {
+                dispatcher.dispatch(i % 2 == 0 ? "a" : "b", new Runnable() {
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            dispatcher.shutdown();
+        }
+
+        // task runs on caller thread after shutdown.
+        final Thread[] ranOn = new Thread[1];
+        dispatcher.dispatch("a", new Runnable() {
+            public void run() {
+                ranOn[0] = Thread.currentThread();
+            }
+        });
+        assertSame(Thread.currentThread(), ranOn[0]);
+    }
+
+    private static final class Record implements Runnable {
+        private final List<String> order;
+        private final String name;
+
+        Record(List<String> order, String name) {
+            this.order = order;
+            this.name = name;
+        }
+
+        public void run() {
+            order.add(name);
+        }
+    }
+}
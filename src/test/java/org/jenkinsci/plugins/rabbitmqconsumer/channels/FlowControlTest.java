@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test for FlowControl class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FlowControlTest {
+
+    @Test
+    public void testBlockedDuration() {
+        FlowControl flowControl = new FlowControl();
+        assertFalse(flowControl.isBlocked());
+
+        flowControl.block("low on memory", 1000);
+        flowControl.block("low on disk", 1500);
+        assertTrue(flowControl.isBlocked());
+        assertEquals("low on disk", flowControl.getBlockedReason());
+        assertEquals(1, flowControl.getBlockedCount());
+        assertEquals(500, flowControl.getBlockedMillis(1500));
+
+        flowControl.unblock(3000);
+        assertFalse(flowControl.isBlocked());
+        assertNull(flowControl.getBlockedReason());
+        assertEquals(2000, flowControl.getBlockedMillis(5000));
+
+        flowControl.block("low on memory", 6000);
+        flowControl.unblock(6100);
+        assertEquals(2, flowControl.getBlockedCount());
+        assertEquals(2100, flowControl.getBlockedMillis(7000));
+    }
+
+    @Test
+    public void testAwaitUnblocked() throws Exception {
+        final FlowControl flowControl = new FlowControl();
+        assertTrue(flowControl.awaitUnblocked(0, TimeUnit.MILLISECONDS));
+
+        flowControl.handleBlocked("low on memory");
+        assertFalse(flowControl.awaitUnblocked(50, TimeUnit.MILLISECONDS));
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flowControl.handleUnblocked();
+            }
+        }).start();
+        assertTrue(flowControl.awaitUnblocked(10, TimeUnit.SECONDS));
+    }
+}
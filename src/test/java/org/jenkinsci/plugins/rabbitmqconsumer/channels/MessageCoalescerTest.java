@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import mockit.Delegate;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Test for MessageCoalescer class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class MessageCoalescerTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Mocked
+    Channel channel;
+
+    private final List<Payload> received = new CopyOnWriteArrayList<Payload>();
+    private final List<DeliveryAcknowledgement> acks = new CopyOnWriteArrayList<DeliveryAcknowledgement>();
+
+    @Before
+    public void setUp() {
+        new MockUp<MessageQueueListener>() {
+            @Mock
+            public void fireOnReceive(String appId, String queueName, Payload payload,
+                    DeliveryAcknowledgement acknowledgement) {
+                received.add(payload);
+            }
+        };
+    }
+
+    @Test
+    public void testDeliverLatestInWindow() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer("app", "queue", "routingKey", 200);
+        offer(coalescer, "1", 1L, "repo-a");
+        offer(coalescer, "2", 2L, "repo-a");
+        offer(coalescer, "3", 3L, "repo-b");
+        offer(coalescer, "4", 4L, "repo-a");
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received.size() < 2 || !isAllSettled()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not delivered");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(2, received.size());
+        assertEquals(2, coalescer.getCoalescedCount());
+        for (Payload p : received) {
+            if ("4".equals(p.getText())) {
+                assertEquals(3, p.getHeaders().get(MessageCoalescer.COALESCED_COUNT_HEADER));
+            } else {
+                assertEquals("3", p.getText());
+                assertNull(p.getHeaders());
+            }
+        }
+
+        new Verifications() {{
+            channel.basicAck(1L, false); times = 1;
+            channel.basicAck(2L, false); times = 1;
+            channel.basicAck(3L, false); times = 1;
+            channel.basicAck(4L, false); times = 1;
+        }};
+    }
+
+    @Test
+    public void testAbandonedIsNotDelivered() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer("app", "queue", "routingKey", 100);
+        offer(coalescer, "1", 1L, "repo-a");
+        acks.get(0).abandon();
+
+        Thread.sleep(300);
+        assertEquals(0, received.size());
+        assertEquals(0, coalescer.getPendingCount());
+
+        offer(coalescer, "2", 2L, "repo-b");
+        coalescer.clear();
+        assertEquals(0, coalescer.getPendingCount());
+        Thread.sleep(300);
+        assertEquals(0, received.size());
+    }
+
+    @Test
+    public void testHandOverToOwner(@Mocked final ConsumeRMQChannel owner) throws Exception {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<Runnable>();
+        new NonStrictExpectations() {{
+            owner.dispatchCoalesced((DeliveryAcknowledgement) any, (Payload) any, (Runnable) any);
+            result = new Delegate<ConsumeRMQChannel>() {
+                @SuppressWarnings("unused")
+                void dispatchCoalesced(DeliveryAcknowledgement acknowledgement, Payload payload, Runnable task) {
+                    tasks.add(task);
+                }
+            };
+        }};
+
+        MessageCoalescer coalescer = new MessageCoalescer("app", "queue", "routingKey", 100, owner);
+        offer(coalescer, "1", 1L, "repo-a");
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (tasks.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not handed over");
+            }
+            Thread.sleep(10);
+        }
+        assertEquals("Delivered on timer", 0, received.size());
+        assertFalse(acks.get(0).isSettled());
+
+        tasks.get(0).run();
+        assertEquals(1, received.size());
+        assertTrue(acks.get(0).isSettled());
+    }
+
+    @Test
+    public void testNoKeyIsDeliveredImmediately() throws Exception {
+        MessageCoalescer coalescer = new MessageCoalescer("app", "queue", "header:repo", 60000);
+        offer(coalescer, "1", 1L, "repo-a");
+        assertEquals(1, received.size());
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    private Payload createPayload(String body) {
+        return new Payload("text/plain", null, body.getBytes());
+    }
+
+    private void offer(MessageCoalescer coalescer, String body, long tag, String routingKey) {
+        DeliveryAcknowledgement ack = new DeliveryAcknowledgement(channel, null,
+                new Envelope(tag, false, "", routingKey), new AMQP.BasicProperties(), body.getBytes());
+        acks.add(ack);
+        try {
+            coalescer.offer(createPayload(body), ack);
+        } finally {
+            ack.release();
+        }
+    }
+
+    private boolean isAllSettled() {
+        for (DeliveryAcknowledgement ack : acks) {
+            if (!ack.isSettled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Test for MessageKey class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class MessageKeyTest {
+
+    @Test
+    public void testGet() {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("repo", "from-header");
+        Payload payload = new Payload("application/json", headers,
+                "{\"repository\":{\"name\":\"from-json\"}}".getBytes());
+        Envelope envelope = new Envelope(1L, false, "ex", "from-routing-key");
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().correlationId("from-correlation").build();
+
+        assertEquals("from-routing-key", new MessageKey("routingKey").get(envelope, props, payload));
+        assertEquals("from-correlation", new MessageKey("correlationId").get(envelope, props, payload));
+        assertEquals("from-header", new MessageKey("header:repo").get(envelope, props, payload));
+        assertEquals("from-json", new MessageKey("json:repository.name").get(envelope, props, payload));
+        assertNull(new MessageKey("json:repository.owner").get(envelope, props, payload));
+        assertNull(new MessageKey("unknown").get(envelope, props, payload));
+        assertNull(new MessageKey(null).get(envelope, props, payload));
+    }
+
+    @Test
+    public void testJsonKeyOfInvalidBody() {
+        Payload payload = new Payload("text/plain", null, "not json".getBytes());
+        assertNull(new MessageKey("json:repository.name").get(null, null, payload));
+    }
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.junit.After;
+import org.junit.Test;
+
+import com.rabbitmq.client.Envelope;
+
+/**
+ * Test for OrderedDispatcher class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class OrderedDispatcherTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final OrderedDispatcher dispatcher = new OrderedDispatcher("queue", 4, "routingKey");
+    private final Payload payload = new Payload("text/plain", null, new byte[0]);
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testSameKeyIsOrdered() throws Exception {
+        final List<Integer> processed = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            dispatcher.dispatch(envelope(i, "repo"), null, payload, new Runnable() {
+                public void run() {
+                    processed.add(number);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), processed.get(i));
+        }
+    }
+
+    @Test
+    public void testDifferentKeysRunInParallel() throws Exception {
+        String blockedKey = "repo-0";
+        String otherKey = null;
+        int blockedLane = dispatcher.getLane(envelope(0, blockedKey), null, payload);
+        for (int i = 1; otherKey == null; i++) {
+            if (dispatcher.getLane(envelope(0, "repo-" + i), null, payload) != blockedLane) {
+                otherKey = "repo-" + i;
+            }
+        }
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        dispatcher.dispatch(envelope(1, blockedKey), null, payload, new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        dispatcher.dispatch(envelope(2, otherKey), null, payload, new Runnable() {
+            public void run() {
+                otherDone.countDown();
+            }
+        });
+        try {
+            assertTrue("Blocked by other key", otherDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private Envelope envelope(long tag, String routingKey) {
+        return new Envelope(tag, false, "", routingKey);
+    }
+}
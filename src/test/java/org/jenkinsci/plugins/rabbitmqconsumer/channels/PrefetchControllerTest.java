@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test for PrefetchController class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class PrefetchControllerTest {
+
+    private static final long PERIOD = 1000;
+
+    @Test
+    public void testIncreaseWhenSaturated() {
+        PrefetchController controller = new PrefetchController(10, 25, 500);
+        long now = System.currentTimeMillis();
+        assertEquals(0, controller.adjust(now, 0.5));
+
+        controller.observe(10);
+        controller.record(100);
+        assertEquals(20, controller.adjust(now + PERIOD, 0.5));
+        assertEquals(PrefetchController.Decision.INCREASE, controller.getLastDecision());
+
+        controller.observe(20);
+        assertEquals(25, controller.adjust(now + PERIOD * 2, 0.5));
+
+        controller.observe(25);
+        assertEquals(0, controller.adjust(now + PERIOD * 3, 0.5));
+        assertEquals(25, controller.getPrefetchCount());
+        assertEquals(2, controller.getIncreaseCount());
+    }
+
+    @Test
+    public void testHoldWhenNotSaturated() {
+        PrefetchController controller = new PrefetchController(10, 100, 500);
+        controller.observe(2);
+        controller.record(100);
+        assertEquals(0, controller.adjust(System.currentTimeMillis() + PERIOD, 0.5));
+        assertEquals(PrefetchController.Decision.HOLD, controller.getLastDecision());
+    }
+
+    @Test
+    public void testDecreaseByLatency() {
+        PrefetchController controller = new PrefetchController(40, 100, 500);
+        controller.observe(40);
+        controller.record(400);
+        controller.record(1000);
+        assertEquals(20, controller.adjust(System.currentTimeMillis() + PERIOD, 0.5));
+        assertEquals(PrefetchController.Decision.DECREASE_LATENCY, controller.getLastDecision());
+        assertEquals(700, controller.getAverageLatency());
+    }
+
+    @Test
+    public void testDecreaseByHeap() {
+        PrefetchController controller = new PrefetchController(3, 100, 500);
+        long now = System.currentTimeMillis();
+        assertEquals(1, controller.adjust(now + PERIOD, 0.05));
+        assertEquals(PrefetchController.Decision.DECREASE_HEAP, controller.getLastDecision());
+        assertEquals(0, controller.adjust(now + PERIOD * 2, 0.05));
+        assertEquals(1, controller.getPrefetchCount());
+    }
+
+    @Test
+    public void testFixed() {
+        PrefetchController controller = new PrefetchController(10);
+        controller.observe(10);
+        assertFalse(controller.isAdaptive());
+        assertEquals(0, controller.adjust());
+        assertEquals(10, controller.getPrefetchCount());
+    }
+}
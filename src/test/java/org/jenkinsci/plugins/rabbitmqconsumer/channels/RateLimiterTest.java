@@ -0,0 +1,57 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test for RateLimiter class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testBurstThenRate() {
+        RateLimiter limiter = new RateLimiter(10, 3);
+        long now = System.currentTimeMillis() + 10000;
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(100, limiter.reserve(now));
+        assertEquals(200, limiter.reserve(now));
+        assertEquals(2, limiter.getThrottledCount());
+
+        // debt is paid back by refill.
+        assertEquals(0, limiter.reserve(now + 300));
+        assertEquals(100, limiter.reserve(now + 300));
+    }
+
+    @Test
+    public void testRefillIsCappedByBurst() {
+        RateLimiter limiter = new RateLimiter(2, 2);
+        long now = System.currentTimeMillis() + 10000;
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now + 60000));
+        assertEquals(0, limiter.reserve(now + 60000));
+        assertEquals(500, limiter.reserve(now + 60000));
+    }
+
+    @Test
+    public void testRates() {
+        RateLimiter limiter = new RateLimiter(1000, 5);
+        long start = (System.currentTimeMillis() / 1000 + 10) * 1000;
+        for (int i = 0; i < 8; i++) {
+            limiter.reserve(start);
+        }
+        assertEquals(0, limiter.getCurrentRate(start));
+        assertEquals(8, limiter.getCurrentRate(start + 1000));
+        assertEquals(3, limiter.getThrottledRate(start + 1000));
+
+        limiter.reserve(start + 1000);
+        assertEquals(8, limiter.getCurrentRate(start + 1500));
+        assertEquals(1, limiter.getCurrentRate(start + 2000));
+        assertEquals(0, limiter.getCurrentRate(start + 5000));
+    }
+}
@@ -0,0 +1,248 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.channels;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.FakeBroker;
+import org.jenkinsci.plugins.rabbitmqconsumer.Mocks;
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQConnection;
+import org.jenkinsci.plugins.rabbitmqconsumer.RabbitmqConsumeItem;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+/**
+ * Test for RetryScheduler class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class RetrySchedulerTest {
+
+    private static final String APP_ID = "retry-app";
+    private static final String QUEUE_NAME = "retry-queue";
+    private static final String DLX_NAME = "retry-dlx";
+    private static final String DEAD_QUEUE_NAME = "retry-dead";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final FailingListener LISTENER = new FailingListener();
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    private FakeBroker broker;
+    private RMQConnection conn;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+        Mocks.mqListenerSet.add(LISTENER);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Mocks.mqListenerSet.remove(LISTENER);
+        Mocks.retryPolicy = RetryPolicy.DISABLED;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            result = new Mocks.OnBindDelegation();
+
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+            result = new Mocks.OnUnbindDelegation();
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
+        }};
+
+        broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        broker.declareQueue(DEAD_QUEUE_NAME);
+        Connection admin = broker.connect();
+        Channel ch = admin.createChannel();
+        ch.exchangeDeclare(DLX_NAME, "fanout");
+        ch.queueBind(DEAD_QUEUE_NAME, DLX_NAME, "");
+        ch.close();
+        admin.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.setConfirmFailure(false);
+        if (conn != null) {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testBackoffDelay() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, null);
+        assertEquals(100, policy.getDelay(1));
+        assertEquals(200, policy.getDelay(2));
+        assertEquals(800, policy.getDelay(4));
+        assertEquals(1000, policy.getDelay(5));
+        assertEquals(1000, policy.getDelay(Integer.MAX_VALUE));
+        assertFalse(RetryPolicy.DISABLED.isEnabled());
+    }
+
+    @Test
+    public void testRetryUntilSuccess() throws Exception {
+        Mocks.retryPolicy = new RetryPolicy(5, 10, 50, DLX_NAME);
+        LISTENER.reset(2);
+        open();
+        publish();
+
+        waitForDrain(QUEUE_NAME);
+        assertEquals("Unmatched attempts", 3, LISTENER.attempts.size());
+        assertEquals(Integer.valueOf(0), LISTENER.attempts.get(0));
+        assertEquals(Integer.valueOf(2), LISTENER.attempts.get(2));
+        assertEquals("Dead-lettered", 0, broker.getQueueDepth(DEAD_QUEUE_NAME));
+    }
+
+    @Test
+    public void testDeadLetterAfterMaxAttempts() throws Exception {
+        Mocks.retryPolicy = new RetryPolicy(3, 10, 50, DLX_NAME);
+        LISTENER.reset(Integer.MAX_VALUE);
+        open();
+        publish();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (broker.getQueueDepth(DEAD_QUEUE_NAME) == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not dead-lettered");
+            }
+            Thread.sleep(10);
+        }
+        waitForDrain(QUEUE_NAME);
+        assertEquals("Unmatched attempts", 3, LISTENER.attempts.size());
+    }
+
+    @Test
+    public void testRequeueIfDeadLetterIsNotConfirmed() throws Exception {
+        Mocks.retryPolicy = new RetryPolicy(1, 10, 50, DLX_NAME);
+        LISTENER.reset(Integer.MAX_VALUE);
+        broker.setConfirmFailure(true);
+        open();
+        publish();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (broker.getRedeliveredCount() == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Not requeued");
+            }
+            Thread.sleep(10);
+        }
+
+        broker.setConfirmFailure(false);
+        waitForDrain(QUEUE_NAME);
+        assertTrue("Not dead-lettered", broker.getQueueDepth(DEAD_QUEUE_NAME) > 0);
+    }
+
+    @Test
+    public void testDisabledAcknowledgesFailure() throws Exception {
+        Mocks.retryPolicy = RetryPolicy.DISABLED;
+        LISTENER.reset(Integer.MAX_VALUE);
+        open();
+        publish();
+
+        waitForDrain(QUEUE_NAME);
+        assertEquals("Unmatched attempts", 1, LISTENER.attempts.size());
+        assertEquals("Dead-lettered", 0, broker.getQueueDepth(DEAD_QUEUE_NAME));
+    }
+
+    private void open() throws Exception {
+        conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+        conn.open();
+        conn.updateChannels(items);
+    }
+
+    private void publish() {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().appId(APP_ID).build();
+        broker.publish("", QUEUE_NAME, props, "retry".getBytes());
+    }
+
+    private void waitForDrain(String queueName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        // wait at least once for deliveries in flight.
+        Thread.sleep(200);
+        while (broker.getQueueDepth(queueName) > 0 || broker.getUnackedCount(queueName) > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Queue is not drained");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Listener that fails specified times.
+     */
+    private static final class FailingListener extends MessageQueueListener {
+
+        private final List<Integer> attempts = new CopyOnWriteArrayList<Integer>();
+        private volatile int failures;
+
+        public void reset(int failures) {
+            this.failures = failures;
+            attempts.clear();
+        }
+
+        @Override
+        public String getName() {
+            return "failing-listener";
+        }
+
+        @Override
+        public String getAppId() {
+            return APP_ID;
+        }
+
+        @Override
+        public void onBind(String queueName) {
+        }
+
+        @Override
+        public void onUnbind(String queueName) {
+        }
+
+        @Override
+        public void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body) {
+            int attempt = 0;
+            if (headers != null && headers.get(RetryScheduler.ATTEMPTS_HEADER) != null) {
+                attempt = ((Number) headers.get(RetryScheduler.ATTEMPTS_HEADER)).intValue();
+            }
+            attempts.add(attempt);
+            if (attempts.size() <= failures) {
+                throw new IllegalStateException("failed on attempt " + attempt);
+            }
+        }
+    }
+}
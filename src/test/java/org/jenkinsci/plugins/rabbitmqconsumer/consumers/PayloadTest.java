@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.consumers;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+/**
+ * Test for Payload class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class PayloadTest {
+
+    @Test
+    public void testDecodeOnce() {
+        final AtomicInteger count = new AtomicInteger();
+        PayloadCodec<String> codec = new PayloadCodec<String>() {
+            @Override
+            public boolean isApplicable(String mimeType) {
+                return true;
+            }
+
+            @Override
+            public String decode(Payload payload) {
+                count.incrementAndGet();
+                return "decoded";
+            }
+        };
+        Payload payload = new Payload("text/plain", null, "body".getBytes());
+        assertEquals("decoded", payload.get(codec));
+        assertEquals("decoded", payload.get(codec));
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        Payload payload = new Payload("application/json; charset=UTF-8", null,
+                "{\"name\":\"テスト\"}".getBytes("UTF-8"));
+        assertEquals("application/json", payload.getMimeType());
+        JSONObject json = (JSONObject) payload.getDecoded();
+        assertEquals("テスト", json.getString("name"));
+        assertSame(json, payload.getJson());
+    }
+
+    @Test
+    public void testCharset() throws Exception {
+        Payload payload = new Payload("text/plain; charset=\"ISO-8859-1\"", null, "café".getBytes("ISO-8859-1"));
+        assertEquals("café", payload.getDecoded());
+
+        payload = new Payload("text/plain; charset=unknown", null, "text".getBytes("UTF-8"));
+        assertEquals("UTF-8", payload.getCharset().name());
+    }
+
+    @Test
+    public void testProperties() {
+        Payload payload = new Payload("text/x-java-properties", null, "key=value\n".getBytes());
+        assertEquals("value", payload.getProperties().getProperty("key"));
+        assertSame(payload.getProperties(), payload.getDecoded());
+    }
+
+    @Test
+    public void testUnknownContentType() {
+        byte[] body = new byte[] { 1, 2, 3 };
+        assertSame(body, new Payload("application/octet-stream", null, body).getDecoded());
+        assertSame(body, new Payload(null, null, body).getDecoded());
+    }
+
+    @Test
+    public void testFailureIsCached() {
+        Payload payload = new Payload("application/json", null, "{invalid".getBytes());
+        RuntimeException first = null;
+        try {
+            payload.getJson();
+            fail("Invalid JSON is decoded");
+        } catch (RuntimeException e) {
+            first = e;
+        }
+        try {
+            payload.getJson();
+            fail("Invalid JSON is decoded");
+        } catch (RuntimeException e) {
+            assertSame(first, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.extensions;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.FakeBroker;
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQConnection;
+import org.jenkinsci.plugins.rabbitmqconsumer.watchdog.ReconnectTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Test for ServerOperator class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class ServerOperatorTest {
+
+    @Mocked
+    ReconnectTimer timer = new ReconnectTimer();
+
+    private RMQConnection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        new NonStrictExpectations() {{
+            ReconnectTimer.get(); result = timer;
+        }};
+        FakeBroker broker = new FakeBroker();
+        conn = new RMQConnection(FakeBroker.SERVICE_URI, null, null, broker.createConnectionFactory());
+        conn.open();
+    }
+
+    @After
+    public void tearDown() {
+        conn.close();
+    }
+
+    @Test
+    public void testFireOnOpen() throws Exception {
+        RecordingOperator first = new RecordingOperator(false, false);
+        RecordingOperator failing = new RecordingOperator(false, true);
+        RecordingOperator afterFailure = new RecordingOperator(false, false);
+        RecordingOperator last = new RecordingOperator(false, false);
+        List<ServerOperator> operators = new ArrayList<ServerOperator>();
+        operators.add(first);
+        operators.add(failing);
+        operators.add(afterFailure);
+        operators.add(last);
+        for (int i = 0; i < 3; i++) {
+            operators.add(new RecordingOperator(true, false));
+        }
+
+        ServerOperator.fireOnOpen(conn, operators);
+
+        for (ServerOperator op : operators) {
+            RecordingOperator r = (RecordingOperator) op;
+            assertNotNull("Not called", r.channel);
+            if (!r.fail) {
+                assertTrue("Channel is closed", r.open);
+            }
+        }
+        assertSame("Channel is not reused", first.channel, failing.channel);
+        assertNotSame("Broken channel is reused", failing.channel, afterFailure.channel);
+        assertSame("Channel is not reused", afterFailure.channel, last.channel);
+        assertFalse("Channel is returned to pool", last.channel.isOpen());
+        assertEquals(0, conn.getControlChannelPool().getIdleCount());
+    }
+
+    /**
+     * Operator that records given channel.
+     */
+    private static final class RecordingOperator extends ServerOperator {
+        private final boolean independent;
+        private final boolean fail;
+        private volatile Channel channel;
+        private volatile boolean open;
+
+        RecordingOperator(boolean independent, boolean fail) {
+            this.independent = independent;
+            this.fail = fail;
+        }
+
+        @Override
+        public boolean isIndependent() {
+            return independent;
+        }
+
+        @Override
+        public void OnOpen(Channel controlChannel, String serviceUri) throws IOException {
+            channel = controlChannel;
+            open = controlChannel.isOpen();
+            if (fail) {
+                controlChannel.queueDeclarePassive("missing-queue");
+            }
+        }
+
+        @Override
+        public void OnCloseCompleted(String serviceUri) {
+        }
+    }
+}
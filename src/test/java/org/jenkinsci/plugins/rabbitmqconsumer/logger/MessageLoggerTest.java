@@ -0,0 +1,99 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.logger;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.junit.Test;
+
+/**
+ * Test for MessageLogger and its helpers.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class MessageLoggerTest {
+
+    @Test
+    public void testSampleInterval() {
+        LogSampler sampler = new LogSampler();
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample(10, 0, 0)) {
+                sampled++;
+            }
+        }
+        assertEquals(10, sampled);
+    }
+
+    @Test
+    public void testSampleRate() {
+        LogSampler sampler = new LogSampler();
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (sampler.sample(1, 5, 10000)) {
+                sampled++;
+            }
+        }
+        assertEquals(5, sampled);
+        assertTrue("Not reset in next second", sampler.sample(1, 5, 11000));
+    }
+
+    @Test
+    public void testPreview() {
+        Payload payload = new Payload("text/plain", null, "0123456789".getBytes());
+        assertEquals("0123456789", MessageLogger.createPreview(payload, 0));
+        assertEquals("0123456789", MessageLogger.createPreview(payload, 10));
+        assertEquals("0123... (10 bytes)", MessageLogger.createPreview(payload, 4));
+    }
+
+    @Test
+    public void testPreviewMultiByte() throws Exception {
+        // 3 bytes per character in UTF-8.
+        String text = "\u3042\u3044\u3046\u3048\u304a";
+        Payload payload = new Payload("text/plain; charset=UTF-8", null, text.getBytes("UTF-8"));
+        assertEquals("\u3042\u3044... (15 bytes)", MessageLogger.createPreview(payload, 2));
+        assertEquals(text, MessageLogger.createPreview(payload, 5));
+        assertEquals(text, MessageLogger.createPreview(payload, 14));
+    }
+
+    @Test
+    public void testWriterDropsWhenFull() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Logger logger = Logger.getLogger(MessageLoggerTest.class.getName() + ".writer");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        AsyncLogWriter writer = new AsyncLogWriter(logger, 2);
+        assertTrue(writer.write("first"));
+        assertTrue("Writer is not started", blocked.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.write("second"));
+        assertTrue(writer.write("third"));
+        assertFalse("Writer blocks or grows", writer.write("fourth"));
+        assertEquals(1, writer.getDroppedCount());
+        release.countDown();
+    }
+}
@@ -0,0 +1,336 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.FakeBroker;
+import org.jenkinsci.plugins.rabbitmqconsumer.GlobalRabbitmqConfiguration;
+import org.jenkinsci.plugins.rabbitmqconsumer.Mocks;
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQManager;
+import org.jenkinsci.plugins.rabbitmqconsumer.RabbitmqConsumeItem;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.DeliveryAcknowledgement;
+import org.jenkinsci.plugins.rabbitmqconsumer.consumers.Payload;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.MessageQueueListener;
+import org.jenkinsci.plugins.rabbitmqconsumer.extensions.ServerOperator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * Fault injection test for RMQManager, RMQConnection and ReconnectTimer.
+ *
+ * Each scenario injects fault into in-process broker then drives watchdog
+ * until consumer is recovered. Watchdog is driven as Jenkins does, so each
+ * run is done by new instance which is given from the previous one. Time-to-recover and lost/duplicated messages
+ * are measured and compared with budgets. This is not run by default,
+ * use soak profile: mvn test -Psoak
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class FaultInjectionIT {
+
+    private static final Logger LOGGER = Logger.getLogger(FaultInjectionIT.class.getName());
+
+    private static final String APP_ID = "fault-app";
+    private static final String QUEUE_NAME = "fault-queue";
+    private static final int MESSAGES = 500;
+    private static final long WATCHDOG_PERIOD_MILLIS = 50;
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
+    private static final long RECOVERY_BUDGET_MILLIS = 5000;
+    private static final int LOST_BUDGET = 0;
+    private static final int DUPLICATED_BUDGET = 1;
+
+    private static final RecordingListener LISTENER = new RecordingListener();
+
+    private static FakeBroker broker;
+
+    @Mocked
+    GlobalRabbitmqConfiguration config;
+
+    @Mocked
+    ServerOperator operator = null;     /* dummy */
+
+    @Mocked
+    MessageQueueListener mqListener = null;     /* dummy */
+
+    ReconnectTimer timer = new ReconnectTimer();
+    ReconnectTimer work;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        new Mocks.ConsumeRMQChannelConfigMock();
+        new MockUp<ConnectionFactory>() {
+            @Mock
+            public Connection newConnection() throws IOException {
+                return broker.connect();
+            }
+        };
+        Mocks.mqListenerSet.add(LISTENER);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Mocks.mqListenerSet.remove(LISTENER);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new FakeBroker();
+        broker.declareQueue(QUEUE_NAME);
+        LISTENER.reset();
+
+        final List<RabbitmqConsumeItem> items = new ArrayList<RabbitmqConsumeItem>();
+        items.add(new RabbitmqConsumeItem(APP_ID, QUEUE_NAME));
+
+        new MockUp<ReconnectTimer>() {
+            @Mock
+            public ReconnectTimer get() {
+                return timer;
+            }
+        };
+
+        new NonStrictExpectations() {{
+            GlobalRabbitmqConfiguration.get(); result = config;
+            config.isEnableConsumer(); result = true;
+            config.getServiceUri(); result = FakeBroker.SERVICE_URI;
+            config.getUserName(); result = "";
+            config.getConsumeItems(); result = items;
+
+            MessageQueueListener.fireOnBind((HashSet<String>) any, anyString);
+            result = new Mocks.OnBindDelegation();
+
+            MessageQueueListener.fireOnUnbind((HashSet<String>) any, anyString);
+            result = new Mocks.OnUnbindDelegation();
+
+            MessageQueueListener.fireOnReceive(anyString,
+                    anyString,
+                    (Payload) any,
+                    (DeliveryAcknowledgement) any);
+            result = new Mocks.OnReceiveWithAckDelegation();
+        }};
+
+        // Jenkins schedules new instance instead of registered one.
+        work = (ReconnectTimer) timer.getNewInstance();
+        RMQManager.getInstance().update();
+        assertTrue("Consumer is not started", RMQManager.getInstance().getChannelStatus(QUEUE_NAME));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RMQManager.getInstance().shutdown();
+        broker.setAuthFailure(false);
+        broker.setCreateChannelDelay(0);
+    }
+
+    @Test
+    public void testConnectionDrop() throws Exception {
+        runScenario(new Scenario("connection drop") {
+            void inject() {
+                broker.disconnectAll();
+            }
+        });
+    }
+
+    @Test
+    public void testChannelError() throws Exception {
+        runScenario(new Scenario("channel-level error") {
+            void inject() {
+                broker.injectChannelError(QUEUE_NAME);
+            }
+        });
+    }
+
+    @Test
+    public void testConsumerCancel() throws Exception {
+        runScenario(new Scenario("consumer cancel") {
+            void inject() throws Exception {
+                Set<ConsumeRMQChannel> channels = RMQManager.getInstance().getConsumeChannels();
+                broker.cancelConsumers(QUEUE_NAME);
+                long deadline = System.currentTimeMillis() + RECOVERY_BUDGET_MILLIS;
+                while (RMQManager.getInstance().getConsumeChannels().containsAll(channels)) {
+                    if (System.currentTimeMillis() > deadline) {
+                        fail("Cancel is not handled");
+                    }
+                    Thread.sleep(10);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testSlowCreateChannel() throws Exception {
+        runScenario(new Scenario("slow createChannel") {
+            void inject() {
+                broker.setCreateChannelDelay(500);
+                broker.disconnectAll();
+            }
+        });
+    }
+
+    @Test
+    public void testAuthFailure() throws Exception {
+        runScenario(new Scenario("auth failure") {
+            void inject() throws Exception {
+                broker.setAuthFailure(true);
+                broker.disconnectAll();
+                for (int i = 0; i < 3; i++) {
+                    runWatchdog();
+                }
+                assertFalse("Connected with auth failure", RMQManager.getInstance().isOpen());
+                broker.setAuthFailure(false);
+            }
+        });
+    }
+
+    /**
+     * Runs scenario then checks budgets.
+     *
+     * @param scenario the scenario.
+     * @throws Exception throw if error.
+     */
+    private void runScenario(Scenario scenario) throws Exception {
+        publish(0, MESSAGES);
+
+        long start = System.nanoTime();
+        scenario.inject();
+        while (!RMQManager.getInstance().getChannelStatus(QUEUE_NAME)) {
+            if (System.nanoTime() - start > RECOVERY_BUDGET_MILLIS * 1000000L) {
+                fail(MessageFormat.format("[{0}] Not recovered within {1} ms", scenario.name, RECOVERY_BUDGET_MILLIS));
+            }
+            runWatchdog();
+            Thread.sleep(WATCHDOG_PERIOD_MILLIS);
+        }
+        long recoveryMillis = (System.nanoTime() - start) / 1000000L;
+
+        publish(MESSAGES, MESSAGES);
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (broker.getQueueDepth(QUEUE_NAME) > 0 || broker.getUnackedCount(QUEUE_NAME) > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(MessageFormat.format("[{0}] Queue is not drained", scenario.name));
+            }
+            Thread.sleep(WATCHDOG_PERIOD_MILLIS);
+        }
+
+        int lost = LISTENER.countLost(MESSAGES * 2);
+        int duplicated = LISTENER.countDuplicated();
+        LOGGER.info(MessageFormat.format("[{0}] recovery: {1} ms, lost: {2}, duplicated: {3}",
+                scenario.name, recoveryMillis, lost, duplicated));
+
+        assertTrue(MessageFormat.format("[{0}] lost {1} messages", scenario.name, lost), lost <= LOST_BUDGET);
+        assertTrue(MessageFormat.format("[{0}] duplicated {1} messages", scenario.name, duplicated),
+                duplicated <= DUPLICATED_BUDGET);
+    }
+
+    /**
+     * Runs watchdog once then replaces it with new instance as Jenkins does.
+     */
+    private void runWatchdog() {
+        work.doAperiodicRun();
+        work = (ReconnectTimer) work.getNewInstance();
+    }
+
+    private void publish(int from, int count) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().appId(APP_ID).build();
+        for (int i = from; i < from + count; i++) {
+            broker.publish("", QUEUE_NAME, props, Integer.toString(i).getBytes());
+        }
+    }
+
+    /**
+     * Fault scenario.
+     */
+    private abstract static class Scenario {
+        private final String name;
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        abstract void inject() throws Exception;
+    }
+
+    /**
+     * Listener that records received sequence numbers.
+     */
+    private static final class RecordingListener extends MessageQueueListener {
+
+        private final ConcurrentHashMap<Integer, AtomicInteger> received = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+        public void reset() {
+            received.clear();
+        }
+
+        public int countLost(int total) {
+            int lost = 0;
+            for (int i = 0; i < total; i++) {
+                if (!received.containsKey(i)) {
+                    lost++;
+                }
+            }
+            return lost;
+        }
+
+        public int countDuplicated() {
+            int duplicated = 0;
+            for (AtomicInteger c : received.values()) {
+                duplicated += c.get() - 1;
+            }
+            return duplicated;
+        }
+
+        @Override
+        public String getName() {
+            return "recording-listener";
+        }
+
+        @Override
+        public String getAppId() {
+            return APP_ID;
+        }
+
+        @Override
+        public void onBind(String queueName) {
+        }
+
+        @Override
+        public void onUnbind(String queueName) {
+        }
+
+        @Override
+        public void onReceive(String queueName, String contentType, Map<String, Object> headers, byte[] body) {
+            Integer seq = Integer.valueOf(new String(body));
+            AtomicInteger count = received.get(seq);
+            if (count == null) {
+                count = new AtomicInteger();
+                AtomicInteger prev = received.putIfAbsent(seq, count);
+                if (prev != null) {
+                    count = prev;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test for LoadShedder class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class LoadShedderTest {
+
+    @Test
+    public void testQueueHysteresis() {
+        LoadShedder shedder = new LoadShedder();
+        assertFalse(shedder.evaluate(999, 100, 1000, 500, 0, 0));
+        assertTrue(shedder.evaluate(1000, 0, 1000, 500, 0, 0));
+        assertTrue("Resumed above low threshold", shedder.evaluate(700, 0, 1000, 500, 0, 0));
+        assertFalse(shedder.evaluate(500, 0, 1000, 500, 0, 0));
+        assertFalse(shedder.evaluate(700, 0, 1000, 500, 0, 0));
+    }
+
+    @Test
+    public void testExecutorHysteresis() {
+        LoadShedder shedder = new LoadShedder();
+        assertFalse(shedder.evaluate(0, 89, 1000, 500, 90, 50));
+        assertTrue(shedder.evaluate(0, 90, 1000, 500, 90, 50));
+        assertTrue(shedder.evaluate(0, 60, 1000, 500, 90, 50));
+        assertTrue("Resumed while queue is long", shedder.evaluate(600, 40, 1000, 500, 90, 50));
+        assertFalse(shedder.evaluate(100, 40, 1000, 500, 90, 50));
+    }
+}
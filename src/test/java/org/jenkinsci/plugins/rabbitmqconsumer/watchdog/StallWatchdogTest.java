@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.rabbitmqconsumer.watchdog;
+
+import java.util.Collections;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import org.jenkinsci.plugins.rabbitmqconsumer.RMQManager;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ChannelLease;
+import org.jenkinsci.plugins.rabbitmqconsumer.channels.ConsumeRMQChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+/**
+ * Test for StallWatchdog class.
+ *
+ * @author rinrinne a.k.a. rin_ne
+ */
+public class StallWatchdogTest {
+
+    @Mocked
+    RMQManager manager;
+
+    @Mocked
+    ConsumeRMQChannel consumeChannel;
+
+    @Mocked
+    ChannelLease lease;
+
+    @Mocked
+    Channel control;
+
+    @Mocked
+    AMQP.Queue.DeclareOk declareOk;
+
+    StallWatchdog watchdog = new StallWatchdog();
+
+    @Before
+    public void setUp() throws Exception {
+        new NonStrictExpectations() {{
+            RMQManager.getInstance(); result = manager;
+            manager.getConsumeChannels(); result = Collections.singleton(consumeChannel);
+            manager.leaseChannel(); result = lease;
+            lease.getChannel(); result = control;
+            control.isOpen(); result = true;
+            control.queueDeclarePassive(anyString); result = declareOk;
+            declareOk.getMessageCount(); result = 5;
+            consumeChannel.getQueueName(); result = "theQueue";
+            consumeChannel.isConsumeStarted(); result = true;
+        }};
+    }
+
+    @Test
+    public void testRestartStalledConsumer() throws Exception {
+        new NonStrictExpectations() {{
+            consumeChannel.checkStalled(5); result = true;
+        }};
+
+        watchdog.doRun();
+
+        new Verifications() {{
+            consumeChannel.restart(anyString); times = 1;
+            lease.close(); times = 1;
+        }};
+    }
+
+    @Test
+    public void testKeepActiveConsumer() throws Exception {
+        new NonStrictExpectations() {{
+            consumeChannel.checkStalled(5); result = false;
+        }};
+
+        watchdog.doRun();
+
+        new Verifications() {{
+            consumeChannel.restart(anyString); times = 0;
+        }};
+    }
+}